@@ -0,0 +1,77 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Query;
+import com.minisqlpp.bench.Datasets;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.parse.Parser;
+import com.minisqlpp.parse.Scanner;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table loading and whole queries over generated data at each scale, from
+ * the CSV files or their columnar sidecars. Results go to a null stream, so
+ * formatting is measured but not the terminal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvBackendBenchmark {
+    @Param({"1", "10"})
+    public int scale;
+
+    @Param({"false", "true"})
+    public boolean sidecar;
+
+    private Path dir;
+    private Catalog catalog;
+    private CsvBackend backend;
+
+    /** The query a run benchmark executes; kept apart so loadTable is not repeated per shape. */
+    @State(Scope.Benchmark)
+    public static class Shape {
+        @Param({"filter", "join", "sort", "limit"})
+        public String shape;
+
+        Query query;
+
+        @Setup(Level.Trial)
+        public void setup(CsvBackendBenchmark data) throws Exception {
+            query = new Parser(new Scanner(Datasets.QUERIES.get(shape)).scan()).parseQuery();
+            new TypeChecker(data.catalog).check(query);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("minisqlpp-bench");
+        Datasets.generate(dir, scale);
+        catalog = Catalog.load(dir.resolve("catalog.json"));
+        backend = new CsvBackend(catalog, new RunOptions(1, 0, sidecar));
+        backend.loadTable(dir.resolve("users.csv"), "users"); // writes the sidecars when on
+        backend.loadTable(dir.resolve("orders.csv"), "orders");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Datasets.delete(dir);
+    }
+
+    @Benchmark
+    public void run(Shape s) throws Exception {
+        backend.run(s.query, dir, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public ColumnTable loadTable() throws Exception {
+        return backend.loadTable(dir.resolve("orders.csv"), "orders");
+    }
+}
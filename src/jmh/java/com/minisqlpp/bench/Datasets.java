@@ -0,0 +1,52 @@
+package com.minisqlpp.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The sample users/orders schema at a scale factor: 10,000 users and 100,000
+ * orders per unit, with totals from 0 to 999 and orders spread uniformly
+ * over users. The same scale always gives the same files.
+ */
+public final class Datasets {
+    public static final String CATALOG = """
+            {"users": {"id": "INT", "name": "STRING"},
+             "orders": {"id": "INT", "user_id": "INT", "total": "INT"}}
+            """;
+
+    /** One query per shape the benchmarks cover, over the generated tables. */
+    public static final Map<String,String> QUERIES = Map.of(
+            "filter", "SELECT o.id, o.total FROM orders o WHERE o.total > 900 AND o.user_id < 5000",
+            "join", "SELECT u.name, o.total FROM users u, orders o WHERE u.id = o.user_id AND o.total > 990",
+            "sort", "SELECT o.id, o.total FROM orders o WHERE o.total > 500 ORDER BY o.total DESC, o.id",
+            "limit", "SELECT o.id FROM orders o WHERE o.total > 100 LIMIT 100");
+
+    private Datasets() {}
+
+    /** Writes catalog.json, users.csv and orders.csv into dir. */
+    public static void generate(Path dir, int scale) throws IOException {
+        int users = 10_000 * scale, orders = 100_000 * scale;
+        SplittableRandom random = new SplittableRandom(42);
+        Files.writeString(dir.resolve("catalog.json"), CATALOG);
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve("users.csv"))) {
+            w.write("id,name\n");
+            for (int i = 1; i <= users; i++) w.write(i + ",user" + i + "\n");
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(dir.resolve("orders.csv"))) {
+            w.write("id,user_id,total\n");
+            for (int i = 1; i <= orders; i++) w.write(i + "," + (1 + random.nextInt(users)) + "," + random.nextInt(1000) + "\n");
+        }
+    }
+
+    /** Deletes a generated directory and everything in it. */
+    public static void delete(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.delete(p);
+        }
+    }
+}
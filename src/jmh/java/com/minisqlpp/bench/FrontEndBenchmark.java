@@ -0,0 +1,59 @@
+package com.minisqlpp.bench;
+
+import com.minisqlpp.ast.Query;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.parse.Parser;
+import com.minisqlpp.parse.Scanner;
+import com.minisqlpp.parse.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Scanner, Parser and TypeChecker on their own, per query shape. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"filter", "join", "sort", "limit"})
+    public String shape;
+
+    private String sql;
+    private List<Token> tokens;
+    private Query query;
+    private Catalog catalog;
+
+    @Setup
+    public void setup() throws Exception {
+        sql = Datasets.QUERIES.get(shape);
+        tokens = new Scanner(sql).scan();
+        query = new Parser(tokens).parseQuery();
+        Path file = Files.createTempFile("catalog", ".json");
+        Files.writeString(file, Datasets.CATALOG);
+        catalog = Catalog.load(file);
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(sql).scan();
+    }
+
+    @Benchmark
+    public Query parse() {
+        return new Parser(tokens).parseQuery();
+    }
+
+    // checking only resolves aliases already resolved, so one query serves every call
+    @Benchmark
+    public Query typecheck() {
+        new TypeChecker(catalog).check(query);
+        return query;
+    }
+}
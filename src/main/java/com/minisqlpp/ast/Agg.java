@@ -0,0 +1,23 @@
+package com.minisqlpp.ast;
+
+/** An aggregate function call; COUNT(*) has no argument. */
+public final class Agg implements Expr {
+    public enum Fn { COUNT, SUM, MIN, MAX, AVG }
+    private final Fn fn;
+    private final Expr arg; // null for COUNT(*)
+
+    public Agg(Fn fn, Expr arg) {
+        this.fn = fn;
+        this.arg = arg;
+    }
+
+    public Fn fn() { return fn; }
+    public Expr arg() { return arg; }
+
+    /** Whether e is or contains an aggregate. */
+    public static boolean in(Expr e) {
+        if (e instanceof Agg) return true;
+        if (e instanceof Bin b) return in(b.left()) || in(b.right());
+        return e instanceof Un u && in(u.expr());
+    }
+}
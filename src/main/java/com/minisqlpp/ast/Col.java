@@ -1,8 +1,15 @@
 package com.minisqlpp.ast;
 
+import com.minisqlpp.check.Type;
+
 public final class Col implements Expr {
     private String table; // may be null until resolved
     private final String name;
+    // where TypeChecker found the column: its FROM slot, its ordinal in the
+    // table's catalog columns, and its type; -1 and null until then
+    private int slot = -1;
+    private int ordinal = -1;
+    private Type type;
 
     public Col(String table, String name) {
         this.table = table;
@@ -12,4 +19,29 @@ public final class Col implements Expr {
     public String table() { return table; }
     public void table(String t) { this.table = t; }
     public String name() { return name; }
+
+    public void bind(int slot, int ordinal, Type type) {
+        this.slot = slot;
+        this.ordinal = ordinal;
+        this.type = type;
+    }
+
+    public int slot() {
+        if (slot < 0) throw new RuntimeException("Column " + name + " has not been type checked");
+        return slot;
+    }
+
+    public int ordinal() {
+        if (ordinal < 0) throw new RuntimeException("Column " + name + " has not been type checked");
+        return ordinal;
+    }
+
+    public Type type() { return type; }
+
+    /** A copy with the same table and binding. */
+    public Col copy() {
+        Col c = new Col(table, name);
+        c.bind(slot, ordinal, type);
+        return c;
+    }
 }
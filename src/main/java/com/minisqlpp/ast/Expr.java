@@ -1,4 +1,4 @@
 package com.minisqlpp.ast;
 
-public sealed interface Expr permits Bin, Un, Lit, Col {
+public sealed interface Expr permits Bin, Un, Lit, Col, Param, Agg {
 }
@@ -1,11 +1,17 @@
 package com.minisqlpp.ast;
 
+import com.minisqlpp.check.Type;
+
+/** A literal: an Integer or a String as written, or a Boolean the optimizer folded. */
 public final class Lit implements Expr {
     private final Object value;
+    private final Type type;
 
     public Lit(Object value) {
         this.value = value;
+        this.type = value instanceof Integer ? Type.INT : value instanceof Boolean ? Type.BOOL : Type.STRING;
     }
 
     public Object value() { return value; }
+    public Type type() { return type; }
 }
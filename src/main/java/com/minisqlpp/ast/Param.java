@@ -0,0 +1,12 @@
+package com.minisqlpp.ast;
+
+/** A ? placeholder, numbered from 0 in the order it appears in the query. */
+public final class Param implements Expr {
+    private final int index;
+
+    public Param(int index) {
+        this.index = index;
+    }
+
+    public int index() { return index; }
+}
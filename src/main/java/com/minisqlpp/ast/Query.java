@@ -1,27 +1,64 @@
 package com.minisqlpp.ast;
 
+import com.minisqlpp.check.Type;
+
 import java.util.List;
 import java.util.Optional;
 
 public class Query {
+    /** Whether the query is run, only planned (EXPLAIN), or run and reported on (EXPLAIN ANALYZE). */
+    public enum Explain { NONE, PLAN, ANALYZE }
+
+    /** A result column: its header and type. */
+    public record Output(String name, Type type) {}
+
     private final List<SelectItem> select;
     private final List<TableRef> from;
     private final Optional<Expr> where;
+    private final List<Expr> groupBy;
     private final List<OrderSpec> orderBy;
     private final Integer limit; // nullable
+    private final Explain explain;
+    private List<Output> output; // set by TypeChecker
 
     public Query(List<SelectItem> select, List<TableRef> from, Optional<Expr> where,
                  List<OrderSpec> orderBy, Integer limit) {
+        this(select, from, where, orderBy, limit, Explain.NONE);
+    }
+
+    public Query(List<SelectItem> select, List<TableRef> from, Optional<Expr> where,
+                 List<OrderSpec> orderBy, Integer limit, Explain explain) {
+        this(select, from, where, List.of(), orderBy, limit, explain);
+    }
+
+    public Query(List<SelectItem> select, List<TableRef> from, Optional<Expr> where, List<Expr> groupBy,
+                 List<OrderSpec> orderBy, Integer limit, Explain explain) {
         this.select = select;
         this.from = from;
         this.where = where;
+        this.groupBy = groupBy;
         this.orderBy = orderBy;
         this.limit = limit;
+        this.explain = explain;
     }
 
     public List<SelectItem> select() { return select; }
     public List<TableRef> from() { return from; }
     public Optional<Expr> where() { return where; }
+    public List<Expr> groupBy() { return groupBy; }
     public List<OrderSpec> orderBy() { return orderBy; }
     public Integer limit() { return limit; }
+    public Explain explain() { return explain; }
+
+    /** The result columns, SELECT * expanded; null until the query is type checked. */
+    public List<Output> output() { return output; }
+    public void output(List<Output> columns) { this.output = columns; }
+
+    /** Whether the query outputs groups rather than rows: it has GROUP BY or an aggregate. */
+    public boolean aggregates() {
+        if (!groupBy.isEmpty()) return true;
+        for (SelectItem si : select) if (si instanceof SelectExpr se && Agg.in(se.expr())) return true;
+        for (OrderSpec os : orderBy) if (Agg.in(os.expr())) return true;
+        return false;
+    }
 }
@@ -0,0 +1,42 @@
+package com.minisqlpp.ast;
+
+/**
+ * SQL text of an expression, fully parenthesized, as the Oracle backend
+ * emits it, EXPLAIN shows it and an unaliased result column is named.
+ */
+public final class Sql {
+    private Sql() {}
+
+    public static String of(Expr e) {
+        if (e instanceof Lit lit) {
+            if (lit.value() instanceof String s) {
+                return "'" + s.replace("'", "''") + "'";
+            } else if (lit.value() instanceof Boolean b) {
+                // Oracle has no boolean literal in SQL
+                return b ? "(1 = 1)" : "(1 = 0)";
+            } else {
+                return lit.value().toString();
+            }
+        } else if (e instanceof Param) {
+            return "?";
+        } else if (e instanceof Col c) {
+            return (c.table() != null ? c.table() + "." : "") + c.name();
+        } else if (e instanceof Bin b) {
+            return "(" + of(b.left()) + " " + binOp(b.op()) + " " + of(b.right()) + ")";
+        } else if (e instanceof Un u) {
+            return u.op() == Un.Op.NOT ? "NOT " + of(u.expr()) : "-" + of(u.expr());
+        } else if (e instanceof Agg a) {
+            return a.fn() + "(" + (a.arg() != null ? of(a.arg()) : "*") + ")";
+        } else {
+            throw new RuntimeException("Unknown expr");
+        }
+    }
+
+    private static String binOp(Bin.Op op) {
+        return switch (op) {
+            case PLUS -> "+"; case MINUS -> "-"; case STAR -> "*"; case SLASH -> "/";
+            case EQ -> "="; case NEQ -> "<>"; case LT -> "<"; case LTE -> "<=";
+            case GT -> ">"; case GTE -> ">="; case AND -> "AND"; case OR -> "OR";
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+/** Produces a table as a sequence of chunks, refilling one {@link ColumnTable} in place. */
+interface ChunkSource extends Closeable {
+    /** The chunk that {@link #fill()} refills; its arrays never move, so compiled code can bind to them. */
+    ColumnTable chunk();
+
+    /** Refills the chunk with the next rows, returning false once the source is exhausted. */
+    boolean fill() throws IOException;
+
+    /** Bytes read from disk so far, for EXPLAIN ANALYZE; 0 for a source in memory. */
+    default long bytesRead() { return 0; }
+
+    /** A source of no rows with a table's columns, for a query that reads none; opens no file. */
+    static ChunkSource empty(Map<String,Type> columns) {
+        ColumnTable chunk = ColumnTable.create(columns.keySet().toArray(new String[0]), columns.values().toArray(new Type[0]), 1);
+        return new ChunkSource() {
+            public ColumnTable chunk() { return chunk; }
+            public boolean fill() { return false; }
+            public void close() { }
+        };
+    }
+}
@@ -0,0 +1,256 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Binary columnar copy of a CSV table, written next to it so later queries
+ * skip parsing. Rows are stored in blocks of {@link CsvLoader#CHUNK}, each
+ * block holding its columns one after another as little-endian ints in the
+ * same encoding as {@link ColumnTable}. A footer holds the block directory,
+ * with each block's min and max per column (its zone map, see
+ * {@link ZoneFilter}), and the STRING dictionaries. The header records the
+ * CSV's size and mtime and the catalog columns the file was typed with; any
+ * mismatch means the file is stale and gets rewritten.
+ *
+ * <pre>
+ * header  "MSQLCOL2" | csv size | csv mtime | footer offset | width | (type, name)* | pad to 8
+ * block*  column 0 ints | column 1 ints | ...
+ * footer  block count | (offset, rows, (min, max)*)* | per STRING column: count | (length, UTF-8)*
+ * </pre>
+ */
+final class ColumnFile {
+    static final String SUFFIX = ".mcol";
+    private static final byte[] MAGIC = "MSQLCOL2".getBytes(StandardCharsets.US_ASCII);
+    private static final int FOOTER_AT = 24;
+    private static final long WINDOW = 256 << 20;
+
+    private final Path file;
+    private final String[] names;
+    private final Type[] types;
+    private final Dictionary[] dicts;
+    private final long[] offsets;
+    private final int[] rows;
+    private final int[] zones; // min, max per column per block
+
+    private ColumnFile(Path file, String[] names, Type[] types, Dictionary[] dicts, long[] offsets, int[] rows, int[] zones) {
+        this.file = file;
+        this.names = names;
+        this.types = types;
+        this.dicts = dicts;
+        this.offsets = offsets;
+        this.rows = rows;
+        this.zones = zones;
+    }
+
+    int blocks() { return offsets.length; }
+
+    Dictionary[] dictionaries() { return dicts; }
+
+    /**
+     * Opens a sidecar if it was written from a CSV of this size and mtime with
+     * these columns; null if it is missing, stale or unreadable.
+     */
+    static ColumnFile open(Path file, long csvSize, long csvMtime, Map<String,Type> columns) throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), 1 << 16)).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || head.getLong() != csvSize || head.getLong() != csvMtime) return null;
+            long footer = head.getLong();
+            int width = head.getInt();
+            if (footer <= 0 || width != columns.size()) return null;
+            String[] names = new String[width];
+            Type[] types = new Type[width];
+            int j = 0;
+            for (var c : columns.entrySet()) {
+                types[j] = Type.values()[head.get()];
+                byte[] name = new byte[head.getShort()];
+                head.get(name);
+                names[j] = new String(name, StandardCharsets.UTF_8);
+                if (types[j] != c.getValue() || !names[j].equalsIgnoreCase(c.getKey())) return null;
+                j++;
+            }
+            ByteBuffer foot = ch.map(FileChannel.MapMode.READ_ONLY, footer, ch.size() - footer).order(ByteOrder.LITTLE_ENDIAN);
+            int blocks = foot.getInt();
+            long[] offsets = new long[blocks];
+            int[] rows = new int[blocks];
+            int[] zones = new int[2 * width * blocks];
+            for (int b = 0, z = 0; b < blocks; b++) {
+                offsets[b] = foot.getLong();
+                rows[b] = foot.getInt();
+                for (int k = 0; k < 2 * width; k++) zones[z++] = foot.getInt();
+            }
+            Dictionary[] dicts = new Dictionary[width];
+            byte[] scratch = new byte[256];
+            for (j = 0; j < width; j++) {
+                if (types[j] != Type.STRING) continue;
+                dicts[j] = new Dictionary();
+                for (int k = 0, count = foot.getInt(); k < count; k++) {
+                    int len = foot.getInt();
+                    if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+                    foot.get(scratch, 0, len);
+                    dicts[j].intern(scratch, 0, len);
+                }
+            }
+            return new ColumnFile(file, names, types, dicts, offsets, rows, zones);
+        } catch (RuntimeException e) {
+            return null; // truncated or corrupt: rebuild
+        }
+    }
+
+    /** Parses a whole CSV and writes its columnar copy, replacing any old one atomically. */
+    static void write(Path csv, Map<String,Type> columns, Path file, long csvSize, long csvMtime) throws IOException {
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (CsvLoader in = new CsvLoader(csv, columns);
+             FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ColumnTable chunk = in.chunk();
+            int width = chunk.width();
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(MAGIC).putLong(csvSize).putLong(csvMtime).putLong(0).putInt(width);
+            for (int j = 0; j < width; j++) {
+                byte[] name = chunk.name(j).getBytes(StandardCharsets.UTF_8);
+                buf.put((byte) chunk.type(j).ordinal()).putShort((short) name.length).put(name);
+            }
+            while (buf.position() % 8 != 0) buf.put((byte) 0);
+            long pos = drain(ch, buf, 0);
+            long[] offsets = new long[16];
+            int[] rows = new int[16];
+            int[] zones = new int[16 * 2 * width];
+            int blocks = 0;
+            while (in.fill()) {
+                if (blocks == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, blocks * 2);
+                    rows = Arrays.copyOf(rows, blocks * 2);
+                    zones = Arrays.copyOf(zones, blocks * 2 * 2 * width);
+                }
+                int n = chunk.rows(), z = blocks * 2 * width;
+                offsets[blocks] = pos + buf.position();
+                rows[blocks++] = n;
+                for (int j = 0; j < width; j++) {
+                    int[] col = chunk.column(j);
+                    int min = col[0], max = col[0];
+                    for (int i = 1; i < n; i++) {
+                        min = Math.min(min, col[i]);
+                        max = Math.max(max, col[i]);
+                    }
+                    zones[z + 2 * j] = min;
+                    zones[z + 2 * j + 1] = max;
+                    if (buf.remaining() < 4 * n) pos = drain(ch, buf, pos);
+                    buf.asIntBuffer().put(col, 0, n);
+                    buf.position(buf.position() + 4 * n);
+                }
+            }
+            pos = drain(ch, buf, pos);
+            long footer = pos;
+            buf.putInt(blocks);
+            for (int b = 0; b < blocks; b++) {
+                if (buf.remaining() < 12 + 8 * width) pos = drain(ch, buf, pos);
+                buf.putLong(offsets[b]).putInt(rows[b]);
+                for (int k = 0; k < 2 * width; k++) buf.putInt(zones[b * 2 * width + k]);
+            }
+            for (int j = 0; j < width; j++) {
+                Dictionary d = chunk.dictionary(j);
+                if (d == null) continue;
+                if (buf.remaining() < 4) pos = drain(ch, buf, pos);
+                buf.putInt(d.size());
+                for (int id = 0; id < d.size(); id++) {
+                    byte[] v = d.value(id).getBytes(StandardCharsets.UTF_8);
+                    if (buf.remaining() < 4 + v.length) pos = drain(ch, buf, pos);
+                    if (buf.remaining() < 4 + v.length) buf = ByteBuffer.allocate(4 + v.length).order(ByteOrder.LITTLE_ENDIAN);
+                    buf.putInt(v.length).put(v);
+                }
+            }
+            drain(ch, buf, pos);
+            ch.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, footer), FOOTER_AT);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes out what the buffer holds at pos and returns the new file position.
+    private static long drain(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+        buf.clear();
+        return pos;
+    }
+
+    /**
+     * Reads blocks [from, to) into chunks of up to capacity rows; a chunk
+     * never spans two blocks. Blocks the zone filter rules out are skipped.
+     */
+    ChunkSource scan(int capacity, int from, int to, ZoneFilter zone) throws IOException {
+        return new Scan(capacity, from, to, zone);
+    }
+
+    private final class Scan implements ChunkSource {
+        private final FileChannel ch;
+        private final ColumnTable chunk;
+        private final int to;
+        private final ZoneFilter zone;
+        private int block;
+        private int row;
+        private long base = -1;
+        private long end;
+        private IntBuffer window;
+        private long bytes;
+
+        Scan(int capacity, int from, int to, ZoneFilter zone) throws IOException {
+            this.ch = FileChannel.open(file, StandardOpenOption.READ);
+            this.chunk = new ColumnTable(names, types, dicts, capacity);
+            this.block = from;
+            this.to = to;
+            this.zone = zone;
+        }
+
+        public ColumnTable chunk() { return chunk; }
+
+        public boolean fill() throws IOException {
+            chunk.clear();
+            if (zone != null && row == 0) {
+                while (block < to && !zone.mayMatch(zones, block * 2 * names.length)) block++;
+            }
+            if (block >= to) return false;
+            int n = rows[block], m = Math.min(chunk.capacity(), n - row);
+            long start = offsets[block], len = 4L * n * names.length;
+            if (start < base || start + len > end) {
+                base = start;
+                end = Math.min(ch.size(), start + Math.max(WINDOW, len));
+                window = ch.map(FileChannel.MapMode.READ_ONLY, base, end - base).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            int at = (int) ((start - base) >> 2);
+            for (int j = 0; j < names.length; j++) window.get(at + j * n + row, chunk.column(j), 0, m);
+            chunk.setRows(m);
+            bytes += 4L * m * names.length;
+            row += m;
+            if (row == n) {
+                block++;
+                row = 0;
+            }
+            return true;
+        }
+
+        public long bytesRead() { return bytes; }
+
+        public void close() throws IOException {
+            window = null;
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Bin;
+import com.minisqlpp.check.Type;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Secondary index on one column of a CSV table: every row's key with the
+ * byte offset of its record, sorted by key then offset, in a file next to
+ * the CSV. STRING keys are stored as their rank among the column's sorted
+ * distinct values, which the file holds ahead of the entries, and BOOL keys
+ * as 0/1, so every lookup is a binary search over ints. The header records
+ * the CSV's size and mtime; a stale index is ignored until it is rebuilt.
+ *
+ * <pre>
+ * "MSQLIDX1" | csv size | csv mtime | type | rows | distinct | (length, UTF-8)* | pad to 8
+ * keys    int * rows | pad to 8
+ * offsets long * rows
+ * </pre>
+ */
+public final class ColumnIndex {
+    private static final byte[] MAGIC = "MSQLIDX1".getBytes(StandardCharsets.US_ASCII);
+
+    private final String[] values; // STRING: distinct values in rank order
+    private final IntBuffer keys;
+    private final LongBuffer offsets;
+
+    private ColumnIndex(String[] values, IntBuffer keys, LongBuffer offsets) {
+        this.values = values;
+        this.keys = keys;
+        this.offsets = offsets;
+    }
+
+    /** Where the index on a column of a CSV file lives. */
+    public static Path path(Path csv, String column) {
+        return csv.resolveSibling(csv.getFileName() + "." + column.toLowerCase() + ".idx");
+    }
+
+    int rows() { return keys.limit(); }
+
+    /** Opens the index on a column if it was built from the CSV as it is now; null otherwise. */
+    static ColumnIndex open(Path csv, String column, Type type) throws IOException {
+        Path file = path(csv, column);
+        if (!Files.isRegularFile(file)) return null;
+        BasicFileAttributes attrs = Files.readAttributes(csv, BasicFileAttributes.class);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            byte[] magic = new byte[MAGIC.length];
+            b.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || b.getLong() != attrs.size()
+                    || b.getLong() != attrs.lastModifiedTime().toMillis() || b.getInt() != type.ordinal()) return null;
+            int rows = b.getInt();
+            String[] values = new String[b.getInt()];
+            for (int i = 0; i < values.length; i++) {
+                byte[] v = new byte[b.getInt()];
+                b.get(v);
+                values[i] = new String(v, StandardCharsets.UTF_8);
+            }
+            b.position(align(b.position()));
+            IntBuffer keys = b.slice(b.position(), 4 * rows).asIntBuffer();
+            LongBuffer offsets = b.slice(align(b.position() + 4 * rows), 8 * rows).asLongBuffer();
+            return new ColumnIndex(values, keys, offsets);
+        } catch (RuntimeException e) {
+            return null; // truncated or corrupt: scan instead
+        }
+    }
+
+    /**
+     * Entries [from, to) whose keys satisfy every comparison, which must all
+     * be on this column; from == to when none can.
+     */
+    int[] span(List<PredicatePushdown.Comparison> comparisons) {
+        long lo = Integer.MIN_VALUE, hi = Integer.MAX_VALUE;
+        for (PredicatePushdown.Comparison c : comparisons) {
+            long[] b = bounds(c.op(), c.value());
+            lo = Math.max(lo, b[0]);
+            hi = Math.min(hi, b[1]);
+        }
+        if (lo > hi) return new int[]{0, 0};
+        return new int[]{lowerBound(lo), lowerBound(hi + 1)};
+    }
+
+    /** Record offsets of entries [from, to), in file order. */
+    long[] offsets(int from, int to) {
+        long[] out = new long[to - from];
+        offsets.get(from, out);
+        Arrays.sort(out);
+        return out;
+    }
+
+    /** Record offsets of the rows whose key equals value, in file order. */
+    long[] offsets(Object value) {
+        long[] b = bounds(Bin.Op.EQ, value);
+        return b[0] > b[1] ? new long[0] : offsets(lowerBound(b[0]), lowerBound(b[1] + 1));
+    }
+
+    // Inclusive key bounds for one comparison, empty when lo > hi.
+    private long[] bounds(Bin.Op op, Object value) {
+        long key;
+        boolean exact = true;
+        if (value instanceof Integer i) {
+            key = i;
+        } else if (value instanceof Boolean b) {
+            key = b ? 1 : 0;
+        } else {
+            int r = Arrays.binarySearch(values, (String) value);
+            exact = r >= 0;
+            key = exact ? r : -r - 1; // rank of the first value above it
+        }
+        return switch (op) {
+            case EQ -> exact ? new long[]{key, key} : new long[]{1, 0};
+            case LT -> new long[]{Long.MIN_VALUE, key - 1};
+            case LTE -> new long[]{Long.MIN_VALUE, exact ? key : key - 1};
+            case GT -> new long[]{exact ? key + 1 : key, Long.MAX_VALUE};
+            case GTE -> new long[]{key, Long.MAX_VALUE};
+            default -> throw new IllegalArgumentException("Not an index comparison: " + op);
+        };
+    }
+
+    // First entry whose key is at least the given one.
+    private int lowerBound(long key) {
+        int lo = 0, hi = keys.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid) < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** Builds the index on a column of a CSV file, replacing any old one; returns the row count. */
+    public static int build(Path csv, String column, Type type) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(csv, BasicFileAttributes.class);
+        int[] keys = new int[1 << 16];
+        long[] offsets = new long[1 << 16];
+        int n = 0;
+        Dictionary dict = new Dictionary();
+        try (CsvReader in = new CsvReader(csv)) {
+            int field = -1;
+            String[] header = in.header();
+            for (int f = 0; f < header.length && field < 0; f++) if (header[f].trim().equalsIgnoreCase(column)) field = f;
+            if (field < 0) throw new RuntimeException("Column " + column + " missing from " + csv);
+            while (in.next()) {
+                if (n == keys.length) {
+                    keys = Arrays.copyOf(keys, n * 2);
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                offsets[n] = in.recordOffset();
+                keys[n++] = switch (type) {
+                    case INT -> in.parseInt(field);
+                    case BOOL -> "true".equalsIgnoreCase(in.string(field)) ? 1 : 0;
+                    case STRING -> {
+                        int len = in.copyField(field);
+                        yield dict.intern(in.buffer(), 0, len);
+                    }
+                };
+            }
+        }
+        String[] values = new String[type == Type.STRING ? dict.size() : 0];
+        if (type == Type.STRING) {
+            Integer[] byValue = new Integer[dict.size()];
+            for (int id = 0; id < byValue.length; id++) byValue[id] = id;
+            Arrays.sort(byValue, (a, b) -> dict.value(a).compareTo(dict.value(b)));
+            int[] rank = new int[byValue.length];
+            for (int r = 0; r < byValue.length; r++) {
+                rank[byValue[r]] = r;
+                values[r] = dict.value(byValue[r]);
+            }
+            for (int i = 0; i < n; i++) keys[i] = rank[keys[i]];
+        }
+        // key in the high half (sign flipped so it sorts as unsigned), row in the low
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) order[i] = (long) (keys[i] ^ Integer.MIN_VALUE) << 32 | i;
+        Arrays.sort(order);
+
+        Path file = path(csv, column);
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.write(MAGIC);
+            out.writeLong(attrs.size());
+            out.writeLong(attrs.lastModifiedTime().toMillis());
+            out.writeInt(type.ordinal());
+            out.writeInt(n);
+            out.writeInt(values.length);
+            for (String v : values) {
+                byte[] b = v.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+            while (out.size() % 8 != 0) out.writeByte(0);
+            for (long o : order) out.writeInt((int) (o >>> 32) ^ Integer.MIN_VALUE);
+            while (out.size() % 8 != 0) out.writeByte(0);
+            for (long o : order) out.writeLong(offsets[(int) o]);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return n;
+    }
+
+    private static int align(int pos) {
+        return (pos + 7) & ~7;
+    }
+}
@@ -0,0 +1,107 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Type;
+
+import java.util.Arrays;
+
+/**
+ * A table held column by column. Every column is an int array: INT values
+ * as-is, BOOL as 0/1 and STRING as ids into the column's {@link Dictionary}.
+ * Columns follow catalog order and are addressed by ordinal.
+ */
+final class ColumnTable {
+    private final String[] names;
+    private final Type[] types;
+    private final Dictionary[] dicts;
+    private int[][] data;
+    private int rows;
+    private int capacity;
+
+    ColumnTable(String[] names, Type[] types, Dictionary[] dicts, int capacity) {
+        this.names = names;
+        this.types = types;
+        this.dicts = dicts;
+        this.capacity = Math.max(capacity, 1);
+        this.data = new int[names.length][this.capacity];
+    }
+
+    /** An empty table with a fresh dictionary for every STRING column. */
+    static ColumnTable create(String[] names, Type[] types, int capacity) {
+        Dictionary[] dicts = new Dictionary[types.length];
+        for (int j = 0; j < types.length; j++) if (types[j] == Type.STRING) dicts[j] = new Dictionary();
+        return new ColumnTable(names, types, dicts, capacity);
+    }
+
+    /** An empty table with the same columns, sharing this table's dictionaries. */
+    ColumnTable sibling(int capacity) {
+        return new ColumnTable(names, types, dicts, capacity);
+    }
+
+    int rows() { return rows; }
+    int width() { return names.length; }
+    int capacity() { return capacity; }
+    String name(int j) { return names[j]; }
+    String[] names() { return names; }
+    Type type(int j) { return types[j]; }
+    Type[] types() { return types; }
+    int[] column(int j) { return data[j]; }
+    Dictionary dictionary(int j) { return dicts[j]; }
+
+    int ordinal(String name) {
+        for (int j = 0; j < names.length; j++) if (names[j].equalsIgnoreCase(name)) return j;
+        return -1;
+    }
+
+    /** Boxed value for output: Integer, Boolean or String. */
+    Object value(int j, int row) {
+        int v = data[j][row];
+        return switch (types[j]) {
+            case INT -> v;
+            case BOOL -> v != 0;
+            case STRING -> dicts[j].value(v);
+        };
+    }
+
+    void set(int j, int row, int v) { data[j][row] = v; }
+
+    /** Claims the next row slot, growing the columns if needed. */
+    int addRow() {
+        if (rows == capacity) {
+            capacity = Math.max(16, rows + (rows >> 1));
+            for (int j = 0; j < data.length; j++) data[j] = Arrays.copyOf(data[j], capacity);
+        }
+        return rows++;
+    }
+
+    /** Drops the most recently added row. */
+    void removeLast() { rows--; }
+
+    void clear() { rows = 0; }
+
+    /** Marks the first n rows, already written through {@link #column}, as held. */
+    void setRows(int n) {
+        if (n > capacity) throw new IllegalArgumentException("rows " + n + " exceed capacity " + capacity);
+        rows = n;
+    }
+
+    /** Copies a row of a table sharing this table's dictionaries. */
+    void append(ColumnTable src, int row) {
+        int r = addRow();
+        for (int j = 0; j < data.length; j++) data[j][r] = src.data[j][row];
+    }
+
+    /** Shrinks the columns to the rows actually held. */
+    void trim() {
+        if (rows < capacity) {
+            capacity = rows;
+            for (int j = 0; j < data.length; j++) data[j] = Arrays.copyOf(data[j], rows);
+        }
+    }
+
+    /** Rough heap footprint in bytes. */
+    long bytes() {
+        long total = 4L * data.length * capacity;
+        for (Dictionary d : dicts) if (d != null) total += d.bytes();
+        return total;
+    }
+}
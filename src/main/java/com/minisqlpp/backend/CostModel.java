@@ -0,0 +1,104 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Bin;
+import com.minisqlpp.ast.Col;
+import com.minisqlpp.ast.Expr;
+import com.minisqlpp.ast.Un;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Statistics;
+
+import java.util.List;
+
+/**
+ * Estimates for the cost-based join order from the tables' analyzed
+ * {@link Statistics}: a table's rows, scaled to its file's current size,
+ * times the selectivity of its pushed-down filter, and the distinct values
+ * of its columns. A comparison of an INT column with a literal is costed
+ * from the column's histogram, equality from its distinct count, and
+ * anything the model cannot read keeps a third of the rows.
+ */
+final class CostModel implements JoinPlan.Estimates {
+    private static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+    private final Statistics.Table[] stats;
+    private final double[] rows;
+
+    private CostModel(Statistics.Table[] stats, double[] rows) {
+        this.stats = stats;
+        this.rows = rows;
+    }
+
+    /** The model for a FROM list, or null unless every table in it has been analyzed. */
+    static CostModel of(Catalog catalog, List<String> tables, long[] sizes, PredicatePushdown pushdown) {
+        int n = tables.size();
+        Statistics.Table[] stats = new Statistics.Table[n];
+        double[] rows = new double[n];
+        for (int i = 0; i < n; i++) {
+            stats[i] = catalog.statistics().table(tables.get(i));
+            if (stats[i] == null) return null;
+        }
+        for (int i = 0; i < n; i++) {
+            rows[i] = Math.max(1, stats[i].rows(sizes[i]) * selectivity(stats[i], pushdown.scanFilter(i)));
+        }
+        return new CostModel(stats, rows);
+    }
+
+    public double rows(int slot) {
+        return rows[slot];
+    }
+
+    public double distinct(int slot, String column) {
+        Statistics.Column c = stats[slot].columns().get(column.toLowerCase());
+        return Math.max(1, c == null ? rows[slot] : Math.min(c.distinct(), rows[slot]));
+    }
+
+    /** Share of a table's rows that pass a filter on it; 1 for none. */
+    static double selectivity(Statistics.Table table, Expr filter) {
+        double s = 1;
+        for (Expr c : PredicatePushdown.conjuncts(filter)) s *= conjunct(table, c);
+        return s;
+    }
+
+    private static double conjunct(Statistics.Table table, Expr c) {
+        PredicatePushdown.Comparison cmp = PredicatePushdown.comparison(c);
+        if (cmp != null) {
+            Statistics.Column col = table.columns().get(cmp.col().name().toLowerCase());
+            if (col == null) return DEFAULT_SELECTIVITY;
+            double eq = 1 / Math.max(1, col.distinct());
+            int[] h = col.histogram();
+            if (h == null || !(cmp.value() instanceof Integer v)) return cmp.op() == Bin.Op.EQ ? eq : DEFAULT_SELECTIVITY;
+            double below = below(h, v);
+            double s = switch (cmp.op()) {
+                case EQ -> v < h[0] || v > h[h.length - 1] ? 0 : eq;
+                case LT -> below;
+                case LTE -> below + eq;
+                case GT -> 1 - below - eq;
+                default -> 1 - below;
+            };
+            return Math.min(1, Math.max(0, s));
+        }
+        if (c instanceof Bin b && b.op() == Bin.Op.NEQ && (b.left() instanceof Col || b.right() instanceof Col)) {
+            Col col = b.left() instanceof Col l ? l : (Col) b.right();
+            Statistics.Column stats = table.columns().get(col.name().toLowerCase());
+            return stats == null ? 1 - DEFAULT_SELECTIVITY : 1 - 1 / Math.max(1, stats.distinct());
+        }
+        if (c instanceof Bin b && b.op() == Bin.Op.OR) {
+            double l = selectivity(table, b.left()), r = selectivity(table, b.right());
+            return l + r - l * r;
+        }
+        if (c instanceof Un u && u.op() == Un.Op.NOT) return 1 - selectivity(table, u.expr());
+        return DEFAULT_SELECTIVITY;
+    }
+
+    // Share of values below v, interpolating within the equi-depth bucket it falls in.
+    private static double below(int[] h, int v) {
+        int buckets = h.length - 1;
+        if (v <= h[0]) return 0;
+        if (v > h[buckets]) return 1;
+        int i = buckets - 1;
+        while (i > 0 && h[i] >= v) i--;
+        double lo = h[i], hi = h[i + 1];
+        double within = hi > lo ? (v - lo) / (hi - lo) : 1;
+        return Math.min(1, (i + within) / buckets);
+    }
+}
@@ -1,146 +1,685 @@
 package com.minisqlpp.backend;
 
 import com.minisqlpp.ast.*;
+import com.minisqlpp.backend.ExprCompiler.BoolFn;
+import com.minisqlpp.backend.ExprCompiler.CellFn;
+import com.minisqlpp.backend.ExprCompiler.IntFn;
+import com.minisqlpp.backend.ExprCompiler.ValueFn;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Optimizer;
+import com.minisqlpp.check.Type;
+import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.metrics.Metrics;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class CsvBackend {
+    private Catalog catalog;
+    private final int threads;
+    private final long sortBudget;
+    private final boolean cache;
+    private final RunOptions.Format format;
+    private final TableCache tableCache;
+
+    /** Uses the catalog.json found in the data directory. */
+    public CsvBackend() {
+        this(null, RunOptions.defaults());
+    }
+
+    public CsvBackend(Catalog catalog) {
+        this(catalog, RunOptions.defaults());
+    }
+
+    public CsvBackend(Catalog catalog, RunOptions options) {
+        this(catalog, options, null);
+    }
+
+    /** Reads tables through a cache shared with other queries, for a long-lived process; null for none. */
+    public CsvBackend(Catalog catalog, RunOptions options, TableCache tables) {
+        this.catalog = catalog;
+        this.threads = Math.max(1, options.threads());
+        this.sortBudget = options.sortBudget() > 0 ? options.sortBudget() : ExternalSort.defaultBudget();
+        this.cache = options.cache();
+        this.format = options.format();
+        this.tableCache = tables;
+    }
+
     public void run(Query q, Path dataDir) throws IOException {
-        Map<String,List<Map<String,String>>> tables = new HashMap<>();
+        run(q, dataDir, System.out);
+    }
+
+    /** Runs the query, writing the result to out, which is flushed but left open. */
+    public void run(Query q, Path dataDir, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        Catalog catalog = catalog(dataDir);
+        if (q.output() == null) new TypeChecker(catalog).check(q);
+        Metrics.Span stage = Metrics.start("plan");
+        List<String> aliases = new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
         for (TableRef tr : q.from()) {
             String alias = tr.alias() != null ? tr.alias() : tr.name();
-            Path file = dataDir.resolve(tr.name().toLowerCase() + ".csv");
-            tables.put(alias.toLowerCase(), loadTable(file));
-        }
-        List<Map<String, Map<String,String>>> rows = crossJoin(tables);
-        if (q.where().isPresent()) {
-            Expr where = q.where().get();
-            rows = rows.stream().filter(r -> evalBool(where, r)).collect(Collectors.toList());
-        }
-        Comparator<Map<String, Map<String,String>>> comp = null;
-        for (OrderSpec os : q.orderBy()) {
-            final Expr e = os.expr();
-            Comparator<Map<String, Map<String,String>>> c = Comparator.comparing(r -> (Comparable)eval(e, r));
-            if (!os.asc()) c = c.reversed();
-            comp = comp == null ? c : comp.thenComparing(c);
-        }
-        if (comp != null) rows.sort(comp);
-        if (q.limit() != null && rows.size() > q.limit()) {
-            rows = rows.subList(0, q.limit());
-        }
-        List<String> headers = new ArrayList<>();
-        List<java.util.function.Function<Map<String, Map<String,String>>,Object>> extractors = new ArrayList<>();
-        for (SelectItem si : q.select()) {
-            if (si instanceof SelectAll) {
-                for (var entry : tables.entrySet()) {
-                    String alias = entry.getKey();
-                    List<String> cols = entry.getValue().isEmpty() ? List.of() : new ArrayList<>(entry.getValue().get(0).keySet());
-                    for (String col : cols) {
-                        headers.add(alias + "." + col);
-                        extractors.add(r -> r.get(alias).get(col));
+            aliases.add(alias.toLowerCase());
+            tables.add(tr.name().toLowerCase());
+            files.add(dataDir.resolve(tr.name().toLowerCase() + ".csv"));
+        }
+        int n = aliases.size();
+        long[] sizes = new long[n];
+        for (int i = 0; i < n; i++) sizes[i] = Files.size(files.get(i));
+        // the driver streams through the joins; the other tables are loaded whole
+        PredicatePushdown pushdown = PredicatePushdown.of(aliases, q.where().orElse(null));
+        JoinPlan plan = JoinPlan.of(aliases, sizes, pushdown.remaining(), CostModel.of(catalog, tables, sizes, pushdown));
+        int driver = plan.driver();
+        // a WHERE the optimizer found never holds needs no file opened
+        boolean none = Optimizer.empty(q);
+        // a selective index reads just the driver's rows, and then build sides are probed on theirs
+        Indexed driverIndex = none ? null : indexedRows(catalog, tables.get(driver), files.get(driver), pushdown.scanFilter(driver));
+        long[] driverRows = driverIndex == null ? null : driverIndex.offsets();
+        List<JoinPlan.Step> steps = plan.steps();
+        ColumnIndex[] lookups = new ColumnIndex[steps.size()];
+        boolean[] indexed = new boolean[n];
+        indexed[driver] = driverRows != null;
+        for (int k = 0; k < steps.size() && driverRows != null; k++) {
+            JoinPlan.Step st = steps.get(k);
+            String table = tables.get(st.slot());
+            if (!st.hashed() || !catalog.indexes(table).contains(st.build().name().toLowerCase())) continue;
+            ColumnIndex index = ColumnIndex.open(files.get(st.slot()), st.build().name(), catalog.type(table, st.build().name()));
+            if (index != null && (long) driverRows.length * INDEX_FRACTION <= index.rows()) {
+                lookups[k] = index;
+                indexed[st.slot()] = true;
+            }
+        }
+        // no sidecar for a driver a LIMIT will likely cut short
+        boolean early = q.limit() != null && q.orderBy().isEmpty() && !q.aggregates();
+        // EXPLAIN alone writes no sidecars and fills no cache
+        boolean planOnly = q.explain() == Query.Explain.PLAN;
+        stage.close();
+        stage = Metrics.start("open");
+        TableStore[] stores = new TableStore[n];
+        for (int i = 0; i < n; i++) {
+            Map<String,Type> columns = catalog.columns(tables.get(i));
+            if (columns == null) throw new RuntimeException("Unknown table " + tables.get(i));
+            if (indexed[i] || none) continue;
+            stores[i] = planOnly ? TableStore.open(files.get(i), columns, cache, false)
+                    : TableStore.open(files.get(i), columns, cache, !(early && i == driver), tableCache);
+        }
+        // partial aggregates cost a merge each, so one range per thread
+        long[] cuts = threads > 1 && !none && !indexed[driver] && sizes[driver] >= MIN_SPLIT ? stores[driver].splits(q.aggregates() ? threads : threads * 4) : null;
+        boolean parallel = cuts != null && cuts.length > 2;
+        stage.close();
+        Nodes nodes = q.explain() == Query.Explain.NONE ? new Nodes(n, steps.size())
+                : describe(q, aliases, tables, files, stores, pushdown, plan, driverIndex, lookups, early, parallel ? cuts.length - 1 : 0);
+        if (planOnly) {
+            out.write(nodes.output.print(false).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return;
+        }
+        OutputStream results = nodes.output != null ? OutputStream.nullOutputStream() : out;
+        ChunkSource[] loaders = new ChunkSource[n];
+        ResultSink sink = null;
+        try {
+            stage = Metrics.start("build");
+            ColumnTable[] chunks = new ColumnTable[n];
+            for (int i = 0; i < n; i++) {
+                if (indexed[i]) {
+                    CsvLoader l = new CsvLoader(files.get(i), catalog.columns(tables.get(i)), CsvLoader.CHUNK);
+                    if (i == driver) l.at(driverRows);
+                    loaders[i] = l;
+                } else if (none) {
+                    loaders[i] = ChunkSource.empty(catalog.columns(tables.get(i)));
+                } else {
+                    loaders[i] = stores[i].scan(CsvLoader.CHUNK, pushdown.scanFilter(i));
+                }
+                chunks[i] = loaders[i].chunk();
+            }
+            ExprCompiler scan = new ExprCompiler(chunks);
+            ColumnTable[] bound = new ColumnTable[n];
+            for (int i = 0; i < n; i++) {
+                if (i == driver || indexed[i]) {
+                    bound[i] = chunks[i];
+                    continue;
+                }
+                long start = System.nanoTime();
+                bound[i] = load(loaders[i], i, n, compile(scan, pushdown.scanFilter(i)), nodes.loadScans[i], nodes.loadFilters[i]);
+                stage.rows(bound[i].rows()).bytes(loaders[i].bytesRead());
+                if (nodes.loads[i] != null) nodes.loads[i].time(start, bound[i].rows());
+            }
+            JoinHashTable[] hashed = new JoinHashTable[steps.size()];
+            CsvLoader[] probed = new CsvLoader[steps.size()];
+            for (int k = 0; k < steps.size(); k++) {
+                JoinPlan.Step st = steps.get(k);
+                long start = System.nanoTime();
+                if (lookups[k] != null) probed[k] = (CsvLoader) loaders[st.slot()];
+                else if (st.hashed()) hashed[k] = new JoinHashTable(bound[st.slot()], st.build().ordinal());
+                if (hashed[k] != null && nodes.loads[st.slot()] != null) nodes.loads[st.slot()].time(start, 0);
+            }
+            stage.close();
+            stage = Metrics.start("execute");
+            sink = new ResultSink(results, format, ResultSink.names(q));
+            Pipeline main = new Pipeline(q, plan, pushdown, hashed, lookups, probed, bound, nodes);
+            long start = System.nanoTime(), written = 0;
+            if (!parallel) {
+                written = main.write(loaders[driver], sortBudget, sink);
+                stage.bytes(loaders[driver].bytesRead());
+                if (nodes.scan != null) nodes.scan.bytesRead = loaders[driver].bytesRead();
+            } else if (main.aggregate != null) {
+                loaders[driver].close();
+                written = parallelGroups(main, stores[driver], pushdown.scanFilter(driver), cuts, sink, stage);
+            } else {
+                loaders[driver].close();
+                written = parallel(q, main, stores[driver], pushdown.scanFilter(driver), cuts, sink, stage);
+            }
+            for (CsvLoader p : probed) if (p != null) stage.bytes(p.bytesRead());
+            stage.rows(written);
+            sink.flush();
+            stage.close();
+            if (nodes.output != null) {
+                nodes.output.time(start, written);
+                for (int i = 0; i < n; i++) {
+                    if (nodes.loads[i] != null) nodes.loads[i].memory = bound[i].bytes();
+                    if (nodes.loadScans[i] != null) nodes.loadScans[i].bytesRead = loaders[i].bytesRead();
+                }
+                for (int k = 0; k < steps.size(); k++) {
+                    int s = steps.get(k).slot();
+                    if (hashed[k] != null) nodes.loads[s].memory += hashed[k].bytes();
+                    if (probed[k] != null) nodes.steps[k].bytesRead = probed[k].bytesRead();
+                }
+                nodes.scan.memory = chunks[driver].bytes() * (parallel ? Math.min(cuts.length - 1, threads * 2) : 1);
+                if (nodes.sorter != null) nodes.result.memory = nodes.sorter.peak();
+                if (main.aggregate != null) nodes.result.memory = main.aggregate.bytes();
+                if (nodes.sorter != null && nodes.sorter.spilled() > 0) nodes.result.detail("spilled " + nodes.sorter.spilled() + " sorted runs to disk");
+                String report = nodes.output.print(true) + "Execution time: " + PlanNode.millis(System.nanoTime() - started)
+                        + " ms, peak memory ~" + PlanNode.size(nodes.output.totalMemory()) + " (estimated)\n";
+                out.write(report.getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            if (sink != null) sink.flush();
+            for (ChunkSource l : loaders) if (l != null) l.close();
+        }
+    }
+
+    // An index is used when it narrows a table to at most this share of its rows.
+    private static final int INDEX_FRACTION = 16;
+
+    // Offsets of the rows the scan filter allows on the most selective
+    // usable index of the table, or null to scan it.
+    private static Indexed indexedRows(Catalog catalog, String table, Path file, Expr filter) throws IOException {
+        Indexed best = null;
+        for (String column : catalog.indexes(table)) {
+            List<PredicatePushdown.Comparison> on = new ArrayList<>();
+            for (Expr c : PredicatePushdown.conjuncts(filter)) {
+                PredicatePushdown.Comparison cmp = PredicatePushdown.comparison(c);
+                if (cmp != null && cmp.col().name().equalsIgnoreCase(column)) on.add(cmp);
+            }
+            if (on.isEmpty()) continue;
+            ColumnIndex index = ColumnIndex.open(file, column, catalog.type(table, column));
+            if (index == null) continue;
+            int[] span = index.span(on);
+            int count = span[1] - span[0];
+            if ((long) count * INDEX_FRACTION <= index.rows() && (best == null || count < best.offsets().length)) {
+                best = new Indexed(column, index.offsets(span[0], span[1]));
+            }
+        }
+        return best;
+    }
+
+    private record Indexed(String column, long[] offsets) {}
+
+    // Below this a driver file is not worth splitting.
+    private static final long MIN_SPLIT = 1 << 20;
+
+    // Runs the pipeline over each driver range on the pool, sharing the
+    // build sides read-only, and writes the ranges in file order. Returns
+    // the rows written.
+    private long parallel(Query q, Pipeline main, TableStore store, Expr filter, long[] cuts, ResultSink sink, Metrics.Span stage) throws IOException {
+        Integer limit = q.limit();
+        boolean ordered = !q.orderBy().isEmpty();
+        Comparator<Object[]> keyOrder = ordered ? TopN.keyOrder(main.asc) : null;
+        TopN<Object[]> top = ordered && limit != null ? new TopN<>(limit, keyOrder) : null;
+        int printed = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Future<List<Keyed>>> pending = new ArrayDeque<>();
+        List<ChunkSource> opened = new ArrayList<>();
+        try (ExternalSort all = ordered && top == null ? new ExternalSort(keyOrder, sortBudget) : null) {
+            main.nodes.sorter = all;
+            for (int i = 0; i + 1 < cuts.length || !pending.isEmpty(); ) {
+                if (i + 1 < cuts.length && pending.size() < threads * 2) {
+                    ChunkSource in = store.scan(CsvLoader.CHUNK, cuts[i], cuts[i + 1], filter);
+                    opened.add(in);
+                    Pipeline p = main.over(in.chunk());
+                    pending.add(pool.submit(() -> {
+                        try (in) {
+                            return p.partial(in);
+                        }
+                    }));
+                    i++;
+                    continue;
+                }
+                List<Keyed> part = await(pending.poll());
+                if (!ordered) {
+                    for (Keyed k : part) {
+                        if (limit != null && printed >= limit) break;
+                        sink.row(k.values());
+                        printed++;
+                    }
+                    if (limit != null && printed >= limit) break;
+                } else if (top != null) {
+                    for (Keyed k : part) top.add(k.keys(), k.values());
+                } else {
+                    for (Keyed k : part) all.add(k.keys(), k.values());
+                }
+            }
+            if (top != null) {
+                for (Object[] vals : top.result()) {
+                    sink.row(vals);
+                    printed++;
+                }
+            } else if (ordered) {
+                Operators.Values sorted = all.sorted();
+                for (Object[] vals; (vals = sorted.next()) != null; printed++) sink.row(vals);
+            }
+        } finally {
+            pool.shutdownNow();
+            for (ChunkSource l : opened) l.close();
+        }
+        read(main, opened, stage);
+        return printed;
+    }
+
+    // Merges each range's partial aggregate in range order, so groups keep
+    // the order first seen. Returns the rows written.
+    private long parallelGroups(Pipeline main, TableStore store, Expr filter, long[] cuts, ResultSink sink, Metrics.Span stage) throws IOException {
+        long printed = 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Future<HashAggregate>> pending = new ArrayDeque<>();
+        List<ChunkSource> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i + 1 < cuts.length || !pending.isEmpty(); ) {
+                if (i + 1 < cuts.length && pending.size() < threads * 2) {
+                    ChunkSource in = store.scan(CsvLoader.CHUNK, cuts[i], cuts[i + 1], filter);
+                    opened.add(in);
+                    Pipeline p = main.over(in.chunk());
+                    pending.add(pool.submit(() -> {
+                        try (in) {
+                            return p.aggregate(in);
+                        }
+                    }));
+                    i++;
+                    continue;
+                }
+                main.aggregate.merge(await(pending.poll()));
+            }
+            for (Object[] vals : main.aggregate.result()) {
+                sink.row(vals);
+                printed++;
+            }
+        } finally {
+            pool.shutdownNow();
+            for (ChunkSource l : opened) l.close();
+        }
+        read(main, opened, stage);
+        return printed;
+    }
+
+    private static void read(Pipeline main, List<ChunkSource> opened, Metrics.Span stage) {
+        for (ChunkSource l : opened) {
+            stage.bytes(l.bytesRead());
+            if (main.nodes.scan != null) main.nodes.scan.bytesRead += l.bytesRead();
+        }
+    }
+
+    private static <T> T await(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Loads a whole table into memory, typed by the catalog. */
+    ColumnTable loadTable(Path file, String table) throws IOException {
+        Map<String,Type> columns = catalog.columns(table);
+        if (columns == null) throw new RuntimeException("Unknown table " + table);
+        try (Metrics.Span span = Metrics.start("load", table);
+             ChunkSource in = TableStore.open(file, columns, cache).scan(CsvLoader.CHUNK, null)) {
+            ColumnTable t = load(in, 0, 1, null, null, null);
+            span.rows(t.rows()).bytes(in.bytesRead());
+            return t;
+        }
+    }
+
+    // Drains a loader into a table of its own, the filter seeing each row in the given slot.
+    private static ColumnTable load(ChunkSource in, int slot, int width, BoolFn filter, PlanNode scanNode, PlanNode filterNode) throws IOException {
+        ColumnTable chunk = in.chunk();
+        ColumnTable table = chunk.sibling(CsvLoader.CHUNK);
+        int[] row = new int[width];
+        Operators.Rows rows = track(scanNode, new Operators.Scan(in, row, slot));
+        if (filter != null) rows = track(filterNode, new Operators.Filter(rows, row, filter));
+        while (rows.next()) table.append(chunk, row[slot]);
+        table.trim();
+        return table;
+    }
+
+    private Catalog catalog(Path dataDir) throws IOException {
+        if (catalog == null) {
+            Path file = dataDir.resolve("catalog.json");
+            if (!Files.exists(file)) throw new RuntimeException("No catalog given and none found at " + file);
+            catalog = Catalog.load(file);
+        }
+        return catalog;
+    }
+
+    private static BoolFn compile(ExprCompiler compiler, Expr e) {
+        return e == null ? null : compiler.compileBool(e);
+    }
+
+    private static Operators.Rows track(PlanNode node, Operators.Rows rows) {
+        return node == null ? rows : node.rows(rows);
+    }
+
+    private static Operators.Values track(PlanNode node, Operators.Values values) {
+        return node == null ? values : node.values(values);
+    }
+
+    // Everything compiled against one set of tables, the driver's being the
+    // chunk a loader refills.
+    private static final class Pipeline {
+        final Query q;
+        final JoinPlan plan;
+        final PredicatePushdown pushdown;
+        final JoinHashTable[] hashed;
+        final ColumnIndex[] lookups;
+        final CsvLoader[] probed;
+        final BoolFn[] probedFilters;
+        final ColumnTable[] tables;
+        final BoolFn filter;
+        final BoolFn residual;
+        final ValueFn[] project;
+        final CellFn[] cells;
+        final ValueFn[] keys;
+        final IntFn intKey;
+        final boolean[] asc;
+        final HashAggregate aggregate;
+        final Nodes nodes;
+
+        Pipeline(Query q, JoinPlan plan, PredicatePushdown pushdown, JoinHashTable[] hashed,
+                 ColumnIndex[] lookups, CsvLoader[] probed, ColumnTable[] tables, Nodes nodes) {
+            this.q = q;
+            this.nodes = nodes;
+            this.plan = plan;
+            this.pushdown = pushdown;
+            this.hashed = hashed;
+            this.lookups = lookups;
+            this.probed = probed;
+            this.tables = tables;
+            ExprCompiler compiler = new ExprCompiler(tables);
+            this.filter = compile(compiler, pushdown.scanFilter(plan.driver()));
+            this.probedFilters = new BoolFn[lookups.length];
+            for (int k = 0; k < lookups.length; k++) {
+                if (lookups[k] != null) probedFilters[k] = compile(compiler, pushdown.scanFilter(plan.steps().get(k).slot()));
+            }
+            this.residual = compile(compiler, plan.residual());
+            // a grouped query evaluates its output over the groups instead
+            this.aggregate = q.aggregates() ? new HashAggregate(compiler, q) : null;
+            List<ValueFn> extractors = new ArrayList<>();
+            List<CellFn> cells = new ArrayList<>();
+            for (SelectItem si : aggregate != null ? List.<SelectItem>of() : q.select()) {
+                if (si instanceof SelectAll) {
+                    for (int slot = 0; slot < tables.length; slot++) {
+                        for (int j = 0; j < tables[slot].width(); j++) {
+                            extractors.add(compiler.column(slot, j));
+                            cells.add(compiler.cell(slot, j));
+                        }
                     }
+                } else if (si instanceof SelectExpr se) {
+                    extractors.add(compiler.compileValue(se.expr()));
+                    cells.add(compiler.compileCell(se.expr()));
+                }
+            }
+            this.project = extractors.toArray(new ValueFn[0]);
+            this.cells = cells.toArray(new CellFn[0]);
+            List<OrderSpec> order = aggregate != null ? List.of() : q.orderBy();
+            this.keys = new ValueFn[order.size()];
+            this.asc = new boolean[order.size()];
+            for (int i = 0; i < asc.length; i++) {
+                asc[i] = order.get(i).asc();
+                keys[i] = compiler.compileValue(order.get(i).expr());
+            }
+            this.intKey = keys.length == 1 && compiler.typeOf(order.get(0).expr()) == Type.INT ? compiler.compileInt(order.get(0).expr()) : null;
+        }
+
+        /** The same pipeline with another chunk standing in for the driver. */
+        Pipeline over(ColumnTable chunk) {
+            ColumnTable[] t = tables.clone();
+            t[plan.driver()] = chunk;
+            return new Pipeline(q, plan, pushdown, hashed, lookups, probed, t, nodes);
+        }
+
+        // Scan, filter, one join per step and the residual, all moving the one shared row.
+        Operators.Rows rows(ChunkSource in, int[] row) {
+            Operators.Rows rows = track(nodes.scan, new Operators.Scan(in, row, plan.driver()));
+            if (filter != null) rows = track(nodes.filter, new Operators.Filter(rows, row, filter));
+            List<JoinPlan.Step> steps = plan.steps();
+            for (int k = 0; k < steps.size(); k++) {
+                JoinPlan.Step st = steps.get(k);
+                if (st.hashed()) {
+                    int probeSlot = st.probe().slot(), col = st.probe().ordinal();
+                    rows = lookups[k] != null
+                            ? new Operators.IndexJoin(rows, row, st.slot(), lookups[k], probed[k], probedFilters[k], probeSlot,
+                                    tables[probeSlot].column(col), tables[probeSlot].dictionary(col))
+                            : new Operators.HashJoin(rows, row, st.slot(), hashed[k], probeSlot,
+                                    tables[probeSlot].column(col), tables[probeSlot].dictionary(col));
+                } else {
+                    rows = new Operators.NestedLoop(rows, row, st.slot(), tables[st.slot()]);
+                }
+                rows = track(nodes.steps[k], rows);
+            }
+            return residual == null ? rows : track(nodes.residual, new Operators.Filter(rows, row, residual));
+        }
+
+        // Writes the result, returning the rows written. Only ORDER BY and
+        // GROUP BY hold rows; everything else is written as it passes.
+        long write(ChunkSource in, long sortBudget, ResultSink sink) throws IOException {
+            int[] row = new int[tables.length];
+            Operators.Rows rows = rows(in, row);
+            Integer limit = q.limit();
+            long written = 0;
+            if (aggregate == null && keys.length == 0) {
+                Operators.Rows out = track(nodes.project, new Operators.Project(rows, row, cells, sink));
+                if (limit != null) out = track(nodes.result, new Operators.Limit(out, limit));
+                while (out.next()) written++;
+                return written;
+            }
+            Operators.Values out;
+            if (aggregate != null) {
+                out = track(nodes.result, new Operators.Aggregate(rows, row, aggregate));
+            } else if (limit != null) {
+                out = track(nodes.result, new Operators.Top(rows, row, keys, asc, intKey, project, limit));
+            } else {
+                Operators.Sort sort = new Operators.Sort(rows, row, keys, project, TopN.keyOrder(asc), sortBudget);
+                nodes.sorter = sort.sorter();
+                out = track(nodes.result, sort);
+            }
+            for (Object[] vals; (vals = out.next()) != null; written++) sink.row(vals);
+            return written;
+        }
+
+        // Groups of one range, in the order first seen.
+        HashAggregate aggregate(ChunkSource in) throws IOException {
+            int[] row = new int[tables.length];
+            Operators.Rows rows = rows(in, row);
+            while (rows.next()) aggregate.add(row);
+            return aggregate;
+        }
+
+        // What one range contributes, in arrival order: its first rows up to
+        // the limit, its own top rows, or every row with its keys.
+        List<Keyed> partial(ChunkSource in) throws IOException {
+            int[] row = new int[tables.length];
+            Operators.Rows rows = rows(in, row);
+            Integer limit = q.limit();
+            List<Keyed> out = new ArrayList<>();
+            if (keys.length == 0) {
+                while ((limit == null || out.size() < limit) && rows.next()) {
+                    out.add(new Keyed(null, Operators.eval(project, row)));
                 }
-            } else if (si instanceof SelectExpr se) {
-                String name = se.alias() != null ? se.alias() : se.expr().toString();
-                headers.add(name);
-                extractors.add(r -> eval(se.expr(), r));
-            }
-        }
-        System.out.println(String.join(",", headers));
-        for (Map<String, Map<String,String>> r : rows) {
-            List<String> vals = new ArrayList<>();
-            for (var ex : extractors) {
-                Object v = ex.apply(r);
-                vals.add(String.valueOf(v));
-            }
-            System.out.println(String.join(",", vals));
-        }
-    }
-
-    private List<Map<String,String>> loadTable(Path file) throws IOException {
-        List<String> lines = Files.readAllLines(file);
-        if (lines.isEmpty()) return List.of();
-        String[] headers = lines.get(0).split(",");
-        List<Map<String,String>> rows = new ArrayList<>();
-        for (int i=1;i<lines.size();i++) {
-            String[] parts = lines.get(i).split(",");
-            Map<String,String> row = new HashMap<>();
-            for (int j=0;j<headers.length && j<parts.length;j++) {
-                row.put(headers[j], parts[j]);
-            }
-            rows.add(row);
-        }
-        return rows;
-    }
-
-    private List<Map<String, Map<String,String>>> crossJoin(Map<String,List<Map<String,String>>> tables) {
-        List<Map<String, Map<String,String>>> rows = new ArrayList<>();
-        rows.add(new HashMap<>());
-        for (var entry : tables.entrySet()) {
-            String alias = entry.getKey();
-            List<Map<String,String>> tableRows = entry.getValue();
-            List<Map<String, Map<String,String>>> newRows = new ArrayList<>();
-            for (var row : rows) {
-                for (var trow : tableRows) {
-                    Map<String, Map<String,String>> nr = new HashMap<>(row);
-                    nr.put(alias, trow);
-                    newRows.add(nr);
+            } else if (limit != null) {
+                TopN<Keyed> top = new TopN<>(limit, TopN.keyOrder(asc));
+                while (rows.next()) {
+                    if (intKey != null && !top.accepts(intKey.eval(row), asc[0])) continue;
+                    Object[] k = Operators.eval(keys, row);
+                    if (intKey != null || top.accepts(k)) top.add(k, new Keyed(k, Operators.eval(project, row)));
                 }
+                out.addAll(top.result());
+            } else {
+                while (rows.next()) out.add(new Keyed(Operators.eval(keys, row), Operators.eval(project, row)));
+            }
+            return out;
+        }
+    }
+
+    // The plan as EXPLAIN shows it, from the decisions run has made so far;
+    // ranges is the number the driver is split into, 0 when it runs whole.
+    private Nodes describe(Query q, List<String> aliases, List<String> tables, List<Path> files, TableStore[] stores,
+                           PredicatePushdown pushdown, JoinPlan plan, Indexed driverIndex, ColumnIndex[] lookups,
+                           boolean early, int ranges) {
+        List<JoinPlan.Step> steps = plan.steps();
+        Nodes nodes = new Nodes(aliases.size(), steps.size());
+        int driver = plan.driver();
+        if (driverIndex != null) {
+            nodes.scan = new PlanNode("IndexScan " + ref(tables, aliases, driver))
+                    .detail("index on " + driverIndex.column() + " gives " + driverIndex.offsets().length + " rows")
+                    .detail("reads them from " + files.get(driver).getFileName() + " by offset");
+        } else {
+            nodes.scan = scan(tables, aliases, files, stores, pushdown, driver, !early);
+            if (early) nodes.scan.detail("stops once the LIMIT is reached");
+            if (ranges > 0) nodes.scan.detail("split into " + ranges + " ranges over " + threads + " threads");
+        }
+        PlanNode top = nodes.scan;
+        Expr filter = pushdown.scanFilter(driver);
+        if (filter != null) top = nodes.filter = pushed(filter, aliases.get(driver)).input(top);
+        double[] estimated = plan.estimated();
+        if (estimated != null) top.detail(estimate(estimated[0]));
+        for (int k = 0; k < steps.size(); k++) {
+            JoinPlan.Step st = steps.get(k);
+            int s = st.slot();
+            String on = st.hashed() ? " on " + PlanNode.sql(st.probe()) + " = " + PlanNode.sql(st.build()) : "";
+            Expr f = pushdown.scanFilter(s);
+            PlanNode join;
+            if (lookups[k] != null) {
+                join = new PlanNode("IndexJoin " + ref(tables, aliases, s) + on)
+                        .detail("probes the index on " + st.build().name() + " of " + files.get(s).getFileName());
+                if (f != null) join.detail("filter " + PlanNode.sql(f));
+            } else {
+                PlanNode in = nodes.loadScans[s] = scan(tables, aliases, files, stores, pushdown, s, true);
+                if (f != null) in = nodes.loadFilters[s] = pushed(f, aliases.get(s)).input(in);
+                nodes.loads[s] = new PlanNode(st.hashed() ? "Hash " + PlanNode.sql(st.build()) : "Materialize " + ref(tables, aliases, s)).input(in);
+                join = new PlanNode((st.hashed() ? "HashJoin " : "NestedLoop ") + ref(tables, aliases, s) + on).build(nodes.loads[s]);
+            }
+            if (estimated != null) join.detail(estimate(estimated[k + 1]));
+            top = nodes.steps[k] = join.input(top);
+        }
+        if (plan.residual() != null) {
+            String when = Optimizer.empty(q) ? "never holds, so no table is read" : "after the joins";
+            top = nodes.residual = new PlanNode("Filter " + PlanNode.sql(plan.residual())).detail(when).input(top);
+        }
+        List<String> columns = new ArrayList<>();
+        for (SelectItem si : q.select()) columns.add(si instanceof SelectExpr se ? PlanNode.sql(se.expr()) : "*");
+        String project = String.join(", ", columns);
+        List<String> keys = new ArrayList<>();
+        for (OrderSpec os : q.orderBy()) keys.add(PlanNode.sql(os.expr()) + (os.asc() ? " ASC" : " DESC"));
+        String by = " by " + String.join(", ", keys);
+        if (q.aggregates()) {
+            List<String> groups = new ArrayList<>(), aggs = new ArrayList<>();
+            for (Expr g : q.groupBy()) groups.add(PlanNode.sql(g));
+            for (Agg a : HashAggregate.aggregates(q)) aggs.add(PlanNode.sql(a));
+            top = nodes.result = new PlanNode(groups.isEmpty() ? "Aggregate" : "HashAggregate group by " + String.join(", ", groups)).input(top);
+            if (!aggs.isEmpty()) nodes.result.detail("computes " + String.join(", ", aggs));
+            if (!groups.isEmpty()) {
+                nodes.result.detail(HashAggregate.primitiveKeys(new ExprCompiler(null), q.groupBy())
+                        ? "groups in an open-addressing table of primitive keys" : "groups in a hash map");
             }
-            rows = newRows;
-        }
-        return rows;
-    }
-
-    private boolean evalBool(Expr e, Map<String, Map<String,String>> row) {
-        Object v = eval(e, row);
-        if (v instanceof Boolean b) return b;
-        throw new RuntimeException("Expected boolean");
-    }
-
-    private Object eval(Expr e, Map<String, Map<String,String>> row) {
-        if (e instanceof Lit lit) {
-            return lit.value();
-        } else if (e instanceof Col c) {
-            String val = row.get(c.table().toLowerCase()).get(c.name());
-            try {
-                return Integer.parseInt(val);
-            } catch (NumberFormatException ex) {
-                return val;
-            }
-        } else if (e instanceof Bin b) {
-            Object l = eval(b.left(), row);
-            Object r = eval(b.right(), row);
-            return switch (b.op()) {
-                case PLUS -> ((Integer)l) + ((Integer)r);
-                case MINUS -> ((Integer)l) - ((Integer)r);
-                case STAR -> ((Integer)l) * ((Integer)r);
-                case SLASH -> ((Integer)l) / ((Integer)r);
-                case EQ -> l.equals(r);
-                case NEQ -> !l.equals(r);
-                case LT -> ((Comparable)l).compareTo(r) < 0;
-                case LTE -> ((Comparable)l).compareTo(r) <= 0;
-                case GT -> ((Comparable)l).compareTo(r) > 0;
-                case GTE -> ((Comparable)l).compareTo(r) >= 0;
-                case AND -> (Boolean)l && (Boolean)r;
-                case OR -> (Boolean)l || (Boolean)r;
-            };
-        } else if (e instanceof Un u) {
-            Object v = eval(u.expr(), row);
-            return switch (u.op()) {
-                case NEG -> -((Integer)v);
-                case NOT -> !(Boolean)v;
-            };
+            if (!q.orderBy().isEmpty()) nodes.result.detail("sorts the groups" + by);
+            if (q.limit() != null) nodes.result.detail("keeps the first " + q.limit());
+            nodes.result.detail("project " + project);
+            if (ranges > 0) nodes.result.detail("each range aggregates on its own; the partial groups are merged in range order");
+        } else if (q.orderBy().isEmpty()) {
+            top = nodes.project = new PlanNode("Project " + project).input(top);
+            if (q.limit() != null) top = nodes.result = new PlanNode("Limit " + q.limit()).input(top);
+            else nodes.result = nodes.project;
         } else {
-            throw new RuntimeException("Unknown expr");
+            top = nodes.result = new PlanNode(q.limit() != null ? "Top " + q.limit() + by : "Sort" + by).detail("project " + project).input(top);
+            if (q.limit() == null) nodes.result.detail("spills sorted runs to disk past " + PlanNode.size(sortBudget));
+        }
+        if (ranges > 0 && !q.aggregates()) nodes.result.detail("each range runs on its own; their results are merged in range order");
+        nodes.output = new PlanNode("Output " + format.name().toLowerCase()).input(top);
+        return nodes;
+    }
+
+    private PlanNode scan(List<String> tables, List<String> aliases, List<Path> files, TableStore[] stores,
+                          PredicatePushdown pushdown, int i, boolean build) {
+        String file = files.get(i).getFileName().toString();
+        PlanNode node = new PlanNode("Scan " + ref(tables, aliases, i));
+        if (stores[i] == null) return node.detail("not read");
+        if (tableCache != null) return node.detail("from the table cache");
+        if (!stores[i].cached()) return node.detail("from " + file + (cache && build ? " (CSV; a run writes its sidecar)" : " (CSV)"));
+        node.detail("from " + file + ColumnFile.SUFFIX + " (column sidecar)");
+        if (pushdown.scanFilter(i) != null) node.detail("zone maps skip blocks the filter rules out");
+        return node;
+    }
+
+    // an estimate of the cost-based join order, as the analyzed statistics give it
+    private static String estimate(double rows) {
+        return "about " + Math.round(rows) + " rows (estimated)";
+    }
+
+    private static PlanNode pushed(Expr filter, String alias) {
+        return new PlanNode("Filter " + PlanNode.sql(filter)).detail("pushed down to the scan of " + alias);
+    }
+
+    private static String ref(List<String> tables, List<String> aliases, int i) {
+        return tables.get(i).equals(aliases.get(i)) ? tables.get(i) : tables.get(i) + " AS " + aliases.get(i);
+    }
+
+    // The plan nodes of a query's operators. A pipeline wraps each operator
+    // it builds in its node; all are null unless the query is explained.
+    private static final class Nodes {
+        final PlanNode[] steps;
+        final PlanNode[] loads;
+        final PlanNode[] loadScans;
+        final PlanNode[] loadFilters;
+        PlanNode output;
+        PlanNode result;
+        PlanNode project;
+        PlanNode residual;
+        PlanNode filter;
+        PlanNode scan;
+        ExternalSort sorter;
+
+        Nodes(int tables, int steps) {
+            this.steps = new PlanNode[steps];
+            this.loads = new PlanNode[tables];
+            this.loadScans = new PlanNode[tables];
+            this.loadFilters = new PlanNode[tables];
         }
     }
+
+    private record Keyed(Object[] keys, Object[] values) {}
 }
@@ -0,0 +1,116 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Type;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Parses a CSV file into fixed-size {@link ColumnTable} chunks typed by the
+ * catalog. INT and BOOL fields are parsed straight from the mapped bytes and
+ * STRING fields are interned into the chunk's dictionaries, so no String is
+ * built per field. The chunk's arrays never move, so compiled expressions can
+ * bind to them once.
+ */
+final class CsvLoader implements ChunkSource {
+    static final int CHUNK = 4096;
+
+    private final Path file;
+    private final CsvReader in;
+    private final int[] fieldOf;
+    private final ColumnTable chunk;
+    private final int capacity;
+    private long[] offsets;
+    private int next;
+    private long bytes;
+
+    CsvLoader(Path file, Map<String, Type> columns) throws IOException {
+        this(file, columns, CHUNK);
+    }
+
+    CsvLoader(Path file, Map<String, Type> columns, int capacity) throws IOException {
+        this(file, columns, capacity, 0, Long.MAX_VALUE);
+    }
+
+    /** Loads only the records starting in [start, end); see {@link CsvReader#splits}. */
+    CsvLoader(Path file, Map<String, Type> columns, int capacity, long start, long end) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.in = new CsvReader(file, start, end, CsvReader.DEFAULT_WINDOW);
+        String[] header = in.header();
+        int n = columns.size();
+        String[] names = new String[n];
+        Type[] types = new Type[n];
+        fieldOf = new int[n];
+        int j = 0;
+        for (var c : columns.entrySet()) {
+            fieldOf[j] = -1;
+            for (int f = 0; f < header.length; f++) {
+                if (header[f].trim().equalsIgnoreCase(c.getKey())) { fieldOf[j] = f; break; }
+            }
+            if (fieldOf[j] < 0) {
+                in.close();
+                throw new RuntimeException("Column " + c.getKey() + " missing from " + file);
+            }
+            names[j] = header[fieldOf[j]].trim();
+            types[j] = c.getValue();
+            j++;
+        }
+        chunk = ColumnTable.create(names, types, capacity);
+    }
+
+    /**
+     * From now on loads only the records starting at these offsets, in the
+     * order given, in place of the range the loader was opened on.
+     */
+    void at(long[] offsets) {
+        this.offsets = offsets;
+        this.next = 0;
+    }
+
+    /** The chunk that {@link #fill()} refills; its dictionaries persist across chunks. */
+    public ColumnTable chunk() { return chunk; }
+
+    public boolean fill() throws IOException {
+        chunk.clear();
+        int width = chunk.width();
+        while (chunk.rows() < capacity && (offsets == null ? in.next() : next < offsets.length && in.seek(offsets[next++]))) {
+            int r = chunk.addRow();
+            for (int j = 0; j < width; j++) chunk.set(j, r, parse(j));
+            bytes += in.position() - in.recordOffset();
+        }
+        return chunk.rows() > 0;
+    }
+
+    public long bytesRead() { return bytes; }
+
+    private int parse(int j) {
+        int f = fieldOf[j];
+        switch (chunk.type(j)) {
+            case INT -> {
+                try {
+                    return in.parseInt(f);
+                } catch (NumberFormatException ex) {
+                    throw new RuntimeException("Bad INT value for " + chunk.name(j) + " in " + file
+                            + " at offset " + in.recordOffset() + ": " + ex.getMessage());
+                }
+            }
+            case BOOL -> {
+                int len = in.copyField(f);
+                byte[] b = in.buffer();
+                return len == 4 && (b[0] | 0x20) == 't' && (b[1] | 0x20) == 'r' && (b[2] | 0x20) == 'u'
+                        && (b[3] | 0x20) == 'e' ? 1 : 0;
+            }
+            default -> {
+                int len = in.copyField(f);
+                return chunk.dictionary(j).intern(in.buffer(), 0, len);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,289 @@
+package com.minisqlpp.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams records out of a CSV file through a memory-mapped window. Field
+ * boundaries are located in the mapped bytes; a field is only decoded when
+ * it is asked for.
+ */
+public final class CsvReader implements Closeable {
+    public static final int DEFAULT_WINDOW = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long end;
+    private int window;
+    private MappedByteBuffer buf;
+    private long base;
+    private int limit;
+    private int pos;
+
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private int fields;
+    private long recordOffset;
+    private byte[] scratch = new byte[256];
+    private final String[] header;
+
+    public CsvReader(Path file) throws IOException {
+        this(file, DEFAULT_WINDOW);
+    }
+
+    public CsvReader(Path file, int window) throws IOException {
+        this(file, 0, Long.MAX_VALUE, window);
+    }
+
+    /**
+     * Reads only the records that start in [start, end), which should be
+     * offsets from {@link #splits}. The header is still read from the top of
+     * the file.
+     */
+    public CsvReader(Path file, long start, long end, int window) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.end = Math.min(end, size);
+        this.window = window;
+        map(0);
+        if (limit >= 3 && buf.get(0) == (byte) 0xEF && buf.get(1) == (byte) 0xBB && buf.get(2) == (byte) 0xBF) {
+            pos = 3; // UTF-8 byte order mark
+        }
+        header = advance(size) ? strings() : new String[0];
+        if (start > base + pos) map(start);
+    }
+
+    /**
+     * Cuts a file into about {@code parts} byte ranges, each starting at a
+     * record boundary. Returns parts + 1 offsets or fewer; range i is
+     * [offsets[i], offsets[i + 1]). Each cut is found by probing forward from
+     * its target alone, so the file is never scanned whole; a quoted field
+     * still open 256 KiB past a newline is taken to have ended
+     * before it.
+     */
+    public static long[] splits(Path file, int parts) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            long[] out = new long[parts + 1];
+            int n = 1;
+            for (int i = 1; i < parts; i++) {
+                long target = size * i / parts;
+                if (target <= out[n - 1]) continue;
+                long cut = cut(ch.map(FileChannel.MapMode.READ_ONLY, target, Math.min(PROBE, size - target)), target, size);
+                if (cut > out[n - 1] && cut < size) out[n++] = cut;
+            }
+            out[n++] = size;
+            return Arrays.copyOf(out, n);
+        }
+    }
+
+    // How far past a target a cut is looked for.
+    private static final int PROBE = 1 << 18;
+
+    // States of parseRecord's quote rule: a quote opens a quoted field only
+    // at the start of a field, and after the closing quote the rest of the
+    // field is skipped.
+    private static final int FIELD = 0, BARE = 1, QUOTED = 2, CLOSED = 3;
+
+    private static int step(int state, byte b) {
+        return switch (state) {
+            case FIELD -> b == '"' ? QUOTED : b == ',' || b == '\n' ? FIELD : BARE;
+            case BARE -> b == ',' || b == '\n' ? FIELD : BARE;
+            case QUOTED -> b == '"' ? CLOSED : QUOTED;
+            default -> b == '"' ? QUOTED : b == ',' || b == '\n' ? FIELD : BARE;
+        };
+    }
+
+    // Offset just past a record end at or after the start of m, which is at
+    // offset from, or -1. The first newline either ends a record or lies in
+    // a quoted field, so both are followed until they reach the same state;
+    // from there the parse agrees either way and its next record end is a cut.
+    private static long cut(MappedByteBuffer m, long from, long size) {
+        int len = m.limit(), p = 0;
+        while (p < len && m.get(p) != '\n') p++;
+        if (p == len) return -1;
+        int ended = FIELD, open = QUOTED;
+        for (int i = p + 1; i < len; i++) {
+            byte b = m.get(i);
+            ended = step(ended, b);
+            open = step(open, b);
+            if (ended == open && ended == FIELD && b == '\n') return from + i + 1;
+        }
+        // a reading still inside a quote at the end of the file was wrong
+        return from + len == size && ended == QUOTED ? -1 : from + p + 1;
+    }
+
+    public String[] header() { return header; }
+
+    /** Advances to the next non-blank record, returning false at the end of the range. */
+    public boolean next() throws IOException {
+        return advance(end);
+    }
+
+    // Reads the next non-blank record that starts before stop.
+    private boolean advance(long stop) throws IOException {
+        while (base + pos < stop) {
+            int after = parseRecord(pos);
+            if (after < 0) {
+                if (pos == 0) {
+                    // a single record is larger than the window: widen it
+                    if (window > Integer.MAX_VALUE / 2) throw new IOException("CSV record at offset " + base + " is too large");
+                    window *= 2;
+                }
+                map(base + pos);
+                continue;
+            }
+            recordOffset = base + pos;
+            pos = after;
+            if (fields == 1 && starts[0] == ends[0] && !quoted[0]) continue;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the record starting at offset, which must be one
+     * {@link #recordOffset()} reported for this file. Visiting offsets in
+     * increasing order mostly stays within the mapped window.
+     */
+    public boolean seek(long offset) throws IOException {
+        if (offset < base || offset >= base + limit) map(offset);
+        else pos = (int) (offset - base);
+        return advance(size);
+    }
+
+    public int fieldCount() { return fields; }
+
+    /** File offset of the first byte of the current record. */
+    public long recordOffset() { return recordOffset; }
+
+    /** File offset just past the current record. */
+    public long position() { return base + pos; }
+
+    public String string(int i) {
+        if (i >= fields) return null;
+        int n = copy(i);
+        return new String(scratch, 0, n, StandardCharsets.UTF_8);
+    }
+
+    public int parseInt(int i) {
+        if (i >= fields) throw new NumberFormatException("missing field " + i);
+        int p = starts[i], e = ends[i];
+        if (p == e) throw new NumberFormatException("empty field");
+        boolean neg = false;
+        byte b = buf.get(p);
+        if (b == '-' || b == '+') {
+            neg = b == '-';
+            if (++p == e) throw new NumberFormatException("sign without digits");
+        }
+        long v = 0;
+        for (; p < e; p++) {
+            int d = buf.get(p) - '0';
+            if (d < 0 || d > 9) throw new NumberFormatException("not a number: " + string(i));
+            v = v * 10 + d;
+            if (v > 1L + Integer.MAX_VALUE) throw new NumberFormatException("out of range: " + string(i));
+        }
+        v = neg ? -v : v;
+        if (v > Integer.MAX_VALUE) throw new NumberFormatException("out of range: " + string(i));
+        return (int) v;
+    }
+
+    /** Copies field i, unquoted, into {@link #buffer()} and returns its length. */
+    public int copyField(int i) {
+        return i >= fields ? 0 : copy(i);
+    }
+
+    /** Scratch holding the bytes of the last field copied. */
+    public byte[] buffer() { return scratch; }
+
+    public String[] strings() {
+        String[] out = new String[fields];
+        for (int i = 0; i < fields; i++) out[i] = string(i);
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buf = null;
+        channel.close();
+    }
+
+    private void map(long offset) throws IOException {
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(window, size - offset));
+        base = offset;
+        limit = buf.limit();
+        pos = 0;
+    }
+
+    // Returns the position just past the record terminator, or -1 if the
+    // record runs past the mapped window and more of the file must be mapped.
+    private int parseRecord(int p) throws IOException {
+        boolean eof = base + limit == size;
+        fields = 0;
+        while (true) {
+            if (p < limit && buf.get(p) == '"') {
+                int start = ++p;
+                while (true) {
+                    if (p >= limit) {
+                        if (eof) throw new IOException("Unterminated quoted field at offset " + (base + start - 1));
+                        return -1;
+                    }
+                    if (buf.get(p) == '"') {
+                        if (p + 1 >= limit && !eof) return -1;
+                        if (p + 1 < limit && buf.get(p + 1) == '"') { p += 2; continue; }
+                        break;
+                    }
+                    p++;
+                }
+                addField(start, p, true);
+                p++;
+                while (p < limit && buf.get(p) != ',' && buf.get(p) != '\n') p++;
+                if (p >= limit && !eof) return -1;
+            } else {
+                int start = p;
+                while (p < limit && buf.get(p) != ',' && buf.get(p) != '\n') p++;
+                if (p >= limit && !eof) return -1;
+                int end = p;
+                if (end > start && buf.get(end - 1) == '\r') end--;
+                addField(start, end, false);
+            }
+            if (p >= limit) return p;
+            if (buf.get(p) == '\n') return p + 1;
+            p++; // comma
+        }
+    }
+
+    private void addField(int start, int end, boolean q) {
+        if (fields == starts.length) {
+            int n = fields * 2;
+            starts = Arrays.copyOf(starts, n);
+            ends = Arrays.copyOf(ends, n);
+            quoted = Arrays.copyOf(quoted, n);
+        }
+        starts[fields] = start;
+        ends[fields] = end;
+        quoted[fields] = q;
+        fields++;
+    }
+
+    // Copies field i into scratch, collapsing doubled quotes; returns its length.
+    private int copy(int i) {
+        int s = starts[i], len = ends[i] - s;
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        buf.get(s, scratch, 0, len);
+        if (!quoted[i]) return len;
+        int n = 0;
+        for (int j = 0; j < len; j++) {
+            scratch[n++] = scratch[j];
+            if (scratch[j] == '"' && j + 1 < len && scratch[j + 1] == '"') j++;
+        }
+        return n;
+    }
+}
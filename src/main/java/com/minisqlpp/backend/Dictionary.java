@@ -0,0 +1,97 @@
+package com.minisqlpp.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dense string dictionary for a STRING column. Values are interned straight
+ * from their UTF-8 bytes, so a value seen before costs a hash probe and no
+ * allocation.
+ */
+final class Dictionary {
+    private String[] values = new String[16];
+    private byte[][] bytes = new byte[16][];
+    private int[] hashes = new int[16];
+    private int[] slots = new int[32]; // id + 1, 0 when empty
+    private int size;
+    private boolean frozen;
+
+    int size() { return size; }
+
+    String value(int id) { return values[id]; }
+
+    /** The value's UTF-8 bytes; callers must not modify them. */
+    byte[] utf8(int id) { return bytes[id]; }
+
+    int intern(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        return intern(b, 0, b.length);
+    }
+
+    int intern(byte[] b, int off, int len) {
+        if (frozen) throw new RuntimeException("Dictionary is frozen");
+        int h = hash(b, off, len);
+        int mask = slots.length - 1;
+        int s = h & mask;
+        for (int id; (id = slots[s] - 1) >= 0; s = (s + 1) & mask) {
+            if (hashes[id] == h && Arrays.equals(bytes[id], 0, bytes[id].length, b, off, off + len)) return id;
+        }
+        int id = size++;
+        if (id == values.length) {
+            values = Arrays.copyOf(values, id * 2);
+            bytes = Arrays.copyOf(bytes, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        bytes[id] = Arrays.copyOfRange(b, off, off + len);
+        values[id] = new String(bytes[id], StandardCharsets.UTF_8);
+        hashes[id] = h;
+        slots[s] = id + 1;
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    /** Id of a value, or -1 if it has never been interned. */
+    int find(String v) {
+        byte[] b = v.getBytes(StandardCharsets.UTF_8);
+        int h = hash(b, 0, b.length);
+        int mask = slots.length - 1;
+        for (int s = h & mask, id; (id = slots[s] - 1) >= 0; s = (s + 1) & mask) {
+            if (hashes[id] == h && Arrays.equals(bytes[id], b)) return id;
+        }
+        return -1;
+    }
+
+    /** Stops interning, for a complete table that queries share. */
+    void freeze() { frozen = true; }
+
+    /**
+     * Id to compare a query literal with. A streamed table may meet the value
+     * later, so it is interned; a frozen table never will, so a miss gives -1,
+     * which no row holds.
+     */
+    int literal(String v) {
+        return frozen ? find(v) : intern(v);
+    }
+
+    long bytes() {
+        long total = 16L * values.length + 4L * slots.length;
+        for (int i = 0; i < size; i++) total += 2L * bytes[i].length + 64;
+        return total;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int s = hashes[id] & mask;
+            while (slots[s] != 0) s = (s + 1) & mask;
+            slots[s] = id + 1;
+        }
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 1;
+        for (int i = off; i < off + len; i++) h = 31 * h + b[i];
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,262 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.*;
+import com.minisqlpp.check.Type;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns a type-checked expression into a tree of closures specialised by
+ * type, so evaluating a row does no instanceof dispatch and INT/BOOL values
+ * stay primitive. A row is the row index into each slot's table; closures
+ * bind directly to the column arrays of the tables given at construction,
+ * found by the slot and ordinal TypeChecker bound each column to.
+ * Comparisons of a column against a literal or another column are fused
+ * into a single closure, and STRING equality compares dictionary ids.
+ */
+final class ExprCompiler {
+    interface IntFn { int eval(int[] row); }
+    interface BoolFn { boolean eval(int[] row); }
+    interface StrFn { String eval(int[] row); }
+    /** Boxed result, for sort keys and output values. */
+    interface ValueFn { Object eval(int[] row); }
+    /** Writes a row's value as the next cell of a result row, unboxed. */
+    interface CellFn { void write(int[] row, ResultSink sink); }
+
+    private final ColumnTable[] tables;
+
+    ExprCompiler(ColumnTable[] tables) {
+        this.tables = tables;
+    }
+
+    Type typeOf(Expr e) {
+        if (e instanceof Lit lit) {
+            return lit.type();
+        } else if (e instanceof Col c) {
+            return c.type();
+        } else if (e instanceof Bin b) {
+            return switch (b.op()) {
+                case PLUS, MINUS, STAR, SLASH -> Type.INT;
+                default -> Type.BOOL;
+            };
+        } else if (e instanceof Un u) {
+            return u.op() == Un.Op.NEG ? Type.INT : Type.BOOL;
+        }
+        throw new RuntimeException("Unknown expr");
+    }
+
+    ValueFn compileValue(Expr e) {
+        return switch (typeOf(e)) {
+            case INT -> {
+                IntFn f = compileInt(e);
+                yield row -> f.eval(row);
+            }
+            case BOOL -> {
+                BoolFn f = compileBool(e);
+                yield row -> f.eval(row);
+            }
+            case STRING -> {
+                StrFn f = compileStr(e);
+                yield f::eval;
+            }
+        };
+    }
+
+    /** Boxed value of one stored column, as SELECT * prints it. */
+    ValueFn column(int slot, int j) {
+        ColumnTable t = tables[slot];
+        int[] col = t.column(j);
+        return switch (t.type(j)) {
+            case INT -> row -> col[row[slot]];
+            case BOOL -> row -> col[row[slot]] != 0;
+            case STRING -> {
+                Dictionary d = t.dictionary(j);
+                yield row -> d.value(col[row[slot]]);
+            }
+        };
+    }
+
+    CellFn compileCell(Expr e) {
+        return switch (typeOf(e)) {
+            case INT -> {
+                IntFn f = compileInt(e);
+                yield (row, sink) -> sink.intCell(f.eval(row));
+            }
+            case BOOL -> {
+                BoolFn f = compileBool(e);
+                yield (row, sink) -> sink.boolCell(f.eval(row));
+            }
+            case STRING -> {
+                if (e instanceof Col c) yield cell(c.slot(), c.ordinal());
+                if (!(e instanceof Lit lit)) throw new RuntimeException("Expected STRING expression");
+                byte[] v = ((String) lit.value()).getBytes(StandardCharsets.UTF_8);
+                yield (row, sink) -> sink.stringCell(v);
+            }
+        };
+    }
+
+    /** Cell of one stored column, STRING ones written from their dictionary bytes. */
+    CellFn cell(int slot, int j) {
+        ColumnTable t = tables[slot];
+        int[] col = t.column(j);
+        return switch (t.type(j)) {
+            case INT -> (row, sink) -> sink.intCell(col[row[slot]]);
+            case BOOL -> (row, sink) -> sink.boolCell(col[row[slot]] != 0);
+            case STRING -> {
+                Dictionary d = t.dictionary(j);
+                yield (row, sink) -> sink.stringCell(d.utf8(col[row[slot]]));
+            }
+        };
+    }
+
+    IntFn compileInt(Expr e) {
+        if (e instanceof Lit lit) {
+            int v = (Integer) lit.value();
+            return row -> v;
+        } else if (e instanceof Col c) {
+            int s = c.slot();
+            int[] col = data(c);
+            return row -> col[row[s]];
+        } else if (e instanceof Bin b) {
+            IntFn l = compileInt(b.left()), r = compileInt(b.right());
+            return switch (b.op()) {
+                case PLUS -> row -> l.eval(row) + r.eval(row);
+                case MINUS -> row -> l.eval(row) - r.eval(row);
+                case STAR -> row -> l.eval(row) * r.eval(row);
+                case SLASH -> row -> l.eval(row) / r.eval(row);
+                default -> throw new RuntimeException("Expected INT expression");
+            };
+        } else if (e instanceof Un u && u.op() == Un.Op.NEG) {
+            IntFn f = compileInt(u.expr());
+            return row -> -f.eval(row);
+        }
+        throw new RuntimeException("Expected INT expression");
+    }
+
+    StrFn compileStr(Expr e) {
+        if (e instanceof Lit lit) {
+            String v = (String) lit.value();
+            return row -> v;
+        } else if (e instanceof Col c) {
+            int s = c.slot();
+            int[] ids = data(c);
+            Dictionary d = dictionary(c);
+            return row -> d.value(ids[row[s]]);
+        }
+        throw new RuntimeException("Expected STRING expression");
+    }
+
+    BoolFn compileBool(Expr e) {
+        if (e instanceof Lit lit) {
+            boolean v = (Boolean) lit.value();
+            return row -> v;
+        } else if (e instanceof Col c) {
+            int s = c.slot();
+            int[] col = data(c);
+            return row -> col[row[s]] != 0;
+        } else if (e instanceof Un u && u.op() == Un.Op.NOT) {
+            BoolFn f = compileBool(u.expr());
+            return row -> !f.eval(row);
+        } else if (e instanceof Bin b) {
+            switch (b.op()) {
+                case AND -> {
+                    BoolFn l = compileBool(b.left()), r = compileBool(b.right());
+                    return row -> l.eval(row) && r.eval(row);
+                }
+                case OR -> {
+                    BoolFn l = compileBool(b.left()), r = compileBool(b.right());
+                    return row -> l.eval(row) || r.eval(row);
+                }
+                case EQ, NEQ, LT, LTE, GT, GTE -> {
+                    return switch (typeOf(b.left())) {
+                        case INT -> compareInt(b);
+                        case STRING -> compareStr(b);
+                        case BOOL -> compareBool(b);
+                    };
+                }
+                default -> { }
+            }
+        }
+        throw new RuntimeException("Expected BOOL expression");
+    }
+
+    private BoolFn compareInt(Bin b) {
+        if (b.left() instanceof Col c && b.right() instanceof Lit lit) {
+            int s = c.slot(), v = (Integer) lit.value();
+            int[] col = data(c);
+            return switch (b.op()) {
+                case EQ -> row -> col[row[s]] == v;
+                case NEQ -> row -> col[row[s]] != v;
+                case LT -> row -> col[row[s]] < v;
+                case LTE -> row -> col[row[s]] <= v;
+                case GT -> row -> col[row[s]] > v;
+                default -> row -> col[row[s]] >= v;
+            };
+        }
+        if (b.left() instanceof Col lc && b.right() instanceof Col rc) {
+            int ls = lc.slot(), rs = rc.slot();
+            int[] l = data(lc), r = data(rc);
+            return switch (b.op()) {
+                case EQ -> row -> l[row[ls]] == r[row[rs]];
+                case NEQ -> row -> l[row[ls]] != r[row[rs]];
+                case LT -> row -> l[row[ls]] < r[row[rs]];
+                case LTE -> row -> l[row[ls]] <= r[row[rs]];
+                case GT -> row -> l[row[ls]] > r[row[rs]];
+                default -> row -> l[row[ls]] >= r[row[rs]];
+            };
+        }
+        IntFn l = compileInt(b.left()), r = compileInt(b.right());
+        return switch (b.op()) {
+            case EQ -> row -> l.eval(row) == r.eval(row);
+            case NEQ -> row -> l.eval(row) != r.eval(row);
+            case LT -> row -> l.eval(row) < r.eval(row);
+            case LTE -> row -> l.eval(row) <= r.eval(row);
+            case GT -> row -> l.eval(row) > r.eval(row);
+            default -> row -> l.eval(row) >= r.eval(row);
+        };
+    }
+
+    private BoolFn compareStr(Bin b) {
+        boolean eq = b.op() == Bin.Op.EQ;
+        if ((eq || b.op() == Bin.Op.NEQ) && b.left() instanceof Col c && b.right() instanceof Lit lit) {
+            int s = c.slot(), id = dictionary(c).literal((String) lit.value());
+            int[] ids = data(c);
+            return eq ? row -> ids[row[s]] == id : row -> ids[row[s]] != id;
+        }
+        if ((eq || b.op() == Bin.Op.NEQ) && b.left() instanceof Col lc && b.right() instanceof Col rc
+                && dictionary(lc) == dictionary(rc)) {
+            int ls = lc.slot(), rs = rc.slot();
+            int[] l = data(lc), r = data(rc);
+            return eq ? row -> l[row[ls]] == r[row[rs]] : row -> l[row[ls]] != r[row[rs]];
+        }
+        StrFn l = compileStr(b.left()), r = compileStr(b.right());
+        return switch (b.op()) {
+            case EQ -> row -> l.eval(row).equals(r.eval(row));
+            case NEQ -> row -> !l.eval(row).equals(r.eval(row));
+            case LT -> row -> l.eval(row).compareTo(r.eval(row)) < 0;
+            case LTE -> row -> l.eval(row).compareTo(r.eval(row)) <= 0;
+            case GT -> row -> l.eval(row).compareTo(r.eval(row)) > 0;
+            default -> row -> l.eval(row).compareTo(r.eval(row)) >= 0;
+        };
+    }
+
+    private BoolFn compareBool(Bin b) {
+        BoolFn l = compileBool(b.left()), r = compileBool(b.right());
+        return switch (b.op()) {
+            case EQ -> row -> l.eval(row) == r.eval(row);
+            case NEQ -> row -> l.eval(row) != r.eval(row);
+            case LT -> row -> Boolean.compare(l.eval(row), r.eval(row)) < 0;
+            case LTE -> row -> Boolean.compare(l.eval(row), r.eval(row)) <= 0;
+            case GT -> row -> Boolean.compare(l.eval(row), r.eval(row)) > 0;
+            default -> row -> Boolean.compare(l.eval(row), r.eval(row)) >= 0;
+        };
+    }
+
+    private int[] data(Col c) {
+        return tables[c.slot()].column(c.ordinal());
+    }
+
+    private Dictionary dictionary(Col c) {
+        return tables[c.slot()].dictionary(c.ordinal());
+    }
+}
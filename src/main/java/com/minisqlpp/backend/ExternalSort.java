@@ -0,0 +1,200 @@
+package com.minisqlpp.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * ORDER BY without LIMIT over more rows than fit in memory. Rows collect in
+ * memory until their estimated size passes the budget; the run is then
+ * sorted and spilled to a temp file. The output is a k-way merge of the
+ * runs. Ties go to the earlier run, and each run is sorted stably, so the
+ * result matches a stable sort of the whole input.
+ *
+ * <p>A spilled row is the byte {@code R} followed by its keys then its
+ * values, each tagged: {@code I} and a 4-byte int, {@code B} and a byte,
+ * {@code S} and a length-prefixed UTF-8 string.
+ */
+final class ExternalSort implements Closeable {
+    private record Row(Object[] keys, Object[] values) {}
+
+    private final Comparator<Object[]> keyOrder;
+    private final long budget;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Run> sources = new ArrayList<>();
+    private List<Row> rows = new ArrayList<>();
+    private long used;
+    private long peak;
+    private int spills;
+    private int keyWidth;
+    private int valueWidth;
+
+    ExternalSort(Comparator<Object[]> keyOrder, long budget) {
+        this.keyOrder = keyOrder;
+        this.budget = budget;
+    }
+
+    /** Memory for sorting when none is configured: a quarter of the heap. */
+    static long defaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    void add(Object[] keys, Object[] values) throws IOException {
+        keyWidth = keys.length;
+        valueWidth = values.length;
+        rows.add(new Row(keys, values));
+        used += 48 + size(keys) + size(values);
+        peak = Math.max(peak, used);
+        if (used > budget) spill();
+    }
+
+    /** Number of runs written to disk so far. */
+    int spilled() { return spills; }
+
+    /** The most the rows held in memory were estimated to take at once. */
+    long peak() { return peak; }
+
+    /** The rows' values in key order. Call once, after the last {@link #add}. */
+    Operators.Values sorted() throws IOException {
+        rows.sort((a, b) -> keyOrder.compare(a.keys(), b.keys()));
+        if (runs.isEmpty()) {
+            Iterator<Row> it = rows.iterator();
+            return () -> it.hasNext() ? it.next().values() : null;
+        }
+        PriorityQueue<Run> heap = new PriorityQueue<>((a, b) -> {
+            int c = keyOrder.compare(a.keys, b.keys);
+            return c != 0 ? c : Integer.compare(a.index, b.index);
+        });
+        for (Path p : runs) open(heap, new Run(sources.size(), p, null, keyWidth, valueWidth));
+        open(heap, new Run(sources.size(), null, rows, keyWidth, valueWidth));
+        return () -> {
+            Run r = heap.poll();
+            if (r == null) return null;
+            Object[] values = r.values;
+            if (r.advance()) heap.add(r);
+            else r.close();
+            return values;
+        };
+    }
+
+    private void open(PriorityQueue<Run> heap, Run r) throws IOException {
+        sources.add(r);
+        if (r.advance()) heap.add(r);
+        else r.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        rows = new ArrayList<>();
+        for (Run r : sources) r.close();
+        sources.clear();
+        for (Path p : runs) Files.deleteIfExists(p);
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        rows.sort((a, b) -> keyOrder.compare(a.keys(), b.keys()));
+        Path file = Files.createTempFile("minisqlpp-sort", ".run");
+        file.toFile().deleteOnExit();
+        runs.add(file);
+        spills++;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            for (Row r : rows) {
+                out.writeByte('R');
+                write(out, r.keys());
+                write(out, r.values());
+            }
+        }
+        rows = new ArrayList<>();
+        used = 0;
+    }
+
+    private static void write(DataOutputStream out, Object[] vals) throws IOException {
+        for (Object v : vals) {
+            if (v instanceof Integer i) {
+                out.writeByte('I');
+                out.writeInt(i);
+            } else if (v instanceof Boolean b) {
+                out.writeByte('B');
+                out.writeBoolean(b);
+            } else {
+                byte[] bytes = ((String) v).getBytes(StandardCharsets.UTF_8);
+                out.writeByte('S');
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static long size(Object[] vals) {
+        long n = 16 + 8L * vals.length;
+        for (Object v : vals) n += v instanceof String s ? 48 + s.length() : 16;
+        return n;
+    }
+
+    // One sorted run, read back from its file or held in memory.
+    private static final class Run implements Closeable {
+        final int index;
+        final DataInputStream in;
+        final List<Row> held;
+        final int keyWidth;
+        final int valueWidth;
+        int next;
+        Object[] keys;
+        Object[] values;
+
+        Run(int index, Path file, List<Row> held, int keyWidth, int valueWidth) throws IOException {
+            this.index = index;
+            this.in = file == null ? null : new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            this.held = held;
+            this.keyWidth = keyWidth;
+            this.valueWidth = valueWidth;
+        }
+
+        boolean advance() throws IOException {
+            if (held != null) {
+                if (next == held.size()) return false;
+                Row r = held.get(next++);
+                keys = r.keys();
+                values = r.values();
+                return true;
+            }
+            int marker = in.read();
+            if (marker < 0) return false;
+            if (marker != 'R') throw new IOException("Corrupt sort run: row marker " + marker);
+            keys = new Object[keyWidth];
+            values = new Object[valueWidth];
+            for (int i = 0; i < keyWidth; i++) keys[i] = read(in, in.readByte());
+            for (int i = 0; i < valueWidth; i++) values[i] = read(in, in.readByte());
+            return true;
+        }
+
+        public void close() throws IOException {
+            if (in != null) in.close();
+        }
+    }
+
+    private static Object read(DataInputStream in, int tag) throws IOException {
+        return switch (tag) {
+            case 'I' -> in.readInt();
+            case 'B' -> in.readBoolean();
+            case 'S' -> {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                yield new String(bytes, StandardCharsets.UTF_8);
+            }
+            default -> throw new IOException("Corrupt sort run: tag " + tag);
+        };
+    }
+}
@@ -0,0 +1,426 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.*;
+import com.minisqlpp.backend.ExprCompiler.BoolFn;
+import com.minisqlpp.backend.ExprCompiler.IntFn;
+import com.minisqlpp.backend.ExprCompiler.StrFn;
+import com.minisqlpp.backend.ExprCompiler.ValueFn;
+import com.minisqlpp.check.Type;
+import com.minisqlpp.check.TypeChecker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GROUP BY and aggregates of one query. Each row is hashed on its group keys
+ * to a group number, first seen first: a single INT or BOOL key through an
+ * open-addressing table of primitive longs, as in {@link JoinHashTable},
+ * other keys through a HashMap. The accumulators of group g sit at
+ * g * width of one long array, STRING MIN and MAX in an Object array beside
+ * it. COUNT and SUM come out as Long, as they can pass the INT range; AVG is
+ * the sum over the count, truncated like integer division. Pipelines running
+ * in parallel fill one each and {@link #merge} them in range order, so the
+ * groups keep the order they were first seen in. Without GROUP BY there is a
+ * single group, so over no rows there is still one row: COUNT and SUM are 0,
+ * and MIN, MAX and AVG of nothing are null, as is anything computed from
+ * them, which the result writes as an empty cell.
+ */
+final class HashAggregate {
+    private interface Update { void add(int at, int[] row); }
+    private interface GroupFn { Object eval(int g); }
+
+    private final Query q;
+    private final List<Expr> groupBy;
+    private final List<Agg> aggs;
+    private final Type[] types;
+    private final int[] offsets;
+    private final int width;
+    private final Update[] updates;
+    private final IntFn intKey;
+    private final boolean boolKey;
+    private final ValueFn[] keyFns;
+    private final List<Object[]> keys = new ArrayList<>();
+    private long[] intKeys;
+    private int count;
+    private long[] slotKeys;
+    private int[] slotGroups;
+    private Map<Object,Integer> groups;
+    private long[] acc;
+    private Object[] strs;
+    private long rows;
+
+    HashAggregate(ExprCompiler compiler, Query q) {
+        this.q = q;
+        this.groupBy = q.groupBy();
+        this.aggs = aggregates(q);
+        int n = aggs.size();
+        this.types = new Type[n];
+        this.offsets = new int[n];
+        this.updates = new Update[n];
+        int w = 0;
+        boolean anyStrings = false;
+        for (int i = 0; i < n; i++) {
+            Agg a = aggs.get(i);
+            offsets[i] = w;
+            w += a.fn() == Agg.Fn.AVG ? 2 : 1;
+            types[i] = a.arg() == null ? Type.INT : compiler.typeOf(a.arg());
+            anyStrings |= types[i] == Type.STRING && (a.fn() == Agg.Fn.MIN || a.fn() == Agg.Fn.MAX);
+            updates[i] = update(compiler, a, offsets[i], types[i]);
+        }
+        this.width = w;
+        this.acc = new long[16 * w];
+        this.strs = anyStrings ? new Object[16 * w] : null;
+        if (primitiveKeys(compiler, groupBy)) {
+            Expr k = groupBy.get(0);
+            boolKey = compiler.typeOf(k) == Type.BOOL;
+            if (boolKey) {
+                BoolFn f = compiler.compileBool(k);
+                intKey = row -> f.eval(row) ? 1 : 0;
+            } else {
+                intKey = compiler.compileInt(k);
+            }
+            keyFns = null;
+            intKeys = new long[16];
+            slotKeys = new long[16];
+            slotGroups = new int[16];
+            Arrays.fill(slotGroups, -1);
+        } else {
+            intKey = null;
+            boolKey = false;
+            keyFns = new ValueFn[groupBy.size()];
+            for (int i = 0; i < keyFns.length; i++) keyFns[i] = compiler.compileValue(groupBy.get(i));
+            groups = new HashMap<>();
+            if (keyFns.length == 0) newGroup();
+        }
+    }
+
+    /** Whether the groups are keyed by one INT or BOOL, which is hashed as a primitive. */
+    static boolean primitiveKeys(ExprCompiler compiler, List<Expr> groupBy) {
+        return groupBy.size() == 1 && compiler.typeOf(groupBy.get(0)) != Type.STRING;
+    }
+
+    /** The distinct aggregates the query selects or sorts by, in the order they appear. */
+    static List<Agg> aggregates(Query q) {
+        List<Agg> out = new ArrayList<>();
+        for (SelectItem si : q.select()) if (si instanceof SelectExpr se) collect(se.expr(), out);
+        for (OrderSpec os : q.orderBy()) collect(os.expr(), out);
+        return out;
+    }
+
+    private static void collect(Expr e, List<Agg> out) {
+        if (e instanceof Agg a) {
+            for (Agg seen : out) if (TypeChecker.same(seen, a)) return;
+            out.add(a);
+        } else if (e instanceof Bin b) {
+            collect(b.left(), out);
+            collect(b.right(), out);
+        } else if (e instanceof Un u) {
+            collect(u.expr(), out);
+        }
+    }
+
+    private Update update(ExprCompiler compiler, Agg a, int o, Type type) {
+        boolean min = a.fn() == Agg.Fn.MIN;
+        return switch (a.fn()) {
+            case COUNT -> (at, row) -> acc[at + o]++;
+            case SUM -> {
+                IntFn f = compiler.compileInt(a.arg());
+                yield (at, row) -> acc[at + o] += f.eval(row);
+            }
+            case AVG -> {
+                IntFn f = compiler.compileInt(a.arg());
+                yield (at, row) -> {
+                    acc[at + o] += f.eval(row);
+                    acc[at + o + 1]++;
+                };
+            }
+            case MIN, MAX -> switch (type) {
+                case INT -> {
+                    IntFn f = compiler.compileInt(a.arg());
+                    yield min ? (at, row) -> acc[at + o] = Math.min(acc[at + o], f.eval(row))
+                            : (at, row) -> acc[at + o] = Math.max(acc[at + o], f.eval(row));
+                }
+                case BOOL -> {
+                    BoolFn f = compiler.compileBool(a.arg());
+                    yield min ? (at, row) -> acc[at + o] = Math.min(acc[at + o], f.eval(row) ? 1 : 0)
+                            : (at, row) -> acc[at + o] = Math.max(acc[at + o], f.eval(row) ? 1 : 0);
+                }
+                case STRING -> {
+                    StrFn f = compiler.compileStr(a.arg());
+                    yield (at, row) -> strs[at + o] = extreme(min, (String) strs[at + o], f.eval(row));
+                }
+            };
+        };
+    }
+
+    private static String extreme(boolean min, String cur, String v) {
+        if (cur == null) return v;
+        int c = v.compareTo(cur);
+        return (min ? c < 0 : c > 0) ? v : cur;
+    }
+
+    /** Adds the row to its group. */
+    void add(int[] row) {
+        rows++;
+        int g;
+        if (intKey != null) {
+            g = intGroup(intKey.eval(row));
+        } else if (keyFns.length == 0) {
+            g = 0;
+        } else if (keyFns.length == 1) {
+            g = group(keyFns[0].eval(row));
+        } else {
+            g = group(Arrays.asList(Operators.eval(keyFns, row)));
+        }
+        int at = g * width;
+        for (Update u : updates) u.add(at, row);
+    }
+
+    /** Adds the groups of another aggregate of the same query, in their order. */
+    void merge(HashAggregate other) {
+        rows += other.rows;
+        for (int h = 0; h < other.count; h++) {
+            int g;
+            if (intKey != null) {
+                g = intGroup(other.intKeys[h]);
+            } else if (keyFns.length == 0) {
+                g = 0;
+            } else {
+                Object[] k = other.keys.get(h);
+                g = group(k.length == 1 ? k[0] : Arrays.asList(k));
+            }
+            int at = g * width, from = h * width;
+            for (int i = 0; i < aggs.size(); i++) {
+                int o = offsets[i];
+                switch (aggs.get(i).fn()) {
+                    case COUNT, SUM -> acc[at + o] += other.acc[from + o];
+                    case AVG -> {
+                        acc[at + o] += other.acc[from + o];
+                        acc[at + o + 1] += other.acc[from + o + 1];
+                    }
+                    case MIN, MAX -> {
+                        boolean min = aggs.get(i).fn() == Agg.Fn.MIN;
+                        if (types[i] == Type.STRING) strs[at + o] = extreme(min, (String) strs[at + o], (String) other.strs[from + o]);
+                        else acc[at + o] = min ? Math.min(acc[at + o], other.acc[from + o]) : Math.max(acc[at + o], other.acc[from + o]);
+                    }
+                }
+            }
+        }
+    }
+
+    // Group of a primitive key, added if new; the table is kept at most half full.
+    private int intGroup(long k) {
+        int mask = slotKeys.length - 1;
+        long h = k * 0x9E3779B97F4A7C15L;
+        int s = (int) (h ^ (h >>> 32)) & mask;
+        while (slotGroups[s] != -1 && slotKeys[s] != k) s = (s + 1) & mask;
+        if (slotGroups[s] != -1) return slotGroups[s];
+        int g = newGroup();
+        if (g == intKeys.length) intKeys = Arrays.copyOf(intKeys, 2 * g);
+        intKeys[g] = k;
+        slotKeys[s] = k;
+        slotGroups[s] = g;
+        if (count * 2 > slotKeys.length) rehash();
+        return g;
+    }
+
+    private void rehash() {
+        long[] oldKeys = slotKeys;
+        int[] oldGroups = slotGroups;
+        slotKeys = new long[oldKeys.length * 2];
+        slotGroups = new int[oldKeys.length * 2];
+        Arrays.fill(slotGroups, -1);
+        int mask = slotKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGroups[i] == -1) continue;
+            long h = oldKeys[i] * 0x9E3779B97F4A7C15L;
+            int s = (int) (h ^ (h >>> 32)) & mask;
+            while (slotGroups[s] != -1) s = (s + 1) & mask;
+            slotKeys[s] = oldKeys[i];
+            slotGroups[s] = oldGroups[i];
+        }
+    }
+
+    // Group of one key value, or of a list of several, added if new.
+    private int group(Object key) {
+        Integer g = groups.get(key);
+        if (g != null) return g;
+        keys.add(key instanceof List<?> l ? l.toArray() : new Object[] {key});
+        int n = newGroup();
+        groups.put(key, n);
+        return n;
+    }
+
+    private int newGroup() {
+        int g = count++;
+        int at = g * width;
+        if (at + width > acc.length) {
+            acc = Arrays.copyOf(acc, Math.max(2 * acc.length, at + width));
+            if (strs != null) strs = Arrays.copyOf(strs, acc.length);
+        }
+        for (int i = 0; i < aggs.size(); i++) {
+            Agg.Fn fn = aggs.get(i).fn();
+            if (fn == Agg.Fn.MIN) acc[at + offsets[i]] = Long.MAX_VALUE;
+            else if (fn == Agg.Fn.MAX) acc[at + offsets[i]] = Long.MIN_VALUE;
+        }
+        return g;
+    }
+
+    /** Rough heap footprint in bytes, a boxed group key and its map entry taken as 64. */
+    long bytes() {
+        long b = 8L * acc.length + (strs != null ? 8L * strs.length : 0);
+        return intKeys != null ? b + 8L * intKeys.length + 12L * slotKeys.length : b + 64L * count;
+    }
+
+    /**
+     * The output rows: the select list over each group, ordered by ORDER BY
+     * (ties keeping first-seen order) through a bounded heap under a LIMIT
+     * and a full sort otherwise, and cut to the limit.
+     */
+    List<Object[]> result() {
+        int n = count;
+        GroupFn[] project = new GroupFn[q.select().size()];
+        for (int j = 0; j < project.length; j++) project[j] = compile(((SelectExpr) q.select().get(j)).expr());
+        int limit = q.limit() == null ? n : Math.min(n, q.limit());
+        int[] order = new int[limit];
+        List<OrderSpec> by = q.orderBy();
+        if (by.isEmpty()) {
+            for (int i = 0; i < limit; i++) order[i] = i;
+        } else {
+            int w = by.size();
+            boolean[] asc = new boolean[w];
+            GroupFn[] sortKeys = new GroupFn[w];
+            for (int i = 0; i < w; i++) {
+                asc[i] = by.get(i).asc();
+                sortKeys[i] = compile(by.get(i).expr());
+            }
+            // each key row carries its group after the sort keys
+            Comparator<Object[]> keyOrder = TopN.keyOrder(asc);
+            List<Object[]> sorted;
+            if (q.limit() != null) {
+                TopN<Object[]> top = new TopN<>(limit, keyOrder);
+                for (int g = 0; g < n; g++) {
+                    Object[] k = sortKey(sortKeys, g);
+                    if (top.accepts(k)) top.add(k, k);
+                }
+                sorted = top.result();
+            } else {
+                Object[][] k = new Object[n][];
+                for (int g = 0; g < n; g++) k[g] = sortKey(sortKeys, g);
+                Arrays.sort(k, keyOrder);
+                sorted = Arrays.asList(k);
+            }
+            for (int i = 0; i < limit; i++) order[i] = (Integer) sorted.get(i)[w];
+        }
+        List<Object[]> out = new ArrayList<>(limit);
+        for (int g : order) {
+            Object[] vals = new Object[project.length];
+            for (int j = 0; j < vals.length; j++) vals[j] = project[j].eval(g);
+            out.add(vals);
+        }
+        return out;
+    }
+
+    private static Object[] sortKey(GroupFn[] sortKeys, int g) {
+        Object[] k = new Object[sortKeys.length + 1];
+        for (int i = 0; i < sortKeys.length; i++) k[i] = sortKeys[i].eval(g);
+        k[sortKeys.length] = g;
+        return k;
+    }
+
+    // An output expression over a group: a group key, an aggregate, or
+    // arithmetic and comparisons over those and literals, INT arithmetic
+    // turning LONG when either side is a COUNT or SUM.
+    private GroupFn compile(Expr e) {
+        for (int i = 0; i < groupBy.size(); i++) {
+            if (TypeChecker.same(e, groupBy.get(i))) {
+                int k = i;
+                if (intKey == null) return g -> keys.get(g)[k];
+                return boolKey ? g -> intKeys[g] != 0 : g -> (int) intKeys[g];
+            }
+        }
+        if (e instanceof Agg a) {
+            for (int i = 0; i < aggs.size(); i++) {
+                if (TypeChecker.same(a, aggs.get(i))) {
+                    int k = i;
+                    return g -> value(g, k);
+                }
+            }
+        } else if (e instanceof Lit lit) {
+            Object v = lit.value();
+            return g -> v;
+        } else if (e instanceof Bin b) {
+            GroupFn l = compile(b.left()), r = compile(b.right());
+            Bin.Op op = b.op();
+            return g -> {
+                Object x = l.eval(g), y = r.eval(g);
+                return x == null || y == null ? null : apply(op, x, y);
+            };
+        } else if (e instanceof Un u) {
+            GroupFn f = compile(u.expr());
+            return g -> {
+                Object v = f.eval(g);
+                if (v == null) return null;
+                if (u.op() == Un.Op.NOT) return !(Boolean) v;
+                return v instanceof Long x ? (Object) (-x) : (Object) (-(Integer) v);
+            };
+        }
+        throw new RuntimeException("Cannot compute " + PlanNode.sql(e) + " from the groups");
+    }
+
+    private Object value(int g, int i) {
+        int at = g * width + offsets[i];
+        Agg.Fn fn = aggs.get(i).fn();
+        if (rows == 0 && fn != Agg.Fn.COUNT && fn != Agg.Fn.SUM) return null;
+        return switch (fn) {
+            case COUNT, SUM -> acc[at];
+            case AVG -> acc[at] / acc[at + 1];
+            case MIN, MAX -> switch (types[i]) {
+                case INT -> (int) acc[at];
+                case BOOL -> acc[at] != 0;
+                case STRING -> strs[at];
+            };
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object apply(Bin.Op op, Object l, Object r) {
+        return switch (op) {
+            case AND -> (Boolean) l && (Boolean) r;
+            case OR -> (Boolean) l || (Boolean) r;
+            case PLUS, MINUS, STAR, SLASH -> {
+                if (l instanceof Integer x && r instanceof Integer y) {
+                    yield switch (op) {
+                        case PLUS -> x + y;
+                        case MINUS -> x - y;
+                        case STAR -> x * y;
+                        default -> x / y;
+                    };
+                }
+                long x = ((Number) l).longValue(), y = ((Number) r).longValue();
+                yield switch (op) {
+                    case PLUS -> x + y;
+                    case MINUS -> x - y;
+                    case STAR -> x * y;
+                    default -> x / y;
+                };
+            }
+            default -> {
+                int c = l instanceof Number x && r instanceof Number y ? Long.compare(x.longValue(), y.longValue())
+                        : ((Comparable<Object>) l).compareTo(r);
+                yield switch (op) {
+                    case EQ -> c == 0;
+                    case NEQ -> c != 0;
+                    case LT -> c < 0;
+                    case LTE -> c <= 0;
+                    case GT -> c > 0;
+                    default -> c >= 0;
+                };
+            }
+        };
+    }
+}
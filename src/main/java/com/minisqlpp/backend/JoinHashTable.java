@@ -0,0 +1,79 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Type;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Build side of a hash join over one column of a {@link ColumnTable}. Rows
+ * sharing a key are chained through {@code next}; INT and BOOL keys live in
+ * an open-addressing table of primitive longs, STRING keys in a HashMap keyed
+ * by the dictionary value.
+ */
+final class JoinHashTable {
+    private final int[] next;
+    private final boolean intKeys;
+    private long[] keys;
+    private int[] heads;
+    private int mask;
+    private Map<String,Integer> strHeads;
+
+    JoinHashTable(ColumnTable build, int col) {
+        int rows = build.rows();
+        int[] data = build.column(col);
+        this.next = new int[rows];
+        this.intKeys = build.type(col) != Type.STRING;
+        if (intKeys) {
+            int cap = Integer.highestOneBit(Math.max(16, rows * 2) - 1) << 1;
+            keys = new long[cap];
+            heads = new int[cap];
+            Arrays.fill(heads, -1);
+            mask = cap - 1;
+        } else {
+            strHeads = new HashMap<>();
+        }
+        Dictionary dict = build.dictionary(col);
+        // insert back to front so each chain keeps file order
+        for (int i = rows - 1; i >= 0; i--) {
+            if (intKeys) {
+                int s = find(data[i]);
+                next[i] = heads[s];
+                keys[s] = data[i];
+                heads[s] = i;
+            } else {
+                Integer head = strHeads.put(dict.value(data[i]), i);
+                next[i] = head == null ? -1 : head;
+            }
+        }
+    }
+
+    boolean intKeys() { return intKeys; }
+
+    /** Rough heap footprint in bytes, a STRING key entry taken as 64. */
+    long bytes() {
+        return 4L * next.length + (intKeys ? 12L * keys.length : 64L * strHeads.size());
+    }
+
+    /** First build row with this INT or BOOL key, or -1. */
+    int first(int key) {
+        return heads[find(key)];
+    }
+
+    /** First build row with this STRING key, or -1. */
+    int first(String key) {
+        Integer head = strHeads.get(key);
+        return head == null ? -1 : head;
+    }
+
+    int next(int i) { return next[i]; }
+
+    // Slot holding key k, or the empty slot where it belongs.
+    private int find(long k) {
+        long h = k * 0x9E3779B97F4A7C15L;
+        int s = (int) (h ^ (h >>> 32)) & mask;
+        while (heads[s] != -1 && keys[s] != k) s = (s + 1) & mask;
+        return s;
+    }
+}
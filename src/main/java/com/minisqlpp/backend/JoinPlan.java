@@ -0,0 +1,176 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Bin;
+import com.minisqlpp.ast.Col;
+import com.minisqlpp.ast.Expr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Join order for a FROM list. One table is the driver that gets streamed;
+ * every other table becomes a build side, hashed on an equality predicate
+ * that connects it to the tables joined before it, or cross joined when no
+ * such predicate exists. With {@link Estimates} for every table the order,
+ * and with it which tables are built, is the one of least estimated cost
+ * over every left-deep order; without them the largest file drives and the
+ * smallest connected file is joined next.
+ */
+final class JoinPlan {
+    /** One table joined onto the row built so far; probe and build are null for a cross join. */
+    record Step(int slot, Col probe, Col build) {
+        boolean hashed() { return build != null; }
+    }
+
+    /** Rows and distinct values a cost-based order is chosen by. */
+    interface Estimates {
+        /** Rows of the table in a slot once its scan filter has run. */
+        double rows(int slot);
+
+        /** Distinct values of a column of the table in a slot. */
+        double distinct(int slot, String column);
+    }
+
+    // Past this many tables the orders are too many to cost them all.
+    private static final int MAX_COSTED = 10;
+
+    private final int driver;
+    private final List<Step> steps;
+    private final Expr residual;
+    private final double[] estimated;
+
+    private JoinPlan(int driver, List<Step> steps, Expr residual, double[] estimated) {
+        this.driver = driver;
+        this.steps = steps;
+        this.residual = residual;
+        this.estimated = estimated;
+    }
+
+    int driver() { return driver; }
+    List<Step> steps() { return steps; }
+    /** The join predicates left once the hash keys have been taken out; null if nothing. */
+    Expr residual() { return residual; }
+    /** Estimated rows out of the driver's scan, then out of each step; null when planned by file size. */
+    double[] estimated() { return estimated; }
+
+    static JoinPlan of(List<String> aliases, long[] sizes, List<Expr> predicates, Estimates estimates) {
+        if (estimates == null || aliases.size() > MAX_COSTED) return of(aliases, sizes, predicates);
+        return costed(aliases, predicates, estimates);
+    }
+
+    // Costs every left-deep order, sharing the work for each set of tables
+    // joined so far: a step costs the rows it puts out plus the rows of the
+    // table it builds, the driver's own scan being the same in every order.
+    // An equality join keeps 1 / max(distinct values of either side) of the
+    // cross product; each step hashes on its most selective equality.
+    private static JoinPlan costed(List<String> aliases, List<Expr> predicates, Estimates est) {
+        int n = aliases.size(), sets = 1 << n;
+        double[] cost = new double[sets], rows = new double[sets];
+        int[] prev = new int[sets], last = new int[sets];
+        Expr[] key = new Expr[sets];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < n; i++) {
+            cost[1 << i] = 0;
+            rows[1 << i] = est.rows(i);
+            last[1 << i] = i;
+        }
+        for (int set = 1; set < sets; set++) {
+            if (cost[set] == Double.POSITIVE_INFINITY) continue;
+            for (int j = 0; j < n; j++) {
+                if ((set & 1 << j) != 0) continue;
+                double out = rows[set] * est.rows(j), best = 0;
+                Expr hash = null;
+                for (Expr c : predicates) {
+                    if (!(c instanceof Bin b && b.op() == Bin.Op.EQ && b.left() instanceof Col l && b.right() instanceof Col r)) continue;
+                    int ls = aliases.indexOf(l.table().toLowerCase()), rs = aliases.indexOf(r.table().toLowerCase());
+                    int other = ls == j ? rs : rs == j ? ls : -1;
+                    if (other < 0 || other == j || (set & 1 << other) == 0) continue;
+                    Col mine = ls == j ? l : r, theirs = ls == j ? r : l;
+                    double d = Math.max(est.distinct(j, mine.name()), Math.min(est.distinct(other, theirs.name()), rows[set]));
+                    out /= d;
+                    if (d > best) {
+                        best = d;
+                        hash = c;
+                    }
+                }
+                int next = set | 1 << j;
+                double c = cost[set] + out + est.rows(j);
+                if (c < cost[next]) {
+                    cost[next] = c;
+                    rows[next] = Math.max(1, out);
+                    prev[next] = set;
+                    last[next] = j;
+                    key[next] = hash;
+                }
+            }
+        }
+        List<Step> steps = new ArrayList<>();
+        List<Expr> conjuncts = new ArrayList<>(predicates);
+        double[] estimated = new double[n];
+        int set = sets - 1;
+        for (int k = n - 1; k > 0; k--, set = prev[set]) {
+            int j = last[set];
+            estimated[k] = rows[set];
+            Expr c = key[set];
+            if (c == null) {
+                steps.add(0, new Step(j, null, null));
+                continue;
+            }
+            Bin b = (Bin) c;
+            Col l = (Col) b.left(), r = (Col) b.right();
+            boolean leftBuilds = aliases.indexOf(l.table().toLowerCase()) == j;
+            steps.add(0, new Step(j, leftBuilds ? r : l, leftBuilds ? l : r));
+            conjuncts.removeIf(e -> e == c);
+        }
+        estimated[0] = rows[set];
+        return new JoinPlan(last[set], steps, PredicatePushdown.and(conjuncts), estimated);
+    }
+
+    static JoinPlan of(List<String> aliases, long[] sizes, List<Expr> predicates) {
+        int n = aliases.size();
+        List<Expr> conjuncts = new ArrayList<>(predicates);
+        int driver = 0;
+        for (int i = 1; i < n; i++) if (sizes[i] > sizes[driver]) driver = i;
+        boolean[] joined = new boolean[n];
+        joined[driver] = true;
+        List<Step> steps = new ArrayList<>();
+        for (int k = 1; k < n; k++) {
+            Step next = null;
+            for (int i = 0; i < n; i++) {
+                if (joined[i]) continue;
+                Expr edge = edge(conjuncts, aliases, joined, i);
+                if (edge == null) continue;
+                if (next == null || sizes[i] < sizes[next.slot()]) {
+                    Bin b = (Bin) edge;
+                    Col l = (Col) b.left(), r = (Col) b.right();
+                    boolean leftBuilds = aliases.indexOf(l.table().toLowerCase()) == i;
+                    next = new Step(i, leftBuilds ? r : l, leftBuilds ? l : r);
+                }
+            }
+            if (next == null) {
+                for (int i = 0; i < n; i++) {
+                    if (!joined[i] && (next == null || sizes[i] < sizes[next.slot()])) next = new Step(i, null, null);
+                }
+            } else {
+                Step s = next;
+                conjuncts.removeIf(c -> c instanceof Bin b && (b.left() == s.build() || b.right() == s.build()));
+            }
+            joined[next.slot()] = true;
+            steps.add(next);
+        }
+        return new JoinPlan(driver, steps, PredicatePushdown.and(conjuncts), null);
+    }
+
+    // An equality between a column of table i and a column of an already joined table.
+    private static Expr edge(List<Expr> conjuncts, List<String> aliases, boolean[] joined, int i) {
+        for (Expr c : conjuncts) {
+            if (c instanceof Bin b && b.op() == Bin.Op.EQ && b.left() instanceof Col l && b.right() instanceof Col r) {
+                int ls = aliases.indexOf(l.table().toLowerCase());
+                int rs = aliases.indexOf(r.table().toLowerCase());
+                if ((ls == i && rs != i && joined[rs]) || (rs == i && ls != i && joined[ls])) return c;
+            }
+        }
+        return null;
+    }
+}
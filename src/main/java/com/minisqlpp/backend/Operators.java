@@ -0,0 +1,315 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.backend.ExprCompiler.BoolFn;
+import com.minisqlpp.backend.ExprCompiler.CellFn;
+import com.minisqlpp.backend.ExprCompiler.IntFn;
+import com.minisqlpp.backend.ExprCompiler.ValueFn;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Pull-based operators for the row engine. {@link Rows} operators share one
+ * row (a row index per FROM slot) and each call to {@code next()} moves it
+ * to the next tuple; {@link Values} operators hand out evaluated output rows.
+ * Nothing is read until the consumer asks, so an operator that stops asking
+ * ({@link Limit}) stops the scan beneath it.
+ */
+final class Operators {
+    private Operators() {}
+
+    /** Moves the shared row to the next tuple, returning false when exhausted. */
+    interface Rows { boolean next() throws IOException; }
+
+    /** The next output row, or null when exhausted. */
+    interface Values { Object[] next() throws IOException; }
+
+    /** Walks a chunk source, setting the slot to each row of the current chunk. */
+    static final class Scan implements Rows {
+        private final ChunkSource in;
+        private final ColumnTable chunk;
+        private final int[] row;
+        private final int slot;
+        private int r = -1;
+
+        Scan(ChunkSource in, int[] row, int slot) {
+            this.in = in;
+            this.chunk = in.chunk();
+            this.row = row;
+            this.slot = slot;
+        }
+
+        public boolean next() throws IOException {
+            if (++r >= chunk.rows()) {
+                if (!in.fill()) return false;
+                r = 0;
+            }
+            row[slot] = r;
+            return true;
+        }
+    }
+
+    static final class Filter implements Rows {
+        private final Rows child;
+        private final int[] row;
+        private final BoolFn pred;
+
+        Filter(Rows child, int[] row, BoolFn pred) {
+            this.child = child;
+            this.row = row;
+            this.pred = pred;
+        }
+
+        public boolean next() throws IOException {
+            while (child.next()) if (pred.eval(row)) return true;
+            return false;
+        }
+    }
+
+    /** Extends each child tuple with every build row sharing its key, in build order. */
+    static final class HashJoin implements Rows {
+        private final Rows child;
+        private final int[] row;
+        private final int slot;
+        private final JoinHashTable hashed;
+        private final int probeSlot;
+        private final int[] probeCol;
+        private final Dictionary probeDict;
+        private int match = -1;
+
+        HashJoin(Rows child, int[] row, int slot, JoinHashTable hashed, int probeSlot, int[] probeCol, Dictionary probeDict) {
+            this.child = child;
+            this.row = row;
+            this.slot = slot;
+            this.hashed = hashed;
+            this.probeSlot = probeSlot;
+            this.probeCol = probeCol;
+            this.probeDict = probeDict;
+        }
+
+        public boolean next() throws IOException {
+            while (match < 0) {
+                if (!child.next()) return false;
+                int key = probeCol[row[probeSlot]];
+                match = hashed.intKeys() ? hashed.first(key) : hashed.first(probeDict.value(key));
+            }
+            row[slot] = match;
+            match = hashed.next(match);
+            return true;
+        }
+    }
+
+    /**
+     * Extends each child tuple with the rows an index finds for its key,
+     * read from the CSV by offset into the lookup's chunk, in file order.
+     * The filter, if any, is the joined table's scan filter.
+     */
+    static final class IndexJoin implements Rows {
+        private final Rows child;
+        private final int[] row;
+        private final int slot;
+        private final ColumnIndex index;
+        private final CsvLoader lookup;
+        private final ColumnTable chunk;
+        private final BoolFn filter;
+        private final int probeSlot;
+        private final int[] probeCol;
+        private final Dictionary probeDict;
+        private int r = -1;
+
+        IndexJoin(Rows child, int[] row, int slot, ColumnIndex index, CsvLoader lookup, BoolFn filter,
+                  int probeSlot, int[] probeCol, Dictionary probeDict) {
+            this.child = child;
+            this.row = row;
+            this.slot = slot;
+            this.index = index;
+            this.lookup = lookup;
+            this.chunk = lookup.chunk();
+            this.filter = filter;
+            this.probeSlot = probeSlot;
+            this.probeCol = probeCol;
+            this.probeDict = probeDict;
+            lookup.at(new long[0]);
+        }
+
+        public boolean next() throws IOException {
+            while (true) {
+                if (++r < chunk.rows()) {
+                    row[slot] = r;
+                    if (filter == null || filter.eval(row)) return true;
+                } else if (lookup.fill()) {
+                    r = -1;
+                } else {
+                    if (!child.next()) return false;
+                    int key = probeCol[row[probeSlot]];
+                    lookup.at(index.offsets(probeDict == null ? (Object) key : probeDict.value(key)));
+                    r = -1;
+                }
+            }
+        }
+    }
+
+    /** Extends each child tuple with every row of a held table. */
+    static final class NestedLoop implements Rows {
+        private final Rows child;
+        private final int[] row;
+        private final int slot;
+        private final ColumnTable table;
+        private int i;
+        private boolean started;
+
+        NestedLoop(Rows child, int[] row, int slot, ColumnTable table) {
+            this.child = child;
+            this.row = row;
+            this.slot = slot;
+            this.table = table;
+        }
+
+        public boolean next() throws IOException {
+            while (!started || i >= table.rows()) {
+                if (!child.next()) return false;
+                started = true;
+                i = 0;
+            }
+            row[slot] = i++;
+            return true;
+        }
+    }
+
+    /** Writes each child tuple's output cells to the sink as it passes, unboxed. */
+    static final class Project implements Rows {
+        private final Rows child;
+        private final int[] row;
+        private final CellFn[] cells;
+        private final ResultSink sink;
+
+        Project(Rows child, int[] row, CellFn[] cells, ResultSink sink) {
+            this.child = child;
+            this.row = row;
+            this.cells = cells;
+            this.sink = sink;
+        }
+
+        public boolean next() throws IOException {
+            if (!child.next()) return false;
+            for (CellFn c : cells) c.write(row, sink);
+            sink.endRow();
+            sink.drainIfFull();
+            return true;
+        }
+    }
+
+    /** Passes on the first rows, then stops pulling from the child. */
+    static final class Limit implements Rows {
+        private final Rows child;
+        private int remaining;
+
+        Limit(Rows child, int limit) {
+            this.child = child;
+            this.remaining = limit;
+        }
+
+        public boolean next() throws IOException {
+            if (remaining <= 0) return false;
+            remaining--;
+            return child.next();
+        }
+    }
+
+    /**
+     * ORDER BY with LIMIT through a bounded heap. Keys are evaluated first and
+     * a row's values only when it makes the cut. A lone INT key, given as
+     * intKey, is compared unboxed, so a row that misses allocates nothing.
+     */
+    static final class Top implements Values {
+        private final Rows child;
+        private final int[] row;
+        private final ValueFn[] keys;
+        private final IntFn intKey;
+        private final boolean asc;
+        private final ValueFn[] values;
+        private final TopN<Object[]> top;
+        private Iterator<Object[]> result;
+
+        Top(Rows child, int[] row, ValueFn[] keys, boolean[] asc, IntFn intKey, ValueFn[] values, int limit) {
+            this.child = child;
+            this.row = row;
+            this.keys = keys;
+            this.intKey = intKey;
+            this.asc = asc[0];
+            this.values = values;
+            this.top = new TopN<>(limit, TopN.keyOrder(asc));
+        }
+
+        public Object[] next() throws IOException {
+            if (result == null) {
+                while (child.next()) {
+                    if (intKey != null && !top.accepts(intKey.eval(row), asc)) continue;
+                    Object[] k = eval(keys, row);
+                    if (intKey != null || top.accepts(k)) top.add(k, eval(values, row));
+                }
+                result = top.result().iterator();
+            }
+            return result.hasNext() ? result.next() : null;
+        }
+    }
+
+    /** ORDER BY without LIMIT: every row goes through an {@link ExternalSort}. */
+    static final class Sort implements Values {
+        private final Rows child;
+        private final int[] row;
+        private final ValueFn[] keys;
+        private final ValueFn[] values;
+        private final ExternalSort sorter;
+        private Values sorted;
+
+        Sort(Rows child, int[] row, ValueFn[] keys, ValueFn[] values, Comparator<Object[]> keyOrder, long budget) {
+            this.child = child;
+            this.row = row;
+            this.keys = keys;
+            this.values = values;
+            this.sorter = new ExternalSort(keyOrder, budget);
+        }
+
+        public Object[] next() throws IOException {
+            if (sorted == null) {
+                while (child.next()) sorter.add(eval(keys, row), eval(values, row));
+                sorted = sorter.sorted();
+            }
+            Object[] v = sorted.next();
+            if (v == null) sorter.close();
+            return v;
+        }
+
+        ExternalSort sorter() { return sorter; }
+    }
+
+    /** Feeds every child tuple to a hash aggregate, then hands out its groups. */
+    static final class Aggregate implements Values {
+        private final Rows child;
+        private final int[] row;
+        private final HashAggregate aggregate;
+        private Iterator<Object[]> groups;
+
+        Aggregate(Rows child, int[] row, HashAggregate aggregate) {
+            this.child = child;
+            this.row = row;
+            this.aggregate = aggregate;
+        }
+
+        public Object[] next() throws IOException {
+            if (groups == null) {
+                while (child.next()) aggregate.add(row);
+                groups = aggregate.result().iterator();
+            }
+            return groups.hasNext() ? groups.next() : null;
+        }
+    }
+
+    static Object[] eval(ValueFn[] fns, int[] row) {
+        Object[] vals = new Object[fns.length];
+        for (int i = 0; i < vals.length; i++) vals[i] = fns[i].eval(row);
+        return vals;
+    }
+}
@@ -8,11 +8,16 @@ import java.util.stream.Collectors;
 public class OracleEmitter {
     public String toSql(Query q) {
         StringBuilder sb = new StringBuilder();
+        if (q.explain() != Query.Explain.NONE) sb.append("EXPLAIN PLAN FOR ");
         sb.append("SELECT ");
         sb.append(q.select().stream().map(this::selectToSql).collect(Collectors.joining(", ")));
         sb.append(" FROM ");
         sb.append(q.from().stream().map(this::tableToSql).collect(Collectors.joining(", ")));
-        q.where().ifPresent(w -> sb.append(" WHERE ").append(exprToSql(w)));
+        q.where().ifPresent(w -> sb.append(" WHERE ").append(Sql.of(w)));
+        if (!q.groupBy().isEmpty()) {
+            sb.append(" GROUP BY ");
+            sb.append(q.groupBy().stream().map(Sql::of).collect(Collectors.joining(", ")));
+        }
         if (!q.orderBy().isEmpty()) {
             sb.append(" ORDER BY ");
             sb.append(q.orderBy().stream().map(this::orderToSql).collect(Collectors.joining(", ")));
@@ -26,7 +31,7 @@ public class OracleEmitter {
     private String selectToSql(SelectItem si) {
         if (si instanceof SelectAll) return "*";
         SelectExpr se = (SelectExpr) si;
-        String e = exprToSql(se.expr());
+        String e = Sql.of(se.expr());
         return se.alias() != null ? e + " AS " + se.alias() : e;
     }
 
@@ -35,32 +40,6 @@ public class OracleEmitter {
     }
 
     private String orderToSql(OrderSpec os) {
-        return exprToSql(os.expr()) + (os.asc() ? " ASC" : " DESC");
-    }
-
-    private String exprToSql(Expr e) {
-        if (e instanceof Lit lit) {
-            if (lit.value() instanceof String s) {
-                return "'" + s.replace("'", "''") + "'";
-            } else {
-                return lit.value().toString();
-            }
-        } else if (e instanceof Col c) {
-            return (c.table() != null ? c.table() + "." : "") + c.name();
-        } else if (e instanceof Bin b) {
-            return "(" + exprToSql(b.left()) + " " + binOp(b.op()) + " " + exprToSql(b.right()) + ")";
-        } else if (e instanceof Un u) {
-            return u.op() == Un.Op.NOT ? "NOT " + exprToSql(u.expr()) : "-" + exprToSql(u.expr());
-        } else {
-            throw new RuntimeException("Unknown expr");
-        }
-    }
-
-    private String binOp(Bin.Op op) {
-        return switch (op) {
-            case PLUS -> "+"; case MINUS -> "-"; case STAR -> "*"; case SLASH -> "/";
-            case EQ -> "="; case NEQ -> "<>"; case LT -> "<"; case LTE -> "<=";
-            case GT -> ">"; case GTE -> ">="; case AND -> "AND"; case OR -> "OR";
-        };
+        return Sql.of(os.expr()) + (os.asc() ? " ASC" : " DESC");
     }
 }
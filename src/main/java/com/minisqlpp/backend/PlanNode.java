@@ -0,0 +1,138 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Expr;
+import com.minisqlpp.ast.Sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One operator of a row-engine plan as EXPLAIN prints it: a label, detail
+ * lines, the operators it pulls from and the ones that must finish before it
+ * starts (a join's build side). Under EXPLAIN ANALYZE the operator is wrapped
+ * by {@link #rows} or {@link #values}, which count what it hands out and the
+ * time spent in it, inputs included; pipelines running in parallel add to
+ * the same counters, so their times are summed over threads. Bytes read and
+ * memory are filled in once the query is done.
+ */
+final class PlanNode {
+    final String label;
+    final List<String> details = new ArrayList<>();
+    final List<PlanNode> inputs = new ArrayList<>();
+    final List<PlanNode> builds = new ArrayList<>();
+    final LongAdder rows = new LongAdder();
+    final LongAdder nanos = new LongAdder();
+    boolean measured;
+    long bytesRead;
+    long memory;
+
+    PlanNode(String label) {
+        this.label = label;
+    }
+
+    static String sql(Expr e) {
+        return Sql.of(e);
+    }
+
+    PlanNode detail(String line) {
+        details.add(line);
+        return this;
+    }
+
+    PlanNode input(PlanNode child) {
+        inputs.add(child);
+        return this;
+    }
+
+    PlanNode build(PlanNode child) {
+        builds.add(child);
+        return this;
+    }
+
+    Operators.Rows rows(Operators.Rows child) {
+        measured = true;
+        return () -> {
+            long start = System.nanoTime();
+            boolean more = child.next();
+            nanos.add(System.nanoTime() - start);
+            if (more) rows.increment();
+            return more;
+        };
+    }
+
+    Operators.Values values(Operators.Values child) {
+        measured = true;
+        return () -> {
+            long start = System.nanoTime();
+            Object[] v = child.next();
+            nanos.add(System.nanoTime() - start);
+            if (v != null) rows.increment();
+            return v;
+        };
+    }
+
+    /** Records work timed from outside, such as building a hash table. */
+    void time(long startNanos, long count) {
+        measured = true;
+        nanos.add(System.nanoTime() - startNanos);
+        rows.add(count);
+    }
+
+    /** Memory of this operator and everything beneath it. */
+    long totalMemory() {
+        long total = memory;
+        for (PlanNode c : inputs) total += c.totalMemory();
+        for (PlanNode c : builds) total += c.totalMemory();
+        return total;
+    }
+
+    String print(boolean analyze) {
+        StringBuilder out = new StringBuilder();
+        print(out, "", "", analyze);
+        return out.toString();
+    }
+
+    private void print(StringBuilder out, String indent, String arrow, boolean analyze) {
+        out.append(indent).append(arrow).append(label);
+        if (analyze) stats(out);
+        out.append('\n');
+        String inner = indent + " ".repeat(arrow.length());
+        for (String d : details) out.append(inner).append("   ").append(d).append('\n');
+        for (PlanNode c : builds) c.print(out, inner, "build -> ", analyze);
+        for (PlanNode c : inputs) c.print(out, inner, "-> ", analyze);
+    }
+
+    private void stats(StringBuilder out) {
+        if (!measured) {
+            out.append("  (not measured)");
+            return;
+        }
+        long in = 0, below = 0;
+        boolean fed = !inputs.isEmpty();
+        for (PlanNode c : inputs) {
+            in += c.rows.sum();
+            below += c.nanos.sum();
+            fed &= c.measured;
+        }
+        long total = nanos.sum();
+        out.append("  (");
+        if (fed) out.append("rows in=").append(in).append(" out=").append(rows.sum());
+        else out.append("rows=").append(rows.sum());
+        out.append(" time=").append(millis(total)).append(" ms");
+        if (fed) out.append(" self=").append(millis(Math.max(0, total - below))).append(" ms");
+        if (bytesRead > 0) out.append(" read=").append(size(bytesRead));
+        if (memory > 0) out.append(" memory~").append(size(memory));
+        out.append(')');
+    }
+
+    static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    static String size(long bytes) {
+        if (bytes < 1 << 10) return bytes + " B";
+        if (bytes < 1 << 20) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
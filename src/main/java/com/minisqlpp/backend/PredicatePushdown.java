@@ -0,0 +1,124 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Bin;
+import com.minisqlpp.ast.Col;
+import com.minisqlpp.ast.Expr;
+import com.minisqlpp.ast.Lit;
+import com.minisqlpp.ast.Un;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits WHERE into its AND-conjuncts and moves every conjunct that touches a
+ * single table into that table's scan, so rows are dropped while the file is
+ * read instead of after the join. Relies on the aliases TypeChecker stored on
+ * each Col.
+ */
+final class PredicatePushdown {
+    private final Expr[] scanFilters;
+    private final List<Expr> remaining;
+
+    private PredicatePushdown(Expr[] scanFilters, List<Expr> remaining) {
+        this.scanFilters = scanFilters;
+        this.remaining = remaining;
+    }
+
+    /** Filter to apply while scanning the table in the given slot, or null. */
+    Expr scanFilter(int slot) { return scanFilters[slot]; }
+
+    /** Conjuncts that reference no table or more than one. */
+    List<Expr> remaining() { return remaining; }
+
+    /** A conjunct comparing a column with a literal, the column on the left. */
+    record Comparison(Col col, Bin.Op op, Object value) {}
+
+    /**
+     * The conjunct as a column/literal comparison (EQ, LT, LTE, GT or GTE),
+     * or null. A literal on the left is swapped to the right, a negated INT
+     * literal is folded, and a bare BOOL column reads as col = true, NOT col
+     * as col = false.
+     */
+    static Comparison comparison(Expr c) {
+        if (c instanceof Col col) return new Comparison(col, Bin.Op.EQ, true);
+        if (c instanceof Un u && u.op() == Un.Op.NOT && u.expr() instanceof Col col) return new Comparison(col, Bin.Op.EQ, false);
+        if (!(c instanceof Bin b)) return null;
+        Bin.Op op = switch (b.op()) {
+            case EQ, LT, LTE, GT, GTE -> b.op();
+            default -> null;
+        };
+        if (op == null) return null;
+        if (b.left() instanceof Col col && literal(b.right()) != null) return new Comparison(col, op, literal(b.right()));
+        if (b.right() instanceof Col col && literal(b.left()) != null) {
+            Bin.Op flipped = switch (op) {
+                case LT -> Bin.Op.GT;
+                case LTE -> Bin.Op.GTE;
+                case GT -> Bin.Op.LT;
+                case GTE -> Bin.Op.LTE;
+                default -> op;
+            };
+            return new Comparison(col, flipped, literal(b.left()));
+        }
+        return null;
+    }
+
+    private static Object literal(Expr e) {
+        if (e instanceof Lit l) return l.value();
+        if (e instanceof Un u && u.op() == Un.Op.NEG && u.expr() instanceof Lit l && l.value() instanceof Integer i) return -i;
+        return null;
+    }
+
+    static PredicatePushdown of(List<String> aliases, Expr where) {
+        List<List<Expr>> pushed = new ArrayList<>();
+        for (int i = 0; i < aliases.size(); i++) pushed.add(new ArrayList<>());
+        List<Expr> remaining = new ArrayList<>();
+        for (Expr c : conjuncts(where)) {
+            Set<String> refs = new HashSet<>();
+            tables(c, refs);
+            if (refs.size() == 1) {
+                pushed.get(aliases.indexOf(refs.iterator().next())).add(c);
+            } else {
+                remaining.add(c);
+            }
+        }
+        Expr[] filters = new Expr[aliases.size()];
+        for (int i = 0; i < filters.length; i++) filters[i] = and(pushed.get(i));
+        return new PredicatePushdown(filters, remaining);
+    }
+
+    static List<Expr> conjuncts(Expr e) {
+        List<Expr> out = new ArrayList<>();
+        if (e != null) collect(e, out);
+        return out;
+    }
+
+    private static void collect(Expr e, List<Expr> out) {
+        if (e instanceof Bin b && b.op() == Bin.Op.AND) {
+            collect(b.left(), out);
+            collect(b.right(), out);
+        } else {
+            out.add(e);
+        }
+    }
+
+    static Expr and(List<Expr> conjuncts) {
+        Expr e = null;
+        for (Expr c : conjuncts) e = e == null ? c : new Bin(e, Bin.Op.AND, c);
+        return e;
+    }
+
+    static void tables(Expr e, Set<String> out) {
+        if (e instanceof Col c) {
+            out.add(c.table().toLowerCase());
+        } else if (e instanceof Bin b) {
+            tables(b.left(), out);
+            tables(b.right(), out);
+        } else if (e instanceof Un u) {
+            tables(u.expr(), out);
+        } else if (!(e instanceof Lit)) {
+            throw new RuntimeException("Unknown expr");
+        }
+    }
+}
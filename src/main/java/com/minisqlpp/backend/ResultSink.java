@@ -0,0 +1,303 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Query;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes result rows to a stream through one large buffer. Cells are encoded
+ * to UTF-8 straight into the buffer, ints digit by digit and dictionary
+ * strings from their stored bytes, so no String is built per cell and the
+ * stream is only touched when the buffer fills.
+ *
+ * <p>CSV quotes an empty field and one holding a comma, quote or line break,
+ * doubling its quotes (RFC 4180), so a row of one empty field is not a blank
+ * line. TSV backslash-escapes tabs, line breaks and
+ * backslashes. Both start with a header row. JSONL writes one object per
+ * row keyed by the column names.
+ */
+final class ResultSink implements Flushable {
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] EOL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final RunOptions.Format format;
+    private final byte[][] keys; // JSONL: '{' or ',' then the quoted name and ':'
+    private byte[] buf = new byte[1 << 16];
+    private int pos;
+    private int col;
+    private byte[] scratch = new byte[64];
+
+    ResultSink(OutputStream out, RunOptions.Format format, List<String> names) {
+        this.out = out;
+        this.format = format;
+        if (format == RunOptions.Format.JSONL) {
+            keys = new byte[names.size()][];
+            for (int j = 0; j < keys.length; j++) {
+                put(j == 0 ? '{' : ',');
+                text(names.get(j));
+                put(':');
+                keys[j] = Arrays.copyOf(buf, pos);
+                pos = 0;
+            }
+        } else {
+            keys = null;
+            for (String name : names) string(name);
+            endRow();
+        }
+    }
+
+    /** Header names of a checked query's result columns. */
+    static List<String> names(Query q) {
+        return q.output().stream().map(Query.Output::name).toList();
+    }
+
+    /**
+     * Writes a row the row engine had to hold before writing, to sort, group
+     * or pass between threads: Integer, Long (from an aggregate), Boolean or
+     * String cells, or null for an aggregate of no rows.
+     */
+    void row(Object[] vals) throws IOException {
+        for (Object v : vals) {
+            if (v == null) nullCell();
+            else if (v instanceof Integer i) intCell(i);
+            else if (v instanceof Long l) longCell(l);
+            else if (v instanceof Boolean b) boolCell(b);
+            else string((String) v);
+        }
+        endRow();
+        drainIfFull();
+    }
+
+    void intCell(int v) {
+        next(11);
+        if (v < 0) {
+            buf[pos++] = '-';
+            if (v == Integer.MIN_VALUE) {
+                ascii("2147483648");
+                return;
+            }
+            v = -v;
+        }
+        int end = pos + digits(v);
+        for (int i = end; i > pos; v /= 10) buf[--i] = (byte) ('0' + v % 10);
+        pos = end;
+    }
+
+    /** A COUNT or SUM, which may outgrow an INT. */
+    void longCell(long v) {
+        if (v == (int) v) {
+            intCell((int) v);
+            return;
+        }
+        next(20);
+        ascii(Long.toString(v));
+    }
+
+    void boolCell(boolean v) {
+        byte[] b = v ? TRUE : FALSE;
+        next(b.length);
+        System.arraycopy(b, 0, buf, pos, b.length);
+        pos += b.length;
+    }
+
+    /** An empty cell: unquoted in CSV, unlike an empty string, and null in JSONL. */
+    void nullCell() {
+        if (keys != null) {
+            next(4);
+            ascii("null");
+        } else {
+            next(0);
+        }
+    }
+
+    /** A STRING cell from its UTF-8 bytes. */
+    void stringCell(byte[] utf8) {
+        next(0);
+        bytes(utf8, 0, utf8.length);
+    }
+
+    /** Ends a row written cell by cell. */
+    void endRow() {
+        if (format == RunOptions.Format.JSONL) {
+            if (col == 0) put('{');
+            put('}');
+            put('\n');
+        } else {
+            reserve(EOL.length);
+            for (byte b : EOL) buf[pos++] = b;
+        }
+        col = 0;
+    }
+
+    /** Hands the buffer to the stream once it is half full; call between rows. */
+    void drainIfFull() throws IOException {
+        if (pos > buf.length >> 1) drain();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    // Starts a cell: the separator or JSON key, then room for len more bytes.
+    private void next(int len) {
+        if (keys != null) {
+            byte[] k = keys[col];
+            reserve(k.length + len);
+            System.arraycopy(k, 0, buf, pos, k.length);
+            pos += k.length;
+        } else {
+            reserve(1 + len);
+            if (col > 0) buf[pos++] = (byte) (format == RunOptions.Format.TSV ? '\t' : ',');
+        }
+        col++;
+    }
+
+    private void string(String s) {
+        next(0);
+        text(s);
+    }
+
+    // Encodes to UTF-8 in scratch, then escapes into the buffer.
+    private void text(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (scratch.length < n + 4) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                scratch[n++] = (byte) c;
+                continue;
+            }
+            if (Character.isHighSurrogate((char) c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, s.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+            if (c < 0x80) {
+                scratch[n++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[n++] = (byte) (0xC0 | c >> 6);
+                scratch[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (c < 0x10000) {
+                scratch[n++] = (byte) (0xE0 | c >> 12);
+                scratch[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                scratch[n++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                scratch[n++] = (byte) (0xF0 | c >> 18);
+                scratch[n++] = (byte) (0x80 | c >> 12 & 0x3F);
+                scratch[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                scratch[n++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        bytes(scratch, 0, n);
+    }
+
+    // Escapes per format. Every byte that needs escaping is ASCII, and UTF-8
+    // continuation bytes never are, so multi-byte characters pass untouched.
+    private void bytes(byte[] b, int off, int len) {
+        switch (format) {
+            case CSV -> {
+                boolean quote = len == 0;
+                for (int i = off; i < off + len && !quote; i++) {
+                    byte c = b[i];
+                    quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+                }
+                if (!quote) {
+                    copy(b, off, len);
+                    return;
+                }
+                put('"');
+                for (int i = off; i < off + len; i++) {
+                    if (b[i] == '"') put('"');
+                    put(b[i]);
+                }
+                put('"');
+            }
+            case TSV -> {
+                for (int i = off; i < off + len; i++) {
+                    byte c = b[i];
+                    switch (c) {
+                        case '\t' -> escape('t');
+                        case '\n' -> escape('n');
+                        case '\r' -> escape('r');
+                        case '\\' -> escape('\\');
+                        default -> put(c);
+                    }
+                }
+            }
+            case JSONL -> {
+                put('"');
+                for (int i = off; i < off + len; i++) {
+                    byte c = b[i];
+                    if (c == '"' || c == '\\') {
+                        escape(c);
+                    } else if (c >= 0 && c < 0x20) {
+                        switch (c) {
+                            case '\n' -> escape('n');
+                            case '\r' -> escape('r');
+                            case '\t' -> escape('t');
+                            default -> {
+                                escape('u');
+                                ascii("00");
+                                put(Character.forDigit(c >> 4, 16));
+                                put(Character.forDigit(c & 0xF, 16));
+                            }
+                        }
+                    } else {
+                        put(c);
+                    }
+                }
+                put('"');
+            }
+        }
+    }
+
+    private void escape(int c) {
+        put('\\');
+        put(c);
+    }
+
+    private void ascii(String s) {
+        reserve(s.length());
+        for (int i = 0; i < s.length(); i++) buf[pos++] = (byte) s.charAt(i);
+    }
+
+    private void copy(byte[] b, int off, int len) {
+        reserve(len);
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+    private void put(int c) {
+        if (pos == buf.length) reserve(1);
+        buf[pos++] = (byte) c;
+    }
+
+    // Grows the buffer rather than draining mid-row, so the stream only ever
+    // sees whole rows and cell writers need not throw.
+    private void reserve(int len) {
+        if (pos + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + len));
+    }
+
+    private static int digits(int v) {
+        int n = 1;
+        while (v >= 10) {
+            v /= 10;
+            n++;
+        }
+        return n;
+    }
+}
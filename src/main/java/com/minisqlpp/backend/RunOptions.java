@@ -0,0 +1,21 @@
+package com.minisqlpp.backend;
+
+/**
+ * Execution settings for a CSV query.
+ *
+ * @param threads    threads scanning the driver table
+ * @param sortBudget bytes of rows ORDER BY holds before spilling; 0 for a quarter of the heap
+ * @param cache      read tables through their columnar sidecar files, writing them when stale
+ * @param format     how result rows are written to standard output
+ */
+public record RunOptions(int threads, long sortBudget, boolean cache, Format format) {
+    public enum Format { CSV, TSV, JSONL }
+
+    public RunOptions(int threads, long sortBudget, boolean cache) {
+        this(threads, sortBudget, cache, Format.CSV);
+    }
+
+    public static RunOptions defaults() {
+        return new RunOptions(1, 0, true);
+    }
+}
@@ -0,0 +1,95 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Statistics;
+import com.minisqlpp.check.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Collects a table's {@link Statistics} in one pass: the exact row count, a
+ * {@link HyperLogLog} sketch of every column and, for INT columns, the exact
+ * min and max and a uniform reservoir sample of values whose quantiles
+ * become the histogram bounds. Reads the column sidecar when it is current
+ * and the CSV otherwise, and never writes a sidecar.
+ */
+public final class TableAnalyzer {
+    /** Buckets of an INT column's equi-depth histogram. */
+    public static final int BUCKETS = 32;
+
+    private TableAnalyzer() {}
+
+    /** Statistics of a CSV table, with histograms drawn from a sample of at most the given number of rows. */
+    public static Statistics.Table analyze(Path csv, Map<String,Type> columns, int sample) throws IOException {
+        int w = columns.size();
+        Type[] types = columns.values().toArray(new Type[0]);
+        HyperLogLog[] sketches = new HyperLogLog[w];
+        int[][] samples = new int[w][];
+        int[] min = new int[w], max = new int[w];
+        for (int j = 0; j < w; j++) {
+            sketches[j] = new HyperLogLog();
+            if (types[j] == Type.INT) samples[j] = new int[Math.max(1, sample)];
+        }
+        Arrays.fill(min, Integer.MAX_VALUE);
+        Arrays.fill(max, Integer.MIN_VALUE);
+        // seeded, so the same data always gives the same histograms
+        Random random = new Random(42);
+        long rows = 0;
+        try (ChunkSource in = TableStore.open(csv, columns, true, false).scan(CsvLoader.CHUNK, null)) {
+            ColumnTable chunk = in.chunk();
+            while (in.fill()) {
+                int n = chunk.rows();
+                for (int j = 0; j < w; j++) {
+                    int[] data = chunk.column(j);
+                    HyperLogLog sketch = sketches[j];
+                    if (types[j] == Type.STRING) {
+                        Dictionary d = chunk.dictionary(j);
+                        for (int r = 0; r < n; r++) sketch.add(d.value(data[r]));
+                    } else if (types[j] == Type.BOOL) {
+                        for (int r = 0; r < n; r++) sketch.add(data[r]);
+                    } else {
+                        int[] s = samples[j];
+                        for (int r = 0; r < n; r++) {
+                            int v = data[r];
+                            sketch.add(v);
+                            if (v < min[j]) min[j] = v;
+                            if (v > max[j]) max[j] = v;
+                            long t = rows + r;
+                            if (t < s.length) {
+                                s[(int) t] = v;
+                            } else {
+                                long k = random.nextLong(t + 1);
+                                if (k < s.length) s[(int) k] = v;
+                            }
+                        }
+                    }
+                }
+                rows += n;
+            }
+        }
+        Map<String,Statistics.Column> out = new LinkedHashMap<>();
+        int j = 0;
+        for (String name : columns.keySet()) {
+            int[] histogram = null;
+            if (types[j] == Type.INT && rows > 0) {
+                int[] s = Arrays.copyOf(samples[j], (int) Math.min(rows, samples[j].length));
+                Arrays.sort(s);
+                histogram = new int[BUCKETS + 1];
+                for (int b = 0; b <= BUCKETS; b++) histogram[b] = s[(int) ((long) b * (s.length - 1) / BUCKETS)];
+                histogram[0] = min[j];
+                histogram[BUCKETS] = max[j];
+            }
+            double distinct = Math.min(rows, Math.round(sketches[j].estimate()));
+            // an INT column cannot hold more values than its range
+            if (histogram != null) distinct = Math.min(distinct, (double) max[j] - min[j] + 1);
+            out.put(name, new Statistics.Column(distinct, histogram));
+            j++;
+        }
+        return new Statistics.Table(rows, Files.size(csv), out);
+    }
+}
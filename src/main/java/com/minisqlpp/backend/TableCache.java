@@ -0,0 +1,105 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.check.Type;
+import com.minisqlpp.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Whole tables held in memory across queries, for a long-lived process.
+ * Entries are keyed by file and checked against its size and mtime on every
+ * use; the least recently used are evicted once the held tables pass the
+ * memory budget. Held tables are never written after loading, so any number
+ * of queries can read one at once. A table is loaded by the first query to
+ * miss on it; queries missing on it meanwhile wait for that load.
+ */
+public final class TableCache {
+    private record Entry(long size, long mtime, Map<String,Type> columns, ColumnTable table) {}
+
+    private final long budget;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, CompletableFuture<ColumnTable>> loading = new HashMap<>();
+    private long used;
+
+    /** @param budget bytes of tables to hold; a larger table is loaded but not kept */
+    public TableCache(long budget) {
+        this.budget = budget;
+    }
+
+    /** Bytes of tables held now. */
+    public synchronized long bytes() { return used; }
+
+    public synchronized int size() { return entries.size(); }
+
+    /** The table in a CSV file, loaded through its sidecar when sidecar is set. */
+    ColumnTable table(Path csv, Map<String,Type> columns, boolean sidecar) throws IOException {
+        Path key = csv.toAbsolutePath().normalize();
+        BasicFileAttributes attrs = Files.readAttributes(csv, BasicFileAttributes.class);
+        long size = attrs.size(), mtime = attrs.lastModifiedTime().toMillis();
+        CompletableFuture<ColumnTable> pending;
+        CompletableFuture<ColumnTable> load = null;
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.size() == size && e.mtime() == mtime && e.columns().equals(columns)) return e.table();
+            pending = loading.get(key);
+            if (pending == null) loading.put(key, pending = load = new CompletableFuture<>());
+        }
+        if (load == null) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                if (e.getCause() instanceof RuntimeException re) throw re;
+                throw e;
+            }
+        }
+        ColumnTable table;
+        try {
+            table = load(csv, columns, sidecar);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                loading.remove(key);
+            }
+            load.completeExceptionally(e);
+            throw e;
+        }
+        long bytes = table.bytes();
+        synchronized (this) {
+            loading.remove(key);
+            Entry old = entries.remove(key);
+            if (old != null) used -= old.table().bytes();
+            if (bytes <= budget) {
+                entries.put(key, new Entry(size, mtime, columns, table));
+                used += bytes;
+                for (Iterator<Entry> it = entries.values().iterator(); used > budget && it.hasNext(); ) {
+                    used -= it.next().table().bytes();
+                    it.remove();
+                }
+            }
+        }
+        load.complete(table);
+        return table;
+    }
+
+    private static ColumnTable load(Path csv, Map<String,Type> columns, boolean sidecar) throws IOException {
+        try (Metrics.Span span = Metrics.start("load", csv.getFileName());
+             ChunkSource in = TableStore.open(csv, columns, sidecar).scan(CsvLoader.CHUNK, null)) {
+            ColumnTable chunk = in.chunk();
+            ColumnTable table = chunk.sibling(CsvLoader.CHUNK);
+            while (in.fill()) for (int r = 0; r < chunk.rows(); r++) table.append(chunk, r);
+            table.trim();
+            for (int j = 0; j < table.width(); j++) if (table.dictionary(j) != null) table.dictionary(j).freeze();
+            span.rows(table.rows()).bytes(in.bytesRead());
+            return table;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Expr;
+import com.minisqlpp.check.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+
+/**
+ * Where a table's chunks come from: its {@link ColumnFile} sidecar when that
+ * is current, the CSV otherwise. With caching on, a missing or stale sidecar
+ * is rebuilt on open; if the data directory cannot be written the CSV is
+ * read as before. Scans of a sidecar skip the blocks its zone maps rule out
+ * for the scan filter; CSV scans read everything. Given a {@link TableCache},
+ * the table is read from memory instead.
+ */
+final class TableStore {
+    private final Path csv;
+    private final Map<String,Type> columns;
+    private final ColumnFile cached;
+    private final ColumnTable held;
+
+    private TableStore(Path csv, Map<String,Type> columns, ColumnFile cached, ColumnTable held) {
+        this.csv = csv;
+        this.columns = columns;
+        this.cached = cached;
+        this.held = held;
+    }
+
+    /** Reads the table from the cache, loading it there first if needed; tables null for none. */
+    static TableStore open(Path csv, Map<String,Type> columns, boolean cache, boolean build, TableCache tables) throws IOException {
+        if (tables == null) return open(csv, columns, cache, build);
+        return new TableStore(csv, columns, null, tables.table(csv, columns, cache));
+    }
+
+    static TableStore open(Path csv, Map<String,Type> columns, boolean cache) throws IOException {
+        return open(csv, columns, cache, true);
+    }
+
+    /**
+     * With build false a stale sidecar is left alone and the CSV read instead,
+     * for scans that will likely stop early and so should not parse it all.
+     */
+    static TableStore open(Path csv, Map<String,Type> columns, boolean cache, boolean build) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(csv, BasicFileAttributes.class);
+        long size = attrs.size(), mtime = attrs.lastModifiedTime().toMillis();
+        if (!cache) return new TableStore(csv, columns, null, null);
+        Path side = csv.resolveSibling(csv.getFileName() + ColumnFile.SUFFIX);
+        ColumnFile f = ColumnFile.open(side, size, mtime, columns);
+        if (f == null && build) {
+            try {
+                ColumnFile.write(csv, columns, side, size, mtime);
+                f = ColumnFile.open(side, size, mtime, columns);
+            } catch (IOException e) {
+                f = null; // read-only data directory: stay on the CSV
+            }
+        }
+        return new TableStore(csv, columns, f, null);
+    }
+
+    boolean cached() { return cached != null; }
+
+    /**
+     * About {@code parts} contiguous ranges covering the table, as boundaries
+     * for {@link #scan(int, long, long, Expr)}: row numbers for a held table,
+     * block numbers for a sidecar, record aligned byte offsets for a CSV.
+     */
+    long[] splits(int parts) throws IOException {
+        if (held == null && cached == null) return CsvReader.splits(csv, parts);
+        int units = held != null ? held.rows() : cached.blocks();
+        int n = Math.max(1, Math.min(parts, units));
+        long[] cuts = new long[n + 1];
+        for (int i = 0; i <= n; i++) cuts[i] = (long) units * i / n;
+        return cuts;
+    }
+
+    /** Scans the whole table; filter is the table's scan filter, or null. */
+    ChunkSource scan(int capacity, Expr filter) throws IOException {
+        if (held != null) return new HeldScan(held, capacity, 0, held.rows());
+        return cached != null ? cached.scan(capacity, 0, cached.blocks(), zone(filter)) : new CsvLoader(csv, columns, capacity);
+    }
+
+    ChunkSource scan(int capacity, long start, long end, Expr filter) throws IOException {
+        if (held != null) return new HeldScan(held, capacity, (int) start, (int) end);
+        return cached != null ? cached.scan(capacity, (int) start, (int) end, zone(filter)) : new CsvLoader(csv, columns, capacity, start, end);
+    }
+
+    private ZoneFilter zone(Expr filter) {
+        return filter == null ? null : ZoneFilter.of(filter, columns, cached.dictionaries());
+    }
+
+    // Copies rows [from, to) of a held table into chunks, which share its
+    // frozen dictionaries.
+    private static final class HeldScan implements ChunkSource {
+        private final ColumnTable table;
+        private final ColumnTable chunk;
+        private final int to;
+        private int next;
+
+        HeldScan(ColumnTable table, int capacity, int from, int to) {
+            this.table = table;
+            this.chunk = table.sibling(capacity);
+            this.next = from;
+            this.to = to;
+        }
+
+        public ColumnTable chunk() { return chunk; }
+
+        public boolean fill() {
+            int m = Math.min(chunk.capacity(), to - next);
+            chunk.clear();
+            if (m <= 0) return false;
+            for (int j = 0; j < table.width(); j++) System.arraycopy(table.column(j), next, chunk.column(j), 0, m);
+            chunk.setRows(m);
+            next += m;
+            return true;
+        }
+
+        public void close() {}
+    }
+}
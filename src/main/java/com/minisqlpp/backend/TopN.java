@@ -0,0 +1,75 @@
+package com.minisqlpp.backend;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the first {@code limit} rows of an ORDER BY in a bounded max-heap, so
+ * ORDER BY ... LIMIT n needs O(n) memory whatever the input size. Ties keep
+ * arrival order, matching a stable sort of the whole input.
+ */
+final class TopN<T> {
+    private record Entry<T>(Object[] keys, long seq, T row) {}
+
+    private final int limit;
+    private final Comparator<Entry<T>> order;
+    private final PriorityQueue<Entry<T>> heap;
+    private long seq;
+
+    TopN(int limit, Comparator<Object[]> keyOrder) {
+        this.limit = limit;
+        Comparator<Entry<T>> byKeys = (a, b) -> keyOrder.compare(a.keys(), b.keys());
+        this.order = byKeys.thenComparingLong(Entry::seq);
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(limit, 1 << 16)), order.reversed());
+    }
+
+    /** Whether a row with these keys would currently make the cut. */
+    boolean accepts(Object[] keys) {
+        if (heap.size() < limit) return true;
+        if (limit == 0) return false;
+        return order.compare(new Entry<>(keys, seq, null), heap.peek()) < 0;
+    }
+
+    /** {@link #accepts(Object[])} for a lone INT key in the given direction, without boxing it. */
+    boolean accepts(int key, boolean asc) {
+        if (heap.size() < limit) return true;
+        if (limit == 0) return false;
+        // on a tie the kept row arrived first and wins
+        int c = Integer.compare(key, (Integer) heap.peek().keys()[0]);
+        return asc ? c < 0 : c > 0;
+    }
+
+    /** Offers a row; callers that need to copy the row should check {@link #accepts} first. */
+    void add(Object[] keys, T row) {
+        Entry<T> e = new Entry<>(keys, seq++, row);
+        if (heap.size() < limit) {
+            heap.add(e);
+        } else if (limit > 0 && order.compare(e, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(e);
+        }
+    }
+
+    /** The retained rows in ORDER BY order. */
+    List<T> result() {
+        List<Entry<T>> entries = new ArrayList<>(heap);
+        entries.sort(order);
+        List<T> rows = new ArrayList<>(entries.size());
+        for (Entry<T> e : entries) rows.add(e.row());
+        return rows;
+    }
+
+    /** Lexicographic order over evaluated sort keys, one direction flag per key. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Comparator<Object[]> keyOrder(boolean[] asc) {
+        return (a, b) -> {
+            for (int i = 0; i < asc.length; i++) {
+                int c = ((Comparable) a[i]).compareTo(b[i]);
+                if (c != 0) return asc[i] ? c : -c;
+            }
+            return 0;
+        };
+    }
+}
@@ -0,0 +1,30 @@
+package com.minisqlpp.backend;
+
+/**
+ * Up to {@link #SIZE} rows held as column vectors, plus a selection vector
+ * naming the rows still live. Filters narrow the selection in place instead
+ * of copying rows.
+ */
+final class VectorBatch {
+    static final int SIZE = 1024;
+    private static final int[] ALL = new int[SIZE];
+    static {
+        for (int i = 0; i < SIZE; i++) ALL[i] = i;
+    }
+
+    ColumnTable data;
+    int[] sel;
+    int count;
+    private final int[] own = new int[SIZE];
+
+    /** Points the batch at new column data with every row selected. */
+    VectorBatch reset(ColumnTable data) {
+        this.data = data;
+        this.sel = ALL;
+        this.count = data.rows();
+        return this;
+    }
+
+    /** A selection buffer owned by this batch, safe to filter into. */
+    int[] selectionBuffer() { return own; }
+}
@@ -0,0 +1,277 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.*;
+import com.minisqlpp.check.Type;
+
+import java.util.Arrays;
+
+/**
+ * Compiles expressions into kernels that run over a whole {@link VectorBatch}
+ * at a time. A predicate narrows a selection vector; an INT expression fills
+ * a vector at the selected positions (a column reference hands back the
+ * column array itself). Every kernel is a tight loop over primitive arrays.
+ */
+final class VectorCompiler {
+    /** Values at the selected positions; other positions are unspecified. */
+    interface IntVec { int[] eval(VectorBatch b, int[] sel, int n); }
+    /** Writes the subset of sel[0..n) that satisfies the predicate to out and returns its size. */
+    interface Pred { int select(VectorBatch b, int[] sel, int n, int[] out); }
+    interface StrAt { String at(VectorBatch b, int row); }
+
+    /** Batch column index and dictionary of a column reference. */
+    interface Resolver {
+        int index(Col c);
+        Dictionary dictionary(Col c);
+    }
+
+    private final Resolver resolver;
+
+    VectorCompiler(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    Type typeOf(Expr e) {
+        if (e instanceof Lit lit) return lit.type();
+        if (e instanceof Col c) return c.type();
+        if (e instanceof Bin b) {
+            return switch (b.op()) {
+                case PLUS, MINUS, STAR, SLASH -> Type.INT;
+                default -> Type.BOOL;
+            };
+        }
+        if (e instanceof Un u) return u.op() == Un.Op.NEG ? Type.INT : Type.BOOL;
+        throw new RuntimeException("Unknown expr");
+    }
+
+    IntVec compileInt(Expr e) {
+        if (e instanceof Lit lit && lit.value() instanceof Integer i) {
+            int[] v = new int[VectorBatch.SIZE];
+            Arrays.fill(v, i);
+            return (b, sel, n) -> v;
+        } else if (e instanceof Col c) {
+            int idx = resolver.index(c);
+            return (b, sel, n) -> b.data.column(idx);
+        } else if (typeOf(e) == Type.BOOL) {
+            // a boolean used as a value: 1 where the predicate holds, 0 elsewhere
+            Pred p = compilePred(e);
+            int[] out = new int[VectorBatch.SIZE];
+            int[] hit = new int[VectorBatch.SIZE];
+            return (b, sel, n) -> {
+                for (int i = 0; i < n; i++) out[sel[i]] = 0;
+                int m = p.select(b, sel, n, hit);
+                for (int i = 0; i < m; i++) out[hit[i]] = 1;
+                return out;
+            };
+        } else if (e instanceof Bin b) {
+            IntVec l = compileInt(b.left()), r = compileInt(b.right());
+            int[] out = new int[VectorBatch.SIZE];
+            return switch (b.op()) {
+                case PLUS -> (bt, sel, n) -> {
+                    int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n);
+                    for (int i = 0; i < n; i++) { int k = sel[i]; out[k] = x[k] + y[k]; }
+                    return out;
+                };
+                case MINUS -> (bt, sel, n) -> {
+                    int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n);
+                    for (int i = 0; i < n; i++) { int k = sel[i]; out[k] = x[k] - y[k]; }
+                    return out;
+                };
+                case STAR -> (bt, sel, n) -> {
+                    int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n);
+                    for (int i = 0; i < n; i++) { int k = sel[i]; out[k] = x[k] * y[k]; }
+                    return out;
+                };
+                case SLASH -> (bt, sel, n) -> {
+                    int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n);
+                    for (int i = 0; i < n; i++) { int k = sel[i]; out[k] = x[k] / y[k]; }
+                    return out;
+                };
+                default -> throw new RuntimeException("Expected INT expression");
+            };
+        } else if (e instanceof Un u && u.op() == Un.Op.NEG) {
+            IntVec f = compileInt(u.expr());
+            int[] out = new int[VectorBatch.SIZE];
+            return (b, sel, n) -> {
+                int[] x = f.eval(b, sel, n);
+                for (int i = 0; i < n; i++) { int k = sel[i]; out[k] = -x[k]; }
+                return out;
+            };
+        }
+        throw new RuntimeException("Expected INT expression");
+    }
+
+    StrAt compileStr(Expr e) {
+        if (e instanceof Lit lit) {
+            String v = (String) lit.value();
+            return (b, row) -> v;
+        } else if (e instanceof Col c) {
+            int idx = resolver.index(c);
+            Dictionary d = resolver.dictionary(c);
+            return (b, row) -> d.value(b.data.column(idx)[row]);
+        }
+        throw new RuntimeException("Expected STRING expression");
+    }
+
+    Pred compilePred(Expr e) {
+        if (e instanceof Lit lit) {
+            boolean v = (Boolean) lit.value();
+            return (b, sel, n, out) -> {
+                if (!v) return 0;
+                System.arraycopy(sel, 0, out, 0, n);
+                return n;
+            };
+        } else if (e instanceof Col c) {
+            int idx = resolver.index(c);
+            return (b, sel, n, out) -> {
+                int[] x = b.data.column(idx);
+                int k = 0;
+                for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] != 0) out[k++] = r; }
+                return k;
+            };
+        } else if (e instanceof Un u && u.op() == Un.Op.NOT) {
+            Pred f = compilePred(u.expr());
+            int[] hit = new int[VectorBatch.SIZE];
+            return (b, sel, n, out) -> except(sel, n, hit, f.select(b, sel, n, hit), out);
+        } else if (e instanceof Bin b) {
+            switch (b.op()) {
+                case AND -> {
+                    Pred l = compilePred(b.left()), r = compilePred(b.right());
+                    int[] mid = new int[VectorBatch.SIZE];
+                    return (bt, sel, n, out) -> r.select(bt, mid, l.select(bt, sel, n, mid), out);
+                }
+                case OR -> {
+                    Pred l = compilePred(b.left()), r = compilePred(b.right());
+                    int[] left = new int[VectorBatch.SIZE], rest = new int[VectorBatch.SIZE], right = new int[VectorBatch.SIZE];
+                    return (bt, sel, n, out) -> {
+                        int nl = l.select(bt, sel, n, left);
+                        int nr = r.select(bt, rest, except(sel, n, left, nl, rest), right);
+                        return merge(left, nl, right, nr, out);
+                    };
+                }
+                case EQ, NEQ, LT, LTE, GT, GTE -> {
+                    return typeOf(b.left()) == Type.STRING ? compareStr(b) : compareInt(b);
+                }
+                default -> { }
+            }
+        }
+        throw new RuntimeException("Expected BOOL expression");
+    }
+
+    private Pred compareInt(Bin b) {
+        if (b.left() instanceof Col c && b.right() instanceof Lit lit) {
+            int idx = resolver.index(c), v = (Integer) lit.value();
+            return switch (b.op()) {
+                case EQ -> (bt, sel, n, out) -> {
+                    int[] x = bt.data.column(idx); int k = 0;
+                    for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] == v) out[k++] = r; }
+                    return k;
+                };
+                case NEQ -> (bt, sel, n, out) -> {
+                    int[] x = bt.data.column(idx); int k = 0;
+                    for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] != v) out[k++] = r; }
+                    return k;
+                };
+                case LT -> (bt, sel, n, out) -> {
+                    int[] x = bt.data.column(idx); int k = 0;
+                    for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] < v) out[k++] = r; }
+                    return k;
+                };
+                case LTE -> (bt, sel, n, out) -> {
+                    int[] x = bt.data.column(idx); int k = 0;
+                    for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] <= v) out[k++] = r; }
+                    return k;
+                };
+                case GT -> (bt, sel, n, out) -> {
+                    int[] x = bt.data.column(idx); int k = 0;
+                    for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] > v) out[k++] = r; }
+                    return k;
+                };
+                default -> (bt, sel, n, out) -> {
+                    int[] x = bt.data.column(idx); int k = 0;
+                    for (int i = 0; i < n; i++) { int r = sel[i]; if (x[r] >= v) out[k++] = r; }
+                    return k;
+                };
+            };
+        }
+        IntVec l = compileInt(b.left()), r = compileInt(b.right());
+        return switch (b.op()) {
+            case EQ -> (bt, sel, n, out) -> {
+                int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n); int k = 0;
+                for (int i = 0; i < n; i++) { int q = sel[i]; if (x[q] == y[q]) out[k++] = q; }
+                return k;
+            };
+            case NEQ -> (bt, sel, n, out) -> {
+                int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n); int k = 0;
+                for (int i = 0; i < n; i++) { int q = sel[i]; if (x[q] != y[q]) out[k++] = q; }
+                return k;
+            };
+            case LT -> (bt, sel, n, out) -> {
+                int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n); int k = 0;
+                for (int i = 0; i < n; i++) { int q = sel[i]; if (x[q] < y[q]) out[k++] = q; }
+                return k;
+            };
+            case LTE -> (bt, sel, n, out) -> {
+                int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n); int k = 0;
+                for (int i = 0; i < n; i++) { int q = sel[i]; if (x[q] <= y[q]) out[k++] = q; }
+                return k;
+            };
+            case GT -> (bt, sel, n, out) -> {
+                int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n); int k = 0;
+                for (int i = 0; i < n; i++) { int q = sel[i]; if (x[q] > y[q]) out[k++] = q; }
+                return k;
+            };
+            default -> (bt, sel, n, out) -> {
+                int[] x = l.eval(bt, sel, n), y = r.eval(bt, sel, n); int k = 0;
+                for (int i = 0; i < n; i++) { int q = sel[i]; if (x[q] >= y[q]) out[k++] = q; }
+                return k;
+            };
+        };
+    }
+
+    private Pred compareStr(Bin b) {
+        boolean eq = b.op() == Bin.Op.EQ;
+        if ((eq || b.op() == Bin.Op.NEQ) && b.left() instanceof Col c && b.right() instanceof Lit lit) {
+            int idx = resolver.index(c), id = resolver.dictionary(c).literal((String) lit.value());
+            return (bt, sel, n, out) -> {
+                int[] x = bt.data.column(idx); int k = 0;
+                for (int i = 0; i < n; i++) { int r = sel[i]; if ((x[r] == id) == eq) out[k++] = r; }
+                return k;
+            };
+        }
+        StrAt l = compileStr(b.left()), r = compileStr(b.right());
+        Bin.Op op = b.op();
+        return (bt, sel, n, out) -> {
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                int q = sel[i];
+                int c = l.at(bt, q).compareTo(r.at(bt, q));
+                boolean hit = switch (op) {
+                    case EQ -> c == 0; case NEQ -> c != 0; case LT -> c < 0;
+                    case LTE -> c <= 0; case GT -> c > 0; default -> c >= 0;
+                };
+                if (hit) out[k++] = q;
+            }
+            return k;
+        };
+    }
+
+    // sel[0..n) minus the ascending subset hit[0..m), written to out.
+    private static int except(int[] sel, int n, int[] hit, int m, int[] out) {
+        int k = 0, j = 0;
+        for (int i = 0; i < n; i++) {
+            int r = sel[i];
+            if (j < m && hit[j] == r) j++;
+            else out[k++] = r;
+        }
+        return k;
+    }
+
+    // Union of two disjoint ascending selections.
+    private static int merge(int[] a, int na, int[] b, int nb, int[] out) {
+        int i = 0, j = 0, k = 0;
+        while (i < na && j < nb) out[k++] = a[i] < b[j] ? a[i++] : b[j++];
+        while (i < na) out[k++] = a[i++];
+        while (j < nb) out[k++] = b[j++];
+        return k;
+    }
+}
@@ -0,0 +1,491 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.*;
+import com.minisqlpp.backend.VectorCompiler.IntVec;
+import com.minisqlpp.backend.VectorCompiler.Pred;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Optimizer;
+import com.minisqlpp.check.Type;
+import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.metrics.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch-at-a-time execution of the plans {@link CsvBackend} runs a row at a
+ * time: filters narrow a batch's selection vector, the rest work column by column.
+ */
+public final class VectorEngine {
+    private final Catalog catalog;
+    private final boolean cache;
+    private final RunOptions.Format format;
+    private final TableCache tableCache;
+
+    public VectorEngine(Catalog catalog) {
+        this(catalog, RunOptions.defaults());
+    }
+
+    /** Only the cache and format settings apply; this engine runs on one thread and sorts in memory. */
+    public VectorEngine(Catalog catalog, RunOptions options) {
+        this(catalog, options, null);
+    }
+
+    /** Reads tables through a cache shared with other queries, for a long-lived process; null for none. */
+    public VectorEngine(Catalog catalog, RunOptions options, TableCache tables) {
+        this.catalog = catalog;
+        this.cache = options.cache();
+        this.format = options.format();
+        this.tableCache = tables;
+    }
+
+    public void run(Query q, Path dataDir) throws IOException {
+        run(q, dataDir, System.out);
+    }
+
+    /** Runs the query, writing the result to out, which is flushed but left open. */
+    public void run(Query q, Path dataDir, OutputStream out) throws IOException {
+        if (q.explain() != Query.Explain.NONE) throw new RuntimeException("EXPLAIN describes the row engine; run it with --engine row");
+        if (q.aggregates()) throw new RuntimeException("GROUP BY and aggregates run on the row engine; run the query with --engine row");
+        if (q.output() == null) new TypeChecker(catalog).check(q);
+        Metrics.Span stage = Metrics.start("plan");
+        List<String> aliases = new ArrayList<>();
+        List<String> tables = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        for (TableRef tr : q.from()) {
+            String alias = tr.alias() != null ? tr.alias() : tr.name();
+            aliases.add(alias.toLowerCase());
+            tables.add(tr.name().toLowerCase());
+            files.add(dataDir.resolve(tr.name().toLowerCase() + ".csv"));
+        }
+        int n = aliases.size();
+        long[] sizes = new long[n];
+        for (int i = 0; i < n; i++) sizes[i] = Files.size(files.get(i));
+        PredicatePushdown pushdown = PredicatePushdown.of(aliases, q.where().orElse(null));
+        JoinPlan plan = JoinPlan.of(aliases, sizes, pushdown.remaining(), CostModel.of(catalog, tables, sizes, pushdown));
+        int driver = plan.driver();
+        boolean none = Optimizer.empty(q);
+        boolean early = q.limit() != null && q.orderBy().isEmpty();
+        stage.close();
+        stage = Metrics.start("open");
+        TableStore[] stores = new TableStore[n];
+        for (int i = 0; i < n; i++) {
+            Map<String,Type> columns = catalog.columns(tables.get(i));
+            if (columns == null) throw new RuntimeException("Unknown table " + tables.get(i));
+            if (none) continue;
+            stores[i] = TableStore.open(files.get(i), columns, cache, !(early && i == driver), tableCache);
+        }
+        stage.close();
+        ChunkSource[] loaders = new ChunkSource[n];
+        try {
+            stage = Metrics.start("build");
+            ColumnTable[] chunks = new ColumnTable[n];
+            for (int i = 0; i < n; i++) {
+                loaders[i] = none ? ChunkSource.empty(catalog.columns(tables.get(i))) : stores[i].scan(VectorBatch.SIZE, pushdown.scanFilter(i));
+                chunks[i] = loaders[i].chunk();
+            }
+            Schema schema = new Schema(chunks).add(driver);
+            Operator op = scan(loaders[driver], schema, pushdown.scanFilter(driver));
+            for (JoinPlan.Step st : plan.steps()) {
+                int slot = st.slot();
+                ColumnTable build = materialize(scan(loaders[slot], new Schema(chunks).add(slot),
+                        pushdown.scanFilter(slot)), chunks[slot]);
+                JoinHashTable hashed = null;
+                int probe = -1;
+                Dictionary probeDict = null;
+                if (st.hashed()) {
+                    hashed = new JoinHashTable(build, st.build().ordinal());
+                    probe = schema.index(st.probe());
+                    probeDict = schema.dictionary(st.probe());
+                }
+                op = new Join(op, probe, probeDict, build, hashed, schema.add(slot).template());
+                stage.rows(build.rows()).bytes(loaders[slot].bytesRead());
+            }
+            stage.close();
+            stage = Metrics.start("execute");
+            long written = 0;
+            VectorCompiler compiler = new VectorCompiler(schema);
+            if (plan.residual() != null) op = new Filter(op, compiler.compilePred(plan.residual()));
+
+            List<Output> outputs = new ArrayList<>();
+            for (SelectItem si : q.select()) {
+                if (si instanceof SelectAll) {
+                    for (int slot = 0; slot < n; slot++) {
+                        for (int j = 0; j < chunks[slot].width(); j++) {
+                            outputs.add(column(schema.offset(slot) + j, chunks[slot].type(j), chunks[slot].dictionary(j)));
+                        }
+                    }
+                } else if (si instanceof SelectExpr se) {
+                    outputs.add(output(compiler, schema, se.expr()));
+                }
+            }
+            int width = outputs.size();
+            List<OrderSpec> order = q.orderBy();
+            for (OrderSpec o : order) outputs.add(output(compiler, schema, o.expr()));
+            op = new Project(op, outputs);
+            if (!order.isEmpty()) {
+                boolean[] asc = new boolean[order.size()];
+                for (int i = 0; i < asc.length; i++) asc[i] = order.get(i).asc();
+                op = new Sort(op, width, asc);
+            }
+            if (q.limit() != null) op = new Limit(op, q.limit());
+
+            ResultSink sink = new ResultSink(out, format, ResultSink.names(q));
+            for (VectorBatch b; (b = op.next()) != null; written += b.count) {
+                ColumnTable t = b.data;
+                for (int i = 0; i < b.count; i++) {
+                    int r = b.sel[i];
+                    for (int j = 0; j < width; j++) {
+                        int v = t.column(j)[r];
+                        switch (t.type(j)) {
+                            case INT -> sink.intCell(v);
+                            case BOOL -> sink.boolCell(v != 0);
+                            case STRING -> sink.stringCell(t.dictionary(j).utf8(v));
+                        }
+                    }
+                    sink.endRow();
+                    sink.drainIfFull();
+                }
+            }
+            sink.flush();
+            stage.rows(written).bytes(loaders[driver].bytesRead());
+            stage.close();
+        } finally {
+            for (ChunkSource l : loaders) if (l != null) l.close();
+        }
+    }
+
+    private static Operator scan(ChunkSource in, Schema schema, Expr filter) {
+        Operator op = new Scan(in);
+        return filter == null ? op : new Filter(op, new VectorCompiler(schema).compilePred(filter));
+    }
+
+    // Copies every selected row into a table of its own, sharing like's dictionaries.
+    private static ColumnTable materialize(Operator op, ColumnTable like) throws IOException {
+        ColumnTable table = like.sibling(VectorBatch.SIZE);
+        for (VectorBatch b; (b = op.next()) != null; ) {
+            for (int i = 0; i < b.count; i++) table.append(b.data, b.sel[i]);
+        }
+        table.trim();
+        return table;
+    }
+
+    /** Pulls the next batch, or null when exhausted. A batch is only valid until the next call. */
+    interface Operator {
+        VectorBatch next() throws IOException;
+    }
+
+    private static final class Scan implements Operator {
+        private final ChunkSource in;
+        private final VectorBatch batch = new VectorBatch();
+
+        Scan(ChunkSource in) { this.in = in; }
+
+        public VectorBatch next() throws IOException {
+            return in.fill() ? batch.reset(in.chunk()) : null;
+        }
+    }
+
+    private static final class Filter implements Operator {
+        private final Operator child;
+        private final Pred pred;
+
+        Filter(Operator child, Pred pred) {
+            this.child = child;
+            this.pred = pred;
+        }
+
+        public VectorBatch next() throws IOException {
+            for (VectorBatch b; (b = child.next()) != null; ) {
+                int[] out = b.selectionBuffer();
+                b.count = pred.select(b, b.sel, b.count, out);
+                b.sel = out;
+                if (b.count > 0) return b;
+            }
+            return null;
+        }
+    }
+
+    // Output never mixes two probe batches, since the child may reuse its arrays.
+    private static final class Join implements Operator {
+        private final Operator child;
+        private final int probe;
+        private final Dictionary probeDict;
+        private final ColumnTable build;
+        private final JoinHashTable hashed;
+        private final ColumnTable out;
+        private final VectorBatch batch = new VectorBatch();
+        private final int[] left = new int[VectorBatch.SIZE];
+        private final int[] right = new int[VectorBatch.SIZE];
+        private VectorBatch in;
+        private int pos;
+        private int row;
+        private int match = -1;
+
+        Join(Operator child, int probe, Dictionary probeDict, ColumnTable build, JoinHashTable hashed, ColumnTable out) {
+            this.child = child;
+            this.probe = probe;
+            this.probeDict = probeDict;
+            this.build = build;
+            this.hashed = hashed;
+            this.out = out;
+        }
+
+        public VectorBatch next() throws IOException {
+            int m = 0;
+            while (m < VectorBatch.SIZE) {
+                if (match >= 0) {
+                    left[m] = row;
+                    right[m++] = match;
+                    match = hashed != null ? hashed.next(match) : match + 1 < build.rows() ? match + 1 : -1;
+                } else if (in != null && pos < in.count) {
+                    row = in.sel[pos++];
+                    if (hashed == null) {
+                        match = build.rows() > 0 ? 0 : -1;
+                    } else {
+                        int key = in.data.column(probe)[row];
+                        match = hashed.intKeys() ? hashed.first(key) : hashed.first(probeDict.value(key));
+                    }
+                } else {
+                    if (m > 0) break;
+                    in = child.next();
+                    pos = 0;
+                    if (in == null) return null;
+                }
+            }
+            int pw = in.data.width();
+            for (int j = 0; j < pw; j++) gather(in.data.column(j), left, m, out.column(j));
+            for (int j = 0; j < build.width(); j++) gather(build.column(j), right, m, out.column(pw + j));
+            out.setRows(m);
+            return batch.reset(out);
+        }
+
+        private static void gather(int[] src, int[] rows, int m, int[] dst) {
+            for (int i = 0; i < m; i++) dst[i] = src[rows[i]];
+        }
+    }
+
+    /** Writes one output column for the selected rows of a batch, densely. */
+    private record Output(Type type, Dictionary dict, Writer writer) {}
+
+    private interface Writer {
+        void write(VectorBatch b, int[] dst);
+    }
+
+    private static Output column(int idx, Type type, Dictionary dict) {
+        return new Output(type, dict, (b, dst) -> {
+            int[] src = b.data.column(idx);
+            for (int i = 0; i < b.count; i++) dst[i] = src[b.sel[i]];
+        });
+    }
+
+    private static Output output(VectorCompiler compiler, Schema schema, Expr e) {
+        Type type = compiler.typeOf(e);
+        if (e instanceof Col c) return column(schema.index(c), type, schema.dictionary(c));
+        if (type == Type.STRING) {
+            Dictionary d = new Dictionary();
+            int id = d.intern((String) ((Lit) e).value());
+            return new Output(type, d, (b, dst) -> Arrays.fill(dst, 0, b.count, id));
+        }
+        IntVec f = compiler.compileInt(e);
+        return new Output(type, null, (b, dst) -> {
+            int[] src = f.eval(b, b.sel, b.count);
+            for (int i = 0; i < b.count; i++) dst[i] = src[b.sel[i]];
+        });
+    }
+
+    // Evaluates the output columns (and any sort keys after them) into a dense batch.
+    private static final class Project implements Operator {
+        private final Operator child;
+        private final Writer[] writers;
+        private final ColumnTable out;
+        private final VectorBatch batch = new VectorBatch();
+
+        Project(Operator child, List<Output> outputs) {
+            this.child = child;
+            int w = outputs.size();
+            String[] names = new String[w];
+            Type[] types = new Type[w];
+            Dictionary[] dicts = new Dictionary[w];
+            writers = new Writer[w];
+            for (int j = 0; j < w; j++) {
+                Output o = outputs.get(j);
+                names[j] = "c" + j;
+                types[j] = o.type();
+                dicts[j] = o.dict();
+                writers[j] = o.writer();
+            }
+            out = new ColumnTable(names, types, dicts, VectorBatch.SIZE);
+        }
+
+        public VectorBatch next() throws IOException {
+            VectorBatch b = child.next();
+            if (b == null) return null;
+            for (int j = 0; j < writers.length; j++) writers[j].write(b, out.column(j));
+            out.setRows(b.count);
+            return batch.reset(out);
+        }
+    }
+
+    // Sorts row numbers by the key columns after the first width, STRING
+    // ones by dictionary rank. Stable, as the row engine's sort is.
+    private static final class Sort implements Operator {
+        private final Operator child;
+        private final int width;
+        private final boolean[] asc;
+        private final VectorBatch batch = new VectorBatch();
+        private ColumnTable all;
+        private ColumnTable out;
+        private int[] order;
+        private int pos;
+
+        Sort(Operator child, int width, boolean[] asc) {
+            this.child = child;
+            this.width = width;
+            this.asc = asc;
+        }
+
+        public VectorBatch next() throws IOException {
+            if (all == null) sort();
+            int m = Math.min(VectorBatch.SIZE, order.length - pos);
+            if (m <= 0) return null;
+            for (int j = 0; j < all.width(); j++) {
+                int[] src = all.column(j), dst = out.column(j);
+                for (int i = 0; i < m; i++) dst[i] = src[order[pos + i]];
+            }
+            pos += m;
+            out.setRows(m);
+            return batch.reset(out);
+        }
+
+        private void sort() throws IOException {
+            VectorBatch b = child.next();
+            if (b == null) {
+                all = new ColumnTable(new String[0], new Type[0], new Dictionary[0], 1);
+                order = new int[0];
+                return;
+            }
+            all = b.data.sibling(VectorBatch.SIZE);
+            out = b.data.sibling(VectorBatch.SIZE);
+            for (; b != null; b = child.next()) {
+                for (int i = 0; i < b.count; i++) all.append(b.data, b.sel[i]);
+            }
+            int[][] keys = new int[asc.length][];
+            for (int k = 0; k < asc.length; k++) {
+                int j = width + k;
+                keys[k] = all.type(j) == Type.STRING ? ranks(all.column(j), all.rows(), all.dictionary(j)) : all.column(j);
+            }
+            order = new int[all.rows()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            int[] tmp = new int[order.length];
+            mergeSort(order, tmp, 0, order.length, keys);
+        }
+
+        private static int[] ranks(int[] ids, int rows, Dictionary dict) {
+            Integer[] byValue = new Integer[dict.size()];
+            for (int i = 0; i < byValue.length; i++) byValue[i] = i;
+            Arrays.sort(byValue, (x, y) -> dict.value(x).compareTo(dict.value(y)));
+            int[] rank = new int[byValue.length];
+            for (int i = 0; i < byValue.length; i++) rank[byValue[i]] = i;
+            int[] out = new int[rows];
+            for (int i = 0; i < rows; i++) out[i] = rank[ids[i]];
+            return out;
+        }
+
+        private void mergeSort(int[] a, int[] tmp, int lo, int hi, int[][] keys) {
+            if (hi - lo < 2) return;
+            int mid = (lo + hi) >>> 1;
+            mergeSort(a, tmp, lo, mid, keys);
+            mergeSort(a, tmp, mid, hi, keys);
+            if (compare(a[mid - 1], a[mid], keys) <= 0) return;
+            System.arraycopy(a, lo, tmp, lo, hi - lo);
+            int i = lo, j = mid, k = lo;
+            while (i < mid && j < hi) a[k++] = compare(tmp[j], tmp[i], keys) < 0 ? tmp[j++] : tmp[i++];
+            while (i < mid) a[k++] = tmp[i++];
+            while (j < hi) a[k++] = tmp[j++];
+        }
+
+        private int compare(int x, int y, int[][] keys) {
+            for (int k = 0; k < keys.length; k++) {
+                int c = Integer.compare(keys[k][x], keys[k][y]);
+                if (c != 0) return asc[k] ? c : -c;
+            }
+            return 0;
+        }
+    }
+
+    // Truncates the stream and stops pulling from the child once full.
+    private static final class Limit implements Operator {
+        private final Operator child;
+        private int remaining;
+
+        Limit(Operator child, int limit) {
+            this.child = child;
+            this.remaining = limit;
+        }
+
+        public VectorBatch next() throws IOException {
+            if (remaining <= 0) return null;
+            VectorBatch b = child.next();
+            if (b == null) return null;
+            b.count = Math.min(b.count, remaining);
+            remaining -= b.count;
+            return b;
+        }
+    }
+
+    // Batch column layout: each slot joined so far, its catalog columns in order.
+    private static final class Schema implements VectorCompiler.Resolver {
+        private final ColumnTable[] tables;
+        private final int[] offsets;
+        private final List<Integer> order = new ArrayList<>();
+        private int width;
+
+        Schema(ColumnTable[] tables) {
+            this.tables = tables;
+            this.offsets = new int[tables.length];
+            Arrays.fill(offsets, -1);
+        }
+
+        Schema add(int slot) {
+            offsets[slot] = width;
+            order.add(slot);
+            width += tables[slot].width();
+            return this;
+        }
+
+        int offset(int slot) { return offsets[slot]; }
+
+        /** An empty batch-sized table with the current layout's columns. */
+        ColumnTable template() {
+            String[] names = new String[width];
+            Type[] types = new Type[width];
+            Dictionary[] dicts = new Dictionary[width];
+            for (int slot : order) {
+                ColumnTable t = tables[slot];
+                for (int j = 0; j < t.width(); j++) {
+                    names[offsets[slot] + j] = t.name(j);
+                    types[offsets[slot] + j] = t.type(j);
+                    dicts[offsets[slot] + j] = t.dictionary(j);
+                }
+            }
+            return new ColumnTable(names, types, dicts, VectorBatch.SIZE);
+        }
+
+        public int index(Col c) {
+            int off = offsets[c.slot()];
+            if (off < 0) throw new RuntimeException("Table " + c.table() + " is not joined yet");
+            return off + c.ordinal();
+        }
+
+        public Dictionary dictionary(Col c) {
+            return tables[c.slot()].dictionary(c.ordinal());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.minisqlpp.backend;
+
+import com.minisqlpp.ast.Bin;
+import com.minisqlpp.ast.Col;
+import com.minisqlpp.ast.Expr;
+import com.minisqlpp.check.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounds a table's scan filter puts on its columns, checked against each
+ * block's min/max so blocks where no row can pass are skipped unread. Only
+ * AND-conjuncts comparing a column with a literal count: INT columns take
+ * any comparison, STRING and BOOL columns equality, as dictionary ids and
+ * 0/1. Anything else is left to the filter itself.
+ */
+final class ZoneFilter {
+    private final int[] columns;
+    private final long[] lo;
+    private final long[] hi;
+
+    private ZoneFilter(int[] columns, long[] lo, long[] hi) {
+        this.columns = columns;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    /**
+     * Bounds from a single-table filter, or null when none apply. STRING
+     * literals are looked up in the table's dictionaries.
+     */
+    static ZoneFilter of(Expr filter, Map<String,Type> columns, Dictionary[] dicts) {
+        List<String> names = new ArrayList<>(columns.keySet());
+        int width = names.size();
+        long[] lo = new long[width], hi = new long[width];
+        boolean[] bounded = new boolean[width];
+        Arrays.fill(lo, Integer.MIN_VALUE);
+        Arrays.fill(hi, Integer.MAX_VALUE);
+        for (Expr c : PredicatePushdown.conjuncts(filter)) {
+            PredicatePushdown.Comparison cmp = PredicatePushdown.comparison(c);
+            if (cmp == null) continue;
+            Col col = cmp.col();
+            Bin.Op op = cmp.op();
+            Object v = cmp.value();
+            int j = names.indexOf(col.name().toLowerCase());
+            if (j < 0) continue;
+            long x;
+            if (v instanceof Integer i && columns.get(names.get(j)) == Type.INT) {
+                x = i;
+            } else if (op != Bin.Op.EQ) {
+                continue;
+            } else if (v instanceof Boolean b && columns.get(names.get(j)) == Type.BOOL) {
+                x = b ? 1 : 0;
+            } else if (v instanceof String s && columns.get(names.get(j)) == Type.STRING && dicts[j] != null) {
+                x = dicts[j].find(s);
+                if (x < 0) x = Long.MIN_VALUE; // never seen: no block holds it
+            } else {
+                continue;
+            }
+            switch (op) {
+                case EQ -> { lo[j] = Math.max(lo[j], x); hi[j] = Math.min(hi[j], x); }
+                case LT -> hi[j] = Math.min(hi[j], x - 1);
+                case LTE -> hi[j] = Math.min(hi[j], x);
+                case GT -> lo[j] = Math.max(lo[j], x + 1);
+                case GTE -> lo[j] = Math.max(lo[j], x);
+                default -> { }
+            }
+            bounded[j] = true;
+        }
+        int n = 0;
+        for (boolean b : bounded) if (b) n++;
+        if (n == 0) return null;
+        int[] cols = new int[n];
+        long[] l = new long[n], h = new long[n];
+        for (int j = 0, k = 0; j < width; j++) {
+            if (!bounded[j]) continue;
+            cols[k] = j;
+            l[k] = lo[j];
+            h[k++] = hi[j];
+        }
+        return new ZoneFilter(cols, l, h);
+    }
+
+    /**
+     * Whether a block may hold a passing row, given zones laid out as
+     * min, max per column starting at base.
+     */
+    boolean mayMatch(int[] zones, int base) {
+        for (int k = 0; k < columns.length; k++) {
+            int at = base + 2 * columns[k];
+            if (zones[at] > hi[k] || zones[at + 1] < lo[k]) return false;
+        }
+        return true;
+    }
+}
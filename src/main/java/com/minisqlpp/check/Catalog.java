@@ -0,0 +1,91 @@
+package com.minisqlpp.check;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.minisqlpp.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Table schemas from catalog.json: each table maps its columns to a type,
+ * either as a bare type name or as {@code {"type": "INT", "index": true}}
+ * to also declare a secondary index on the column. Statistics written by the
+ * analyze command next to the file are loaded with it.
+ */
+public class Catalog {
+    private final Map<String, Map<String, Type>> tables = new HashMap<>();
+    private final Map<String, List<String>> indexes = new HashMap<>();
+    private Statistics statistics = new Statistics();
+
+    public static Catalog load(Path catalogPath) throws IOException {
+        try (Metrics.Span span = Metrics.start("catalog", catalogPath)) {
+            Catalog catalog = read(catalogPath);
+            catalog.statistics = Statistics.load(Statistics.path(catalogPath));
+            span.bytes(Files.size(catalogPath)).rows(catalog.tables.size());
+            return catalog;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Catalog read(Path catalogPath) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Map<String, Object>> raw = mapper.readValue(catalogPath.toFile(), Map.class);
+        Catalog catalog = new Catalog();
+        for (var entry : raw.entrySet()) {
+            Map<String, Type> cols = new LinkedHashMap<>();
+            List<String> indexed = new ArrayList<>();
+            for (var c : entry.getValue().entrySet()) {
+                String name = c.getKey().toLowerCase();
+                Object type = c.getValue();
+                if (type instanceof Map<?, ?> m) {
+                    if (Boolean.TRUE.equals(m.get("index"))) indexed.add(name);
+                    type = m.get("type");
+                }
+                if (!(type instanceof String t)) throw new IOException("No type for column " + c.getKey() + " of " + entry.getKey());
+                cols.put(name, Type.valueOf(t.toUpperCase()));
+            }
+            catalog.tables.put(entry.getKey().toLowerCase(), cols);
+            catalog.indexes.put(entry.getKey().toLowerCase(), indexed);
+        }
+        return catalog;
+    }
+
+    /** Names of all tables. */
+    public Set<String> tables() { return tables.keySet(); }
+
+    /** Columns of a table declared indexed, in declaration order; empty if none or the table is unknown. */
+    public List<String> indexes(String table) { return indexes.getOrDefault(table.toLowerCase(), List.of()); }
+
+    /** Statistics of the analyzed tables; empty when there are none. */
+    public Statistics statistics() { return statistics; }
+
+    public boolean hasTable(String table) { return tables.containsKey(table.toLowerCase()); }
+
+    /** Columns of a table in declaration order, or null if the table is unknown. */
+    public Map<String, Type> columns(String table) { return tables.get(table.toLowerCase()); }
+
+    /** Declared type of a column, or null if either the table or the column is unknown. */
+    public Type type(String table, String column) {
+        Map<String, Type> cols = columns(table);
+        return cols == null ? null : cols.get(column.toLowerCase());
+    }
+
+    /** Position of a column among its table's columns in declaration order, or -1 if either is unknown. */
+    public int ordinal(String table, String column) {
+        Map<String, Type> cols = columns(table);
+        if (cols == null) return -1;
+        int j = 0;
+        for (String c : cols.keySet()) {
+            if (c.equals(column.toLowerCase())) return j;
+            j++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,223 @@
+package com.minisqlpp.check;
+
+import com.minisqlpp.ast.*;
+import com.minisqlpp.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Rewrites a checked, bound query before it is run or emitted, by rules
+ * that need no statistics. Operators over literals only are folded, except
+ * a division by zero, which is left to fail as it would have. AND and OR
+ * drop TRUE and FALSE operands and repeated ones, NOT NOT x is x and NOT of
+ * a comparison inverts it, and a comparison with a constant on the left is
+ * turned so the column side is on the left, where the engines fuse and push
+ * it down. A conjunction that pins a column to two values, to an empty INT
+ * range or to a value it also excludes is FALSE; a WHERE that comes out
+ * FALSE leaves a FALSE literal the engines answer without reading a file,
+ * and one that comes out TRUE is dropped. Folded booleans are Lits of a
+ * Boolean, which no query can spell.
+ */
+public final class Optimizer {
+    private static final Lit TRUE = new Lit(true);
+    private static final Lit FALSE = new Lit(false);
+
+    private Optimizer() {}
+
+    public static Query optimize(Query q) {
+        Metrics.Span span = Metrics.start("optimize");
+        try {
+            List<SelectItem> select = new ArrayList<>();
+            for (SelectItem si : q.select()) select.add(si instanceof SelectExpr se ? new SelectExpr(expr(se.expr()), se.alias()) : si);
+            Optional<Expr> where = q.where().map(Optimizer::expr).filter(w -> !isTrue(w));
+            List<Expr> groupBy = new ArrayList<>();
+            for (Expr g : q.groupBy()) groupBy.add(expr(g));
+            List<OrderSpec> orderBy = new ArrayList<>();
+            for (OrderSpec os : q.orderBy()) orderBy.add(new OrderSpec(expr(os.expr()), os.asc()));
+            Query optimized = new Query(select, q.from(), where, groupBy, orderBy, q.limit(), q.explain());
+            // results keep the names the query gave them
+            optimized.output(q.output());
+            return optimized;
+        } finally {
+            span.close();
+        }
+    }
+
+    /** Whether the query's WHERE was found never to hold, so it has no rows to read. */
+    public static boolean empty(Query q) {
+        return q.where().map(Optimizer::isFalse).orElse(false);
+    }
+
+    static Expr expr(Expr e) {
+        if (e instanceof Bin b) {
+            Expr l = expr(b.left()), r = expr(b.right());
+            return switch (b.op()) {
+                case AND, OR -> logical(b.op(), l, r);
+                case EQ, NEQ, LT, LTE, GT, GTE -> compare(b.op(), l, r);
+                default -> arithmetic(b.op(), l, r);
+            };
+        } else if (e instanceof Un u) {
+            Expr x = expr(u.expr());
+            if (u.op() == Un.Op.NEG) return x instanceof Lit lit && lit.value() instanceof Integer v ? new Lit(-v) : new Un(u.op(), x);
+            return not(x);
+        } else if (e instanceof Agg a) {
+            return a.arg() == null ? a : new Agg(a.fn(), expr(a.arg()));
+        }
+        return e;
+    }
+
+    private static Expr arithmetic(Bin.Op op, Expr l, Expr r) {
+        if (l instanceof Lit x && r instanceof Lit y && x.value() instanceof Integer a && y.value() instanceof Integer b) {
+            switch (op) {
+                case PLUS -> { return new Lit(a + b); }
+                case MINUS -> { return new Lit(a - b); }
+                case STAR -> { return new Lit(a * b); }
+                default -> { if (b != 0) return new Lit(a / b); }
+            }
+        }
+        return new Bin(l, op, r);
+    }
+
+    private static Expr compare(Bin.Op op, Expr l, Expr r) {
+        if (l instanceof Lit x && r instanceof Lit y) {
+            int c = x.value() instanceof Boolean a ? Boolean.compare(a, (Boolean) y.value()) : compare(x.value(), y.value());
+            return new Lit(switch (op) {
+                case EQ -> c == 0;
+                case NEQ -> c != 0;
+                case LT -> c < 0;
+                case LTE -> c <= 0;
+                case GT -> c > 0;
+                default -> c >= 0;
+            });
+        }
+        if (constant(l) && !constant(r)) return new Bin(r, flip(op), l);
+        return new Bin(l, op, r);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static Expr not(Expr x) {
+        if (x instanceof Lit lit && lit.value() instanceof Boolean v) return new Lit(!v);
+        if (x instanceof Un u && u.op() == Un.Op.NOT) return u.expr();
+        if (x instanceof Bin b) {
+            Bin.Op inverse = switch (b.op()) {
+                case EQ -> Bin.Op.NEQ;
+                case NEQ -> Bin.Op.EQ;
+                case LT -> Bin.Op.GTE;
+                case LTE -> Bin.Op.GT;
+                case GT -> Bin.Op.LTE;
+                case GTE -> Bin.Op.LT;
+                default -> null;
+            };
+            if (inverse != null) return new Bin(b.left(), inverse, b.right());
+        }
+        return new Un(Un.Op.NOT, x);
+    }
+
+    // AND and OR over their flattened operands: the absorbing literal wins,
+    // the neutral one and repeats are dropped, and a conjunction is checked
+    // for columns it constrains past any value.
+    private static Expr logical(Bin.Op op, Expr l, Expr r) {
+        boolean and = op == Bin.Op.AND;
+        List<Expr> operands = new ArrayList<>();
+        for (Expr e : List.of(l, r)) flatten(op, e, operands);
+        List<Expr> kept = new ArrayList<>();
+        for (Expr e : operands) {
+            if (and ? isFalse(e) : isTrue(e)) return and ? FALSE : TRUE;
+            if (and ? isTrue(e) : isFalse(e)) continue;
+            if (kept.stream().noneMatch(k -> TypeChecker.same(k, e))) kept.add(e);
+        }
+        if (kept.isEmpty()) return and ? TRUE : FALSE;
+        if (and && contradicts(kept)) return FALSE;
+        Expr out = kept.get(0);
+        for (int i = 1; i < kept.size(); i++) out = new Bin(out, op, kept.get(i));
+        return out;
+    }
+
+    private static void flatten(Bin.Op op, Expr e, List<Expr> out) {
+        if (e instanceof Bin b && b.op() == op) {
+            flatten(op, b.left(), out);
+            flatten(op, b.right(), out);
+        } else {
+            out.add(e);
+        }
+    }
+
+    // What the conjuncts so far allow of one column: the value it must
+    // equal, if any, and for INT the range it must fall in.
+    private static final class Bounds {
+        Object equal;
+        long low = Long.MIN_VALUE, high = Long.MAX_VALUE;
+        final List<Object> excluded = new ArrayList<>();
+    }
+
+    private static boolean contradicts(List<Expr> conjuncts) {
+        Map<String,Bounds> columns = new HashMap<>();
+        for (Expr c : conjuncts) {
+            Col col;
+            Bin.Op op;
+            Object v;
+            if (c instanceof Col x) {
+                col = x;
+                op = Bin.Op.EQ;
+                v = true;
+            } else if (c instanceof Un u && u.op() == Un.Op.NOT && u.expr() instanceof Col x) {
+                col = x;
+                op = Bin.Op.EQ;
+                v = false;
+            } else if (c instanceof Bin b && b.left() instanceof Col x && b.right() instanceof Lit lit) {
+                col = x;
+                op = b.op();
+                v = lit.value();
+            } else {
+                continue;
+            }
+            Bounds bounds = columns.computeIfAbsent((col.table() + "." + col.name()).toLowerCase(), k -> new Bounds());
+            if (op == Bin.Op.EQ) {
+                if (bounds.equal != null && !bounds.equal.equals(v)) return true;
+                bounds.equal = v;
+            } else if (op == Bin.Op.NEQ) {
+                bounds.excluded.add(v);
+            } else if (v instanceof Integer i) {
+                switch (op) {
+                    case LT -> bounds.high = Math.min(bounds.high, i - 1L);
+                    case LTE -> bounds.high = Math.min(bounds.high, i);
+                    case GT -> bounds.low = Math.max(bounds.low, i + 1L);
+                    default -> bounds.low = Math.max(bounds.low, i);
+                }
+            }
+            if (bounds.low > bounds.high || bounds.equal != null && bounds.excluded.contains(bounds.equal)) return true;
+            if (bounds.equal instanceof Integer i && (i < bounds.low || i > bounds.high)) return true;
+        }
+        return false;
+    }
+
+    private static boolean constant(Expr e) {
+        return e instanceof Lit || e instanceof Param || e instanceof Un u && u.op() == Un.Op.NEG && constant(u.expr());
+    }
+
+    private static Bin.Op flip(Bin.Op op) {
+        return switch (op) {
+            case LT -> Bin.Op.GT;
+            case LTE -> Bin.Op.GTE;
+            case GT -> Bin.Op.LT;
+            case GTE -> Bin.Op.LTE;
+            default -> op;
+        };
+    }
+
+    private static boolean isTrue(Expr e) {
+        return e instanceof Lit lit && Boolean.TRUE.equals(lit.value());
+    }
+
+    private static boolean isFalse(Expr e) {
+        return e instanceof Lit lit && Boolean.FALSE.equals(lit.value());
+    }
+}
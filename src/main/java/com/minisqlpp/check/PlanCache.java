@@ -0,0 +1,172 @@
+package com.minisqlpp.check;
+
+import com.minisqlpp.ast.*;
+import com.minisqlpp.parse.Parser;
+import com.minisqlpp.parse.Scanner;
+import com.minisqlpp.parse.Token;
+import com.minisqlpp.parse.TokenType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Parsed and type-checked queries keyed by their normalized text, so a query
+ * seen before, or one that differs only in its literals, skips the front end.
+ * The key is the token stream with keywords by type, identifiers verbatim and
+ * every literal except LIMIT's reduced to its kind; a query with GROUP BY
+ * keeps its literals, since whether a selected expression matches a grouped
+ * one depends on them. A hit binds the query's
+ * own literals and ? values into a copy of the cached query, which is never
+ * modified and so can be shared by concurrent callers, and returns the copy
+ * as the {@link Optimizer} rewrites it. An entry remembers the
+ * catalog it was checked against and misses once that is replaced; the least
+ * recently used entries go past the capacity.
+ */
+public final class PlanCache {
+    private record Plan(Catalog catalog, Query query, List<Type> params) {}
+
+    private final int capacity;
+    private final LinkedHashMap<String,Plan> plans = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    public PlanCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** The checked query for sql with args, converted to the types they take, bound to its ? placeholders in order. */
+    public Query prepare(String sql, Catalog catalog, List<String> args) {
+        List<Token> tokens = new Scanner(sql).scan();
+        StringBuilder key = new StringBuilder();
+        List<Object> literals = new ArrayList<>();
+        boolean verbatim = false;
+        for (Token t : tokens) verbatim |= t.type() == TokenType.GROUP;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token t = tokens.get(i);
+            switch (t.type()) {
+                case NUMBER -> {
+                    if (verbatim || i > 0 && tokens.get(i - 1).type() == TokenType.LIMIT) {
+                        key.append(t.text());
+                    } else {
+                        key.append("?int");
+                        literals.add(Integer.parseInt(t.text()));
+                    }
+                }
+                case STRING -> {
+                    if (verbatim) {
+                        key.append('\'').append(t.text().replace("'", "''")).append('\'');
+                    } else {
+                        key.append("?str");
+                        literals.add(t.text());
+                    }
+                }
+                case IDENT -> key.append('"').append(t.text()).append('"');
+                default -> key.append(t.type());
+            }
+            key.append(' ');
+        }
+        String k = key.toString();
+        Plan plan;
+        synchronized (this) {
+            plan = plans.get(k);
+            if (plan != null && plan.catalog() != catalog) plan = null;
+            if (plan != null) hits++;
+            else misses++;
+        }
+        if (plan == null) {
+            Query q = new Parser(tokens).parseQuery();
+            TypeChecker checker = new TypeChecker(catalog);
+            checker.check(q);
+            plan = new Plan(catalog, q, checker.parameterTypes());
+            synchronized (this) {
+                plans.put(k, plan);
+                if (plans.size() > capacity) plans.remove(plans.keySet().iterator().next());
+            }
+        }
+        return Optimizer.optimize(new Binder(verbatim ? null : literals, values(plan.params(), args)).query(plan.query()));
+    }
+
+    /** A copy of a checked query with args, converted to the types they take, in place of its ? placeholders. */
+    public static Query bind(Query q, List<Type> types, List<String> args) {
+        return new Binder(null, values(types, args)).query(q);
+    }
+
+    public synchronized int size() { return plans.size(); }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+
+    private static List<Object> values(List<Type> types, List<String> args) {
+        if (types.size() != args.size()) {
+            throw new RuntimeException("Query has " + types.size() + " parameters but " + args.size() + " values were given");
+        }
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            if (types.get(i) == Type.STRING) {
+                values.add(args.get(i));
+                continue;
+            }
+            try {
+                values.add(Integer.parseInt(args.get(i).trim()));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Parameter ?" + (i + 1) + " takes an INT, not " + args.get(i));
+            }
+        }
+        return values;
+    }
+
+    // Copies a query, replacing its literals in source order when given new
+    // ones and its placeholders with their values.
+    private static final class Binder {
+        private final List<Object> literals;
+        private final List<Object> params;
+        private int next;
+
+        Binder(List<Object> literals, List<Object> params) {
+            this.literals = literals;
+            this.params = params;
+        }
+
+        Query query(Query q) {
+            List<SelectItem> select = new ArrayList<>();
+            for (SelectItem si : q.select()) select.add(si instanceof SelectExpr se ? new SelectExpr(expr(se.expr()), se.alias()) : si);
+            Optional<Expr> where = q.where().map(this::expr);
+            List<Expr> groupBy = new ArrayList<>();
+            for (Expr g : q.groupBy()) groupBy.add(expr(g));
+            List<OrderSpec> orderBy = new ArrayList<>();
+            for (OrderSpec os : q.orderBy()) orderBy.add(new OrderSpec(expr(os.expr()), os.asc()));
+            Query bound = new Query(select, q.from(), where, groupBy, orderBy, q.limit(), q.explain());
+            bound.output(output(q.output(), select));
+            return bound;
+        }
+
+        // The checked output with each selected expression renamed for what
+        // was bound into it; every * expands to the same columns.
+        private static List<Query.Output> output(List<Query.Output> checked, List<SelectItem> select) {
+            long stars = select.stream().filter(si -> si instanceof SelectAll).count();
+            int width = stars == 0 ? 0 : (int) ((checked.size() - (select.size() - stars)) / stars);
+            List<Query.Output> out = new ArrayList<>();
+            int i = 0;
+            for (SelectItem si : select) {
+                if (si instanceof SelectExpr se) {
+                    out.add(new Query.Output(TypeChecker.name(se), checked.get(i++).type()));
+                } else {
+                    out.addAll(checked.subList(i, i += width));
+                }
+            }
+            return out;
+        }
+
+        private Expr expr(Expr e) {
+            if (e instanceof Lit lit) return literals == null ? lit : new Lit(literals.get(next++));
+            if (e instanceof Param p) return new Lit(params.get(p.index()));
+            if (e instanceof Col c) return c.copy();
+            if (e instanceof Bin b) return new Bin(expr(b.left()), b.op(), expr(b.right()));
+            if (e instanceof Agg a) return new Agg(a.fn(), a.arg() == null ? null : expr(a.arg()));
+            Un u = (Un) e;
+            return new Un(u.op(), expr(u.expr()));
+        }
+    }
+}
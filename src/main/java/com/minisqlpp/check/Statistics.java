@@ -0,0 +1,99 @@
+package com.minisqlpp.check;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Table statistics the analyze command writes to stats.json next to
+ * catalog.json, for the cost-based join planner: each table's row count and
+ * the size of its CSV when counted, and per column an estimate of its
+ * distinct values and, for INT columns, an equi-depth histogram whose first
+ * and last bounds are the column's min and max.
+ *
+ * <pre>
+ * {table: {"rows": n, "csv_size": bytes, "columns": {column: {"distinct": d, "histogram": [bounds]}}}}
+ * </pre>
+ */
+public final class Statistics {
+    /** A column's distinct-value estimate and its histogram bounds, null for a non-INT column. */
+    public record Column(double distinct, int[] histogram) {}
+
+    public record Table(long rows, long csvSize, Map<String,Column> columns) {
+        /** The row count scaled to the CSV's current size, should it have changed since. */
+        public double rows(long size) {
+            return csvSize > 0 && size != csvSize ? (double) rows * size / csvSize : rows;
+        }
+    }
+
+    private final Map<String,Table> tables = new TreeMap<>();
+
+    /** Where the statistics for a catalog file live. */
+    public static Path path(Path catalog) {
+        return catalog.resolveSibling("stats.json");
+    }
+
+    /** Statistics from a file written by {@link #write}; none if there is no file. */
+    public static Statistics load(Path file) throws IOException {
+        Statistics stats = new Statistics();
+        if (!Files.isRegularFile(file)) return stats;
+        JsonNode root = new ObjectMapper().readTree(file.toFile());
+        for (var t = root.fields(); t.hasNext(); ) {
+            var table = t.next();
+            Map<String,Column> columns = new LinkedHashMap<>();
+            for (var c = table.getValue().path("columns").fields(); c.hasNext(); ) {
+                var column = c.next();
+                JsonNode h = column.getValue().path("histogram");
+                int[] bounds = null;
+                if (h.isArray()) {
+                    bounds = new int[h.size()];
+                    for (int i = 0; i < bounds.length; i++) bounds[i] = h.get(i).asInt();
+                }
+                columns.put(column.getKey().toLowerCase(), new Column(column.getValue().path("distinct").asDouble(), bounds));
+            }
+            stats.tables.put(table.getKey().toLowerCase(),
+                    new Table(table.getValue().path("rows").asLong(), table.getValue().path("csv_size").asLong(), columns));
+        }
+        return stats;
+    }
+
+    public void write(Path file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        for (var t : tables.entrySet()) {
+            ObjectNode table = root.putObject(t.getKey());
+            table.put("rows", t.getValue().rows());
+            table.put("csv_size", t.getValue().csvSize());
+            ObjectNode columns = table.putObject("columns");
+            for (var c : t.getValue().columns().entrySet()) {
+                ObjectNode column = columns.putObject(c.getKey());
+                column.put("distinct", Math.round(c.getValue().distinct()));
+                if (c.getValue().histogram() == null) continue;
+                ArrayNode bounds = column.putArray("histogram");
+                for (int b : c.getValue().histogram()) bounds.add(b);
+            }
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+    }
+
+    /** Statistics of a table, or null if it was never analyzed. */
+    public Table table(String name) {
+        return tables.get(name.toLowerCase());
+    }
+
+    public void put(String name, Table table) {
+        tables.put(name.toLowerCase(), table);
+    }
+
+    public boolean isEmpty() {
+        return tables.isEmpty();
+    }
+}
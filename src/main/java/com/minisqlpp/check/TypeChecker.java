@@ -1,71 +1,179 @@
 package com.minisqlpp.check;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.minisqlpp.ast.*;
+import com.minisqlpp.metrics.Metrics;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class TypeChecker {
-    private final Map<String, Map<String, Type>> catalog = new HashMap<>();
+    private final Catalog catalog;
+    private final Map<Integer,Type> params = new HashMap<>();
+    // FROM aliases in slot order, for binding columns
+    private final List<String> aliases = new ArrayList<>();
+    // why an aggregate may not appear where checking is, or null if it may
+    private String noAggregates;
 
-    @SuppressWarnings("unchecked")
     public TypeChecker(Path catalogPath) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Map<String, String>> raw = mapper.readValue(catalogPath.toFile(), Map.class);
-        for (var entry : raw.entrySet()) {
-            Map<String, Type> cols = new HashMap<>();
-            for (var c : entry.getValue().entrySet()) {
-                cols.put(c.getKey().toLowerCase(), Type.valueOf(c.getValue().toUpperCase()));
-            }
-            catalog.put(entry.getKey().toLowerCase(), cols);
-        }
+        this(Catalog.load(catalogPath));
+    }
+
+    public TypeChecker(Catalog catalog) {
+        this.catalog = catalog;
     }
 
     public void check(Query q) {
+        Metrics.Span span = Metrics.start("typecheck");
+        try {
+            checkQuery(q);
+        } finally {
+            span.close();
+        }
+    }
+
+    private void checkQuery(Query q) {
+        params.clear();
+        aliases.clear();
         Map<String,String> aliasToTable = new HashMap<>();
         for (TableRef tr : q.from()) {
             String table = tr.name().toLowerCase();
-            if (!catalog.containsKey(table)) throw new RuntimeException("Unknown table " + tr.name());
+            if (!catalog.hasTable(table)) throw new RuntimeException("Unknown table " + tr.name());
             String alias = tr.alias() != null ? tr.alias() : tr.name();
             aliasToTable.put(alias.toLowerCase(), table);
+            aliases.add(alias.toLowerCase());
+        }
+        noAggregates = null;
+        List<Query.Output> output = new ArrayList<>();
+        for (SelectItem si : q.select()) {
+            if (si instanceof SelectExpr se) {
+                Type t = check(se.expr(), aliasToTable);
+                output.add(new Query.Output(name(se), t));
+                continue;
+            }
+            for (TableRef tr : q.from()) {
+                String alias = (tr.alias() != null ? tr.alias() : tr.name()).toLowerCase();
+                catalog.columns(tr.name()).forEach((c, t) -> output.add(new Query.Output(alias + "." + c, t)));
+            }
         }
+        q.output(output);
+        noAggregates = "Aggregate functions are not allowed in WHERE";
+        q.where().ifPresent(e -> check(e, aliasToTable));
+        noAggregates = "Aggregate functions are not allowed in GROUP BY";
+        for (Expr g : q.groupBy()) check(g, aliasToTable);
+        noAggregates = null;
+        for (OrderSpec os : q.orderBy()) check(os.expr(), aliasToTable);
+        if (!q.aggregates()) return;
+        // a grouped query outputs one row per group, so what it selects or
+        // sorts by must be one of the group's keys or an aggregate over it
         for (SelectItem si : q.select()) {
-            if (si instanceof SelectExpr se) resolveExpr(se.expr(), aliasToTable);
+            if (si instanceof SelectAll) throw new RuntimeException("SELECT * cannot be used with GROUP BY or aggregates");
+            grouped(((SelectExpr) si).expr(), q.groupBy());
+        }
+        for (OrderSpec os : q.orderBy()) grouped(os.expr(), q.groupBy());
+    }
+
+    private static void grouped(Expr e, List<Expr> groupBy) {
+        for (Expr g : groupBy) if (same(e, g)) return;
+        if (e instanceof Col c) {
+            throw new RuntimeException("Column " + c.name() + " must appear in GROUP BY or be used in an aggregate");
+        } else if (e instanceof Bin b) {
+            grouped(b.left(), groupBy);
+            grouped(b.right(), groupBy);
+        } else if (e instanceof Un u) {
+            grouped(u.expr(), groupBy);
         }
-        q.where().ifPresent(e -> resolveExpr(e, aliasToTable));
-        for (OrderSpec os : q.orderBy()) resolveExpr(os.expr(), aliasToTable);
+    }
+
+    /** Whether two checked expressions are the same, as GROUP BY matches the expressions selected. */
+    public static boolean same(Expr a, Expr b) {
+        if (a instanceof Col x && b instanceof Col y) {
+            return x.name().equalsIgnoreCase(y.name()) && (x.table() == null ? y.table() == null : x.table().equalsIgnoreCase(y.table()));
+        } else if (a instanceof Lit x && b instanceof Lit y) {
+            return x.value().equals(y.value());
+        } else if (a instanceof Param x && b instanceof Param y) {
+            return x.index() == y.index();
+        } else if (a instanceof Bin x && b instanceof Bin y) {
+            return x.op() == y.op() && same(x.left(), y.left()) && same(x.right(), y.right());
+        } else if (a instanceof Un x && b instanceof Un y) {
+            return x.op() == y.op() && same(x.expr(), y.expr());
+        } else if (a instanceof Agg x && b instanceof Agg y) {
+            return x.fn() == y.fn() && (x.arg() == null ? y.arg() == null : y.arg() != null && same(x.arg(), y.arg()));
+        }
+        return false;
+    }
+
+    /**
+     * Types the last checked query's ? placeholders take from what they are
+     * compared or combined with, in placeholder order.
+     */
+    public List<Type> parameterTypes() {
+        List<Type> types = new ArrayList<>();
+        for (int i = 0; i < params.size(); i++) types.add(params.get(i));
+        return types;
+    }
+
+    private Type check(Expr e, Map<String,String> aliasToTable) {
+        Type t = resolveExpr(e, aliasToTable);
+        return t != null ? t : infer(e, null);
+    }
+
+    /** The header of a selected expression: its alias, or its SQL. */
+    public static String name(SelectExpr se) {
+        return se.alias() != null ? se.alias() : Sql.of(se.expr());
+    }
+
+    // A placeholder's type comes from its context; null while unknown.
+    private Type infer(Expr e, Type t) {
+        if (!(e instanceof Param p)) return null;
+        if (t == null) throw new RuntimeException("Cannot infer the type of parameter ?" + (p.index() + 1));
+        if (t == Type.BOOL) throw new RuntimeException("Parameter ?" + (p.index() + 1) + " would be BOOL, which has no literals");
+        params.put(p.index(), t);
+        return t;
     }
 
     private Type resolveExpr(Expr e, Map<String,String> aliasToTable) {
         if (e instanceof Lit lit) {
-            return (lit.value() instanceof Integer) ? Type.INT : Type.STRING;
+            return lit.type();
+        } else if (e instanceof Param p) {
+            return params.get(p.index());
         } else if (e instanceof Col col) {
             if (col.table() != null) {
                 String alias = col.table().toLowerCase();
                 String table = aliasToTable.get(alias);
                 if (table == null) throw new RuntimeException("Unknown table alias " + col.table());
-                Type t = catalog.get(table).get(col.name().toLowerCase());
+                Type t = catalog.type(table, col.name());
                 if (t == null) throw new RuntimeException("Unknown column " + col.name());
                 col.table(alias); // normalized
+                col.bind(aliases.indexOf(alias), catalog.ordinal(table, col.name()), t);
                 return t;
             } else {
                 String foundAlias = null; Type foundType = null; int count = 0;
                 for (var entry : aliasToTable.entrySet()) {
-                    Type t = catalog.get(entry.getValue()).get(col.name().toLowerCase());
+                    Type t = catalog.type(entry.getValue(), col.name());
                     if (t != null) {
                         foundAlias = entry.getKey(); foundType = t; count++;
                     }
                 }
                 if (count == 0) throw new RuntimeException("Unknown column " + col.name());
                 if (count > 1) throw new RuntimeException("Ambiguous column " + col.name());
-                col.table(foundAlias); return foundType;
+                col.table(foundAlias);
+                col.bind(aliases.indexOf(foundAlias), catalog.ordinal(aliasToTable.get(foundAlias), col.name()), foundType);
+                return foundType;
             }
         } else if (e instanceof Bin b) {
             Type l = resolveExpr(b.left(), aliasToTable);
             Type r = resolveExpr(b.right(), aliasToTable);
+            Type operand = switch (b.op()) {
+                case PLUS, MINUS, STAR, SLASH -> Type.INT;
+                case AND, OR -> Type.BOOL;
+                default -> l != null ? l : r;
+            };
+            if (l == null) l = infer(b.left(), operand);
+            if (r == null) r = infer(b.right(), operand);
             return switch (b.op()) {
                 case PLUS, MINUS, STAR, SLASH -> {
                     if (l != Type.INT || r != Type.INT) throw new RuntimeException("Arithmetic on non-INT");
@@ -82,6 +190,7 @@ public class TypeChecker {
             };
         } else if (e instanceof Un u) {
             Type t = resolveExpr(u.expr(), aliasToTable);
+            if (t == null) t = infer(u.expr(), u.op() == Un.Op.NEG ? Type.INT : Type.BOOL);
             return switch (u.op()) {
                 case NEG -> {
                     if (t != Type.INT) throw new RuntimeException("Negation on non-int");
@@ -92,6 +201,21 @@ public class TypeChecker {
                     yield Type.BOOL;
                 }
             };
+        } else if (e instanceof Agg a) {
+            if (noAggregates != null) throw new RuntimeException(noAggregates);
+            if (a.arg() == null) return Type.INT;
+            noAggregates = "Aggregate functions cannot be nested";
+            Type t = resolveExpr(a.arg(), aliasToTable);
+            noAggregates = null;
+            if (t == null) t = infer(a.arg(), a.fn() == Agg.Fn.SUM || a.fn() == Agg.Fn.AVG ? Type.INT : null);
+            return switch (a.fn()) {
+                case COUNT -> Type.INT;
+                case SUM, AVG -> {
+                    if (t != Type.INT) throw new RuntimeException(a.fn() + " of non-INT");
+                    yield Type.INT;
+                }
+                case MIN, MAX -> t;
+            };
         } else {
             throw new RuntimeException("Unknown expression type");
         }
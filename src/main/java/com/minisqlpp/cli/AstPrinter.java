@@ -13,12 +13,17 @@ public class AstPrinter {
         sb.append(q.from().stream().map(t -> t.name() + (t.alias()!=null?" as "+t.alias():""))
                 .collect(Collectors.joining(",")));
         q.where().ifPresent(w -> sb.append(", where=").append(printExpr(w)));
+        if (!q.groupBy().isEmpty()) {
+            sb.append(", groupBy=");
+            sb.append(q.groupBy().stream().map(AstPrinter::printExpr).collect(Collectors.joining(",")));
+        }
         if (!q.orderBy().isEmpty()) {
             sb.append(", orderBy=");
             sb.append(q.orderBy().stream().map(o -> printExpr(o.expr()) + (o.asc()?" ASC":" DESC"))
                     .collect(Collectors.joining(",")));
         }
         if (q.limit() != null) sb.append(", limit=").append(q.limit());
+        if (q.explain() != Query.Explain.NONE) sb.append(", explain=").append(q.explain());
         sb.append("}");
         return sb.toString();
     }
@@ -31,9 +36,11 @@ public class AstPrinter {
 
     private static String printExpr(Expr e) {
         if (e instanceof Lit lit) return String.valueOf(lit.value());
+        if (e instanceof Param p) return "?" + (p.index() + 1);
         if (e instanceof Col c) return (c.table()!=null?c.table()+".":"") + c.name();
         if (e instanceof Bin b) return "("+printExpr(b.left())+" "+b.op()+" "+printExpr(b.right())+")";
         if (e instanceof Un u) return u.op()+"("+printExpr(u.expr())+")";
+        if (e instanceof Agg a) return a.fn()+"("+(a.arg()!=null?printExpr(a.arg()):"*")+")";
         return "?";
     }
 }
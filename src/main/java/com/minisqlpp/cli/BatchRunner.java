@@ -0,0 +1,127 @@
+package com.minisqlpp.cli;
+
+import com.minisqlpp.ast.Query;
+import com.minisqlpp.backend.CsvBackend;
+import com.minisqlpp.backend.RunOptions;
+import com.minisqlpp.backend.TableCache;
+import com.minisqlpp.backend.VectorEngine;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.PlanCache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Runs many query files in one process. Every query is parsed and checked up
+ * front, so a broken file fails before any work starts, then the rest run
+ * on a fixed pool of workers, each writing its result to its own file. The
+ * queries share a {@link TableCache}, so a table many of them read is loaded
+ * once and read from memory after that.
+ */
+public final class BatchRunner {
+    /** How one query went: error is null on success, output null on failure. */
+    public record Result(Path query, Path output, long millis, String error) {}
+
+    private final Catalog catalog;
+    private final Path dataDir;
+    private final boolean vector;
+    private final RunOptions options;
+    private final TableCache tables;
+    private final int jobs;
+
+    public BatchRunner(Catalog catalog, Path dataDir, boolean vector, RunOptions options, TableCache tables, int jobs) {
+        this.catalog = catalog;
+        this.dataDir = dataDir;
+        this.vector = vector;
+        this.options = options;
+        this.tables = tables;
+        this.jobs = Math.max(1, jobs);
+    }
+
+    /**
+     * The query files a batch names: every .sql file in a directory, by
+     * name, or the paths listed one per line in a manifest, relative to it;
+     * blank lines and lines starting with # are skipped.
+     */
+    public static List<Path> queries(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source)) {
+                return files.filter(f -> f.getFileName().toString().endsWith(".sql")).sorted().toList();
+            }
+        }
+        List<Path> out = new ArrayList<>();
+        for (String line : Files.readAllLines(source)) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) out.add(source.toAbsolutePath().resolveSibling(line));
+        }
+        return out;
+    }
+
+    /** Runs the queries, writing each result to outDir as its file name with the format's extension; results in query order. */
+    public List<Result> run(List<Path> queries, Path outDir) throws IOException, InterruptedException {
+        Files.createDirectories(outDir);
+        String ext = "." + options.format().name().toLowerCase();
+        PlanCache plans = new PlanCache(queries.size());
+        Set<Path> outputs = new HashSet<>();
+        Result[] results = new Result[queries.size()];
+        Query[] prepared = new Query[queries.size()];
+        Path[] outs = new Path[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            Path file = queries.get(i);
+            outs[i] = outDir.resolve(file.getFileName().toString().replaceFirst("\\.sql$", "") + ext);
+            try {
+                if (!outputs.add(outs[i])) throw new RuntimeException("Another query also writes " + outs[i].getFileName());
+                prepared[i] = plans.prepare(Files.readString(file), catalog, List.of());
+            } catch (IOException | RuntimeException e) {
+                results[i] = new Result(file, null, 0, message(e));
+            }
+        }
+        List<Future<Result>> running = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        try {
+            for (int i = 0; i < queries.size(); i++) {
+                Path file = queries.get(i), out = outs[i];
+                Query q = prepared[i];
+                running.add(q == null ? null : pool.submit(() -> execute(file, q, out)));
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (running.get(i) == null) continue;
+                try {
+                    results[i] = running.get(i).get();
+                } catch (ExecutionException e) {
+                    results[i] = new Result(queries.get(i), null, 0, message(e.getCause()));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return List.of(results);
+    }
+
+    private Result execute(Path file, Query q, Path out) throws IOException {
+        long start = System.nanoTime();
+        try (OutputStream os = Files.newOutputStream(out)) {
+            if (vector) new VectorEngine(catalog, options, tables).run(q, dataDir, os);
+            else new CsvBackend(catalog, options, tables).run(q, dataDir, os);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(out);
+            return new Result(file, null, (System.nanoTime() - start) / 1_000_000, message(e));
+        }
+        return new Result(file, out, (System.nanoTime() - start) / 1_000_000, null);
+    }
+
+    private static String message(Throwable e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package com.minisqlpp.cli;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.minisqlpp.ast.Query;
+import com.minisqlpp.backend.CsvBackend;
+import com.minisqlpp.backend.RunOptions;
+import com.minisqlpp.backend.VectorEngine;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Optimizer;
+import com.minisqlpp.check.Type;
+import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.parse.Parser;
+import com.minisqlpp.parse.Scanner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A fixed suite of queries derived from a catalog, timed against data from
+ * {@link DataGenerator}. Every table gets a filtered scan, a point lookup on
+ * id, a top-N and a full sort over its first plain INT column, and every
+ * foreign key a filtered join with its parent. Each query is run a few times
+ * untimed, then timed; the median counts. Results are written as JSON and
+ * can be checked against an earlier file as a baseline.
+ */
+public final class BenchSuite {
+    public record Case(String name, String sql) {}
+
+    private final Catalog catalog;
+    private final Path dataDir;
+    private final boolean vector;
+    private final RunOptions options;
+    private final int warmup;
+    private final int runs;
+
+    public BenchSuite(Catalog catalog, Path dataDir, boolean vector, RunOptions options, int warmup, int runs) {
+        this.catalog = catalog;
+        this.dataDir = dataDir;
+        this.vector = vector;
+        this.options = options;
+        this.warmup = warmup;
+        this.runs = Math.max(1, runs);
+    }
+
+    /** The suite for a catalog, in a fixed order. */
+    public static List<Case> cases(Catalog catalog) {
+        List<Case> cases = new ArrayList<>();
+        for (String t : new TreeSet<>(catalog.tables())) {
+            Map<String,Type> columns = catalog.columns(t);
+            String value = null;
+            for (var c : columns.entrySet()) {
+                if (value == null && c.getValue() == Type.INT && !c.getKey().equals("id") && DataGenerator.parent(catalog, t, c.getKey()) == null) value = c.getKey();
+            }
+            boolean id = columns.get("id") == Type.INT;
+            if (value != null) {
+                String v = t + "." + value, key = id ? t + ".id" : v;
+                cases.add(new Case(t + ".filter", "SELECT * FROM " + t + " WHERE " + v + " >= 500"));
+                cases.add(new Case(t + ".topn", "SELECT " + key + ", " + v + " FROM " + t + " ORDER BY " + v + " DESC, " + key + " LIMIT 10"));
+                cases.add(new Case(t + ".sort", "SELECT " + key + ", " + v + " FROM " + t + " WHERE " + v + " < 100 ORDER BY " + v + ", " + key));
+            }
+            if (id) cases.add(new Case(t + ".point", "SELECT * FROM " + t + " WHERE " + t + ".id = 1"));
+            for (String column : columns.keySet()) {
+                String p = DataGenerator.parent(catalog, t, column);
+                if (p == null) continue;
+                String out = value != null ? t + "." + value : t + ".id";
+                String where = t + "." + column + " = " + p + ".id" + (value != null ? " AND " + t + "." + value + " > 900" : "");
+                cases.add(new Case(t + ".join." + p, "SELECT " + p + ".id, " + out + " FROM " + t + ", " + p + " WHERE " + where));
+            }
+        }
+        return cases;
+    }
+
+    /** Times each case; milliseconds of every timed run, by case name. */
+    public Map<String,double[]> run(List<Case> cases) throws IOException {
+        Map<String,double[]> times = new LinkedHashMap<>();
+        for (Case c : cases) {
+            Query q = new Parser(new Scanner(c.sql()).scan()).parseQuery();
+            new TypeChecker(catalog).check(q);
+            q = Optimizer.optimize(q);
+            for (int i = 0; i < warmup; i++) execute(q);
+            double[] t = new double[runs];
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                execute(q);
+                t[i] = (System.nanoTime() - start) / 1e6;
+            }
+            times.put(c.name(), t);
+        }
+        return times;
+    }
+
+    private void execute(Query q) throws IOException {
+        if (vector) new VectorEngine(catalog, options).run(q, dataDir, OutputStream.nullOutputStream());
+        else new CsvBackend(catalog, options).run(q, dataDir, OutputStream.nullOutputStream());
+    }
+
+    public static double median(double[] times) {
+        double[] s = times.clone();
+        Arrays.sort(s);
+        return s.length % 2 == 1 ? s[s.length / 2] : (s[s.length / 2 - 1] + s[s.length / 2]) / 2;
+    }
+
+    /** {"engine": ..., "queries": {name: {"median_ms": m, "runs_ms": [...]}}} */
+    public static void write(Path file, String engine, Map<String,double[]> times) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        root.put("engine", engine);
+        ObjectNode queries = root.putObject("queries");
+        for (var e : times.entrySet()) {
+            ObjectNode q = queries.putObject(e.getKey());
+            q.put("median_ms", median(e.getValue()));
+            var all = q.putArray("runs_ms");
+            for (double t : e.getValue()) all.add(t);
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+    }
+
+    /** Median milliseconds by case name from a file written by {@link #write}. */
+    public static Map<String,Double> read(Path file) throws IOException {
+        Map<String,Double> medians = new LinkedHashMap<>();
+        JsonNode queries = new ObjectMapper().readTree(file.toFile()).path("queries");
+        for (var it = queries.fields(); it.hasNext(); ) {
+            var e = it.next();
+            medians.put(e.getKey(), e.getValue().path("median_ms").asDouble());
+        }
+        return medians;
+    }
+
+    /**
+     * Cases slower than their baseline by more than the given percent and,
+     * so that timer noise on fast queries does not count, by more than
+     * floorMillis.
+     */
+    public static List<String> regressions(Map<String,Double> baseline, Map<String,double[]> times, double percent, double floorMillis) {
+        List<String> slower = new ArrayList<>();
+        for (var e : times.entrySet()) {
+            Double base = baseline.get(e.getKey());
+            double now = median(e.getValue());
+            if (base != null && now > base * (1 + percent / 100) && now - base > floorMillis) slower.add(e.getKey());
+        }
+        return slower;
+    }
+}
@@ -0,0 +1,157 @@
+package com.minisqlpp.cli;
+
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Type;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+/**
+ * Seeded CSV data for every table of a catalog. An INT column named after
+ * another table plus _id (user_id for users or user) is a foreign key into
+ * that table's id. A table no key points out of gets {@link #BASE_ROWS} rows
+ * per unit of scale, a table with keys the fan-out times its largest
+ * parent's rows. Ids run from 1; keys pick a parent id, other INT columns a
+ * value in [0, 1000), STRING columns the column name with one of rows/10
+ * suffixes, BOOL columns either value. With skew above 0 every pick follows
+ * a Zipf law of that exponent, so low values are hot and a few parents hold
+ * most of the children. The same seed and settings always write the same
+ * files.
+ */
+public final class DataGenerator {
+    public static final int BASE_ROWS = 1000;
+    private static final int INT_VALUES = 1000;
+
+    private final Catalog catalog;
+    private final int scale;
+    private final long seed;
+    private final double skew;
+    private final int fanout;
+    private final Map<String,Integer> rows = new HashMap<>();
+
+    public DataGenerator(Catalog catalog, int scale, long seed, double skew, int fanout) {
+        this.catalog = catalog;
+        this.scale = Math.max(1, scale);
+        this.seed = seed;
+        this.skew = skew;
+        this.fanout = Math.max(1, fanout);
+    }
+
+    /** The table a column is a foreign key into, or null. */
+    static String parent(Catalog catalog, String table, String column) {
+        if (!column.endsWith("_id") || catalog.type(table, column) != Type.INT) return null;
+        String base = column.substring(0, column.length() - 3);
+        for (String t : new String[]{base, base + "s", base + "es"}) {
+            if (!t.equals(table) && catalog.type(t, "id") == Type.INT) return t;
+        }
+        return null;
+    }
+
+    /** Rows the table gets. */
+    public int rows(String table) {
+        return rows(table, new HashSet<>());
+    }
+
+    private int rows(String table, Set<String> visiting) {
+        Integer n = rows.get(table);
+        if (n != null) return n;
+        if (!visiting.add(table)) return BASE_ROWS * scale; // a cycle of keys: size it as a root
+        long most = 0;
+        for (String column : catalog.columns(table).keySet()) {
+            String p = parent(catalog, table, column);
+            if (p != null) most = Math.max(most, (long) rows(p, visiting) * fanout);
+        }
+        int count = (int) Math.min(Integer.MAX_VALUE - 8, most > 0 ? most : (long) BASE_ROWS * scale);
+        rows.put(table, count);
+        return count;
+    }
+
+    /** Writes table.csv for every table into dir; returns the rows written. */
+    public long write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        long total = 0;
+        for (String table : new TreeSet<>(catalog.tables())) total += write(table, dir.resolve(table + ".csv"));
+        return total;
+    }
+
+    private int write(String table, Path file) throws IOException {
+        int n = rows(table);
+        Map<String,Type> columns = catalog.columns(table);
+        String[] names = columns.keySet().toArray(new String[0]);
+        Sampler[] samplers = new Sampler[names.length];
+        boolean[] keys = new boolean[names.length];
+        for (int j = 0; j < names.length; j++) {
+            String p = parent(catalog, table, names[j]);
+            keys[j] = p != null;
+            samplers[j] = switch (columns.get(names[j])) {
+                case INT -> names[j].equals("id") ? null : new Sampler(p != null ? rows(p) : INT_VALUES, skew);
+                case STRING -> new Sampler(Math.max(1, n / 10), skew);
+                case BOOL -> new Sampler(2, 0);
+            };
+        }
+        SplittableRandom random = new SplittableRandom(seed ^ table.hashCode());
+        StringBuilder line = new StringBuilder();
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write(String.join(",", names));
+            out.write('\n');
+            for (int r = 1; r <= n; r++) {
+                line.setLength(0);
+                for (int j = 0; j < names.length; j++) {
+                    if (j > 0) line.append(',');
+                    if (samplers[j] == null) {
+                        line.append(r);
+                        continue;
+                    }
+                    int k = samplers[j].next(random);
+                    switch (columns.get(names[j])) {
+                        case INT -> line.append(keys[j] ? k + 1 : k);
+                        case STRING -> line.append(names[j]).append(k + 1);
+                        case BOOL -> line.append(k == 1);
+                    }
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        }
+        return n;
+    }
+
+    // Picks from [0, n): uniformly, or by a Zipf law with rank k + 1 drawn
+    // with weight 1 / (k + 1)^skew, through a binary search of the CDF.
+    private static final class Sampler {
+        private final int n;
+        private final double[] cdf;
+
+        Sampler(int n, double skew) {
+            this.n = n;
+            if (skew <= 0) {
+                cdf = null;
+                return;
+            }
+            cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) cdf[k] = sum += 1 / Math.pow(k + 1, skew);
+            for (int k = 0; k < n; k++) cdf[k] /= sum;
+        }
+
+        int next(SplittableRandom random) {
+            if (cdf == null) return random.nextInt(n);
+            double u = random.nextDouble();
+            int lo = 0, hi = n - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+}
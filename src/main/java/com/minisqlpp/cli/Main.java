@@ -1,9 +1,19 @@
 package com.minisqlpp.cli;
 
 import com.minisqlpp.ast.Query;
+import com.minisqlpp.backend.ColumnIndex;
 import com.minisqlpp.backend.CsvBackend;
 import com.minisqlpp.backend.OracleEmitter;
+import com.minisqlpp.backend.RunOptions;
+import com.minisqlpp.backend.TableAnalyzer;
+import com.minisqlpp.backend.TableCache;
+import com.minisqlpp.backend.VectorEngine;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Optimizer;
+import com.minisqlpp.check.PlanCache;
+import com.minisqlpp.check.Statistics;
 import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.metrics.Metrics;
 import com.minisqlpp.parse.Parser;
 import com.minisqlpp.parse.Scanner;
 import com.minisqlpp.parse.Token;
@@ -12,17 +22,32 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
-@Command(name="minisqlpp", subcommands = {Main.Tokens.class, Main.Ast.class, Main.Typecheck.class, Main.Run.class})
+@Command(name="minisqlpp", subcommands = {Main.Tokens.class, Main.Ast.class, Main.Typecheck.class, Main.Run.class, Main.Index.class, Main.Analyze.class, Main.Serve.class, Main.Client.class, Main.Batch.class, Main.Gen.class, Main.Bench.class})
 public class Main implements Runnable {
     public static void main(String[] args) {
         System.exit(new CommandLine(new Main()).execute(args));
     }
     @Override public void run() {}
 
+    @Option(names="--metrics", arity="0..1", fallbackValue="-", paramLabel="FILE", scope=CommandLine.ScopeType.INHERIT,
+            description="at exit, print the time, rows and bytes of each phase with latency percentiles, or write them as JSON to FILE")
+    void metrics(String file) {
+        if (file != null) Metrics.reportAtExit(file.equals("-") ? null : Path.of(file), System.err);
+    }
+
     @Command(name="tokens", description="Print tokens")
     static class Tokens implements Runnable {
         @Parameters(paramLabel="FILE") Path file;
@@ -66,12 +91,30 @@ public class Main implements Runnable {
         @Parameters(index="1", paramLabel="FILE") Path file;
         @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
         @Option(names="--data", defaultValue="data") Path dataDir;
+        @Option(names="--engine", defaultValue="row", description="csv execution engine: row or vector") String engine;
+        @Option(names="--threads", defaultValue="1", description="threads scanning the largest table (row engine)") int threads;
+        @Option(names="--sort-memory", defaultValue="0", description="MB of rows ORDER BY holds before spilling to disk; 0 for a quarter of the heap") long sortMemory;
+        @Option(names="--no-cache", description="parse the CSV files instead of reading or writing their columnar sidecars") boolean noCache;
+        @Option(names="--format", defaultValue="csv", description="result format: csv, tsv or jsonl") String format;
+        @Option(names="--param", description="value for the next ? placeholder; repeat for each") List<String> params;
         public void run() {
             try {
                 Query q = parse(file);
-                new TypeChecker(catalog).check(q);
+                Catalog cat = Catalog.load(catalog);
+                TypeChecker checker = new TypeChecker(cat);
+                checker.check(q);
+                // oracle output keeps its placeholders unless values are given
+                if (params != null || backend.equalsIgnoreCase("csv")) {
+                    q = PlanCache.bind(q, checker.parameterTypes(), params != null ? params : List.of());
+                }
+                q = Optimizer.optimize(q);
                 if (backend.equalsIgnoreCase("csv")) {
-                    new CsvBackend().run(q, dataDir);
+                    RunOptions.Format fmt = format(format);
+                    if (fmt == null) return;
+                    RunOptions options = new RunOptions(threads, sortMemory << 20, !noCache, fmt);
+                    if (engine.equalsIgnoreCase("vector")) new VectorEngine(cat, options).run(q, dataDir);
+                    else if (engine.equalsIgnoreCase("row")) new CsvBackend(cat, options).run(q, dataDir);
+                    else System.err.println("Unknown engine " + engine);
                 } else if (backend.equalsIgnoreCase("oracle")) {
                     System.out.println(new OracleEmitter().toSql(q));
                 } else {
@@ -81,6 +124,204 @@ public class Main implements Runnable {
         }
     }
 
+    @Command(name="index", description="Build the indexes declared in the catalog")
+    static class Index implements Runnable {
+        @Parameters(paramLabel="TABLE", arity="0..*", description="tables to index; all by default") List<String> tables;
+        @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
+        @Option(names="--data", defaultValue="data") Path dataDir;
+        public void run() {
+            try {
+                Catalog cat = Catalog.load(catalog);
+                for (String table : tables != null ? tables : new TreeSet<>(cat.tables())) {
+                    if (!cat.hasTable(table)) {
+                        System.err.println("Unknown table " + table);
+                        continue;
+                    }
+                    for (String column : cat.indexes(table)) {
+                        int rows = ColumnIndex.build(dataDir.resolve(table.toLowerCase() + ".csv"), column, cat.type(table, column));
+                        System.out.println("Indexed " + table.toLowerCase() + "." + column + " (" + rows + " rows)");
+                    }
+                }
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    @Command(name="analyze", description="Collect the table statistics the join planner orders joins by")
+    static class Analyze implements Runnable {
+        @Parameters(paramLabel="TABLE", arity="0..*", description="tables to analyze; all by default") List<String> tables;
+        @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
+        @Option(names="--data", defaultValue="data") Path dataDir;
+        @Option(names="--sample", defaultValue="10000", description="rows sampled for each histogram") int sample;
+        public void run() {
+            try {
+                Catalog cat = Catalog.load(catalog);
+                Path file = Statistics.path(catalog);
+                Statistics stats = Statistics.load(file);
+                for (String table : tables != null ? tables : new TreeSet<>(cat.tables())) {
+                    if (!cat.hasTable(table)) {
+                        System.err.println("Unknown table " + table);
+                        continue;
+                    }
+                    Statistics.Table t = TableAnalyzer.analyze(dataDir.resolve(table.toLowerCase() + ".csv"), cat.columns(table), sample);
+                    stats.put(table, t);
+                    System.out.println("Analyzed " + table.toLowerCase() + " (" + t.rows() + " rows)");
+                }
+                stats.write(file);
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    @Command(name="serve", description="Answer queries over a local socket, keeping tables loaded between them")
+    static class Serve implements Runnable {
+        @Option(names="--port", defaultValue="7433", description="TCP port on the loopback address; 0 for any free one") int port;
+        @Option(names="--socket", description="Unix socket path to listen on instead of a TCP port") Path socket;
+        @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
+        @Option(names="--data", defaultValue="data") Path dataDir;
+        @Option(names="--engine", defaultValue="row", description="csv execution engine: row or vector") String engine;
+        @Option(names="--threads", defaultValue="1", description="threads scanning the largest table (row engine)") int threads;
+        @Option(names="--sort-memory", defaultValue="0", description="MB of rows ORDER BY holds before spilling to disk; 0 for a quarter of the heap") long sortMemory;
+        @Option(names="--no-cache", description="parse the CSV files instead of reading or writing their columnar sidecars") boolean noCache;
+        @Option(names="--format", defaultValue="csv", description="result format: csv, tsv or jsonl") String format;
+        @Option(names="--cache-memory", defaultValue="256", description="MB of loaded tables kept in memory between queries") long cacheMemory;
+        public void run() {
+            try {
+                RunOptions.Format fmt = format(format);
+                if (fmt == null) return;
+                if (!engine.equalsIgnoreCase("row") && !engine.equalsIgnoreCase("vector")) {
+                    System.err.println("Unknown engine " + engine);
+                    return;
+                }
+                RunOptions options = new RunOptions(threads, sortMemory << 20, !noCache, fmt);
+                try (QueryServer server = new QueryServer(address(port, socket), catalog, dataDir,
+                        engine.equalsIgnoreCase("vector"), options, new TableCache(cacheMemory << 20))) {
+                    System.err.println("Listening on " + server.address());
+                    server.serve();
+                }
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    @Command(name="client", description="Run a query on a server started with serve")
+    static class Client implements Callable<Integer> {
+        @Parameters(paramLabel="FILE", description="query file, or - for standard input") String file;
+        @Option(names="--host", defaultValue="127.0.0.1") String host;
+        @Option(names="--port", defaultValue="7433") int port;
+        @Option(names="--socket", description="Unix socket path of the server") Path socket;
+        @Option(names="--param", description="value for the next ? placeholder; repeat for each") List<String> params;
+        public Integer call() throws Exception {
+            String sql = file.equals("-") ? new String(System.in.readAllBytes(), StandardCharsets.UTF_8) : Files.readString(Path.of(file));
+            SocketAddress address = socket != null ? UnixDomainSocketAddress.of(socket) : new InetSocketAddress(host, port);
+            return QueryServer.query(address, sql, params != null ? params : List.of(), System.out, System.err);
+        }
+    }
+
+    @Command(name="batch", description="Run many query files in one process, each result to its own file")
+    static class Batch implements Callable<Integer> {
+        @Parameters(paramLabel="SOURCE", description="directory of .sql files, or a manifest listing one per line") Path source;
+        @Option(names="--out", defaultValue="results", description="directory for the result files") Path outDir;
+        @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
+        @Option(names="--data", defaultValue="data") Path dataDir;
+        @Option(names="--engine", defaultValue="row", description="csv execution engine: row or vector") String engine;
+        @Option(names="--jobs", description="queries running at once; the number of processors by default") int jobs = Runtime.getRuntime().availableProcessors();
+        @Option(names="--threads", defaultValue="1", description="threads scanning the largest table of each query (row engine)") int threads;
+        @Option(names="--sort-memory", defaultValue="0", description="MB of rows each ORDER BY holds before spilling to disk; 0 for a quarter of the heap") long sortMemory;
+        @Option(names="--no-cache", description="parse the CSV files instead of reading or writing their columnar sidecars") boolean noCache;
+        @Option(names="--format", defaultValue="csv", description="result format: csv, tsv or jsonl") String format;
+        @Option(names="--cache-memory", defaultValue="1024", description="MB of loaded tables the queries share") long cacheMemory;
+        public Integer call() throws Exception {
+            RunOptions.Format fmt = format(format);
+            if (fmt == null) return 2;
+            if (!engine.equalsIgnoreCase("row") && !engine.equalsIgnoreCase("vector")) {
+                System.err.println("Unknown engine " + engine);
+                return 2;
+            }
+            RunOptions options = new RunOptions(threads, sortMemory << 20, !noCache, fmt);
+            BatchRunner runner = new BatchRunner(Catalog.load(catalog), dataDir, engine.equalsIgnoreCase("vector"),
+                    options, new TableCache(cacheMemory << 20), jobs);
+            long start = System.nanoTime();
+            List<BatchRunner.Result> results = runner.run(BatchRunner.queries(source), outDir);
+            int failed = 0;
+            for (BatchRunner.Result r : results) {
+                if (r.error() == null) {
+                    System.out.printf("%8d ms  %s%n", r.millis(), r.query().getFileName());
+                } else {
+                    System.out.printf("  FAILED     %s: %s%n", r.query().getFileName(), r.error());
+                    failed++;
+                }
+            }
+            System.out.printf("%d queries, %d failed, %d ms%n", results.size(), failed, (System.nanoTime() - start) / 1_000_000);
+            return failed == 0 ? 0 : 1;
+        }
+    }
+
+    @Command(name="gen", description="Write seeded CSV data for the catalog's tables at a scale factor")
+    static class Gen implements Runnable {
+        @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
+        @Option(names="--out", defaultValue="gen", description="directory for the CSV files and a copy of the catalog") Path outDir;
+        @Option(names="--scale", defaultValue="1", description="root tables get 1000 rows per unit") int scale;
+        @Option(names="--seed", defaultValue="42") long seed;
+        @Option(names="--skew", defaultValue="0", description="Zipf exponent for values and keys; 0 for uniform") double skew;
+        @Option(names="--fanout", defaultValue="10", description="rows per parent row for tables with foreign keys") int fanout;
+        public void run() {
+            try {
+                DataGenerator gen = new DataGenerator(Catalog.load(catalog), scale, seed, skew, fanout);
+                long rows = gen.write(outDir);
+                Path copy = outDir.resolve("catalog.json");
+                if (!Files.exists(copy) || !Files.isSameFile(catalog, copy)) Files.copy(catalog, copy, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Wrote " + rows + " rows to " + outDir);
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+
+    @Command(name="bench", description="Time a fixed query suite over generated data, optionally against a baseline")
+    static class Bench implements Callable<Integer> {
+        @Option(names="--catalog", defaultValue="catalog.json") Path catalog;
+        @Option(names="--data", defaultValue="data") Path dataDir;
+        @Option(names="--engine", defaultValue="row", description="csv execution engine: row or vector") String engine;
+        @Option(names="--threads", defaultValue="1", description="threads scanning the largest table (row engine)") int threads;
+        @Option(names="--no-cache", description="parse the CSV files instead of reading or writing their columnar sidecars") boolean noCache;
+        @Option(names="--warmup", defaultValue="2", description="untimed runs of each query") int warmup;
+        @Option(names="--runs", defaultValue="5", description="timed runs of each query; the median counts") int runs;
+        @Option(names="--out", defaultValue="bench.json", description="where to write the timings") Path out;
+        @Option(names="--baseline", description="earlier timings to compare against") Path baseline;
+        @Option(names="--threshold", defaultValue="20", description="percent slower than the baseline that fails") double threshold;
+        @Option(names="--min-ms", defaultValue="2", description="slowdowns below this many ms never fail") double minMillis;
+        public Integer call() throws Exception {
+            if (!engine.equalsIgnoreCase("row") && !engine.equalsIgnoreCase("vector")) {
+                System.err.println("Unknown engine " + engine);
+                return 2;
+            }
+            Catalog cat = Catalog.load(catalog);
+            RunOptions options = new RunOptions(threads, 0, !noCache);
+            BenchSuite suite = new BenchSuite(cat, dataDir, engine.equalsIgnoreCase("vector"), options, warmup, runs);
+            Map<String,double[]> times = suite.run(BenchSuite.cases(cat));
+            BenchSuite.write(out, engine.toLowerCase(), times);
+            Map<String,Double> base = baseline != null ? BenchSuite.read(baseline) : Map.of();
+            List<String> slower = BenchSuite.regressions(base, times, threshold, minMillis);
+            for (var e : times.entrySet()) {
+                double now = BenchSuite.median(e.getValue());
+                Double was = base.get(e.getKey());
+                String change = was == null ? "" : String.format("  %9.2f ms  %+6.1f%%", was, 100 * (now - was) / was);
+                System.out.printf("%-28s %9.2f ms%s%s%n", e.getKey(), now, change, slower.contains(e.getKey()) ? "  REGRESSED" : "");
+            }
+            if (!slower.isEmpty()) System.out.println(slower.size() + " queries regressed past " + threshold + "%");
+            return slower.isEmpty() ? 0 : 1;
+        }
+    }
+
+    static SocketAddress address(int port, Path socket) {
+        return socket != null ? UnixDomainSocketAddress.of(socket) : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    static RunOptions.Format format(String name) {
+        try {
+            return RunOptions.Format.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown format " + name);
+            return null;
+        }
+    }
+
     static Query parse(Path file) throws Exception {
         String sql = Files.readString(file);
         Scanner sc = new Scanner(sql);
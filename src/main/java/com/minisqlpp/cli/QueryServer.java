@@ -0,0 +1,218 @@
+package com.minisqlpp.cli;
+
+import com.minisqlpp.ast.Query;
+import com.minisqlpp.backend.CsvBackend;
+import com.minisqlpp.backend.RunOptions;
+import com.minisqlpp.backend.TableCache;
+import com.minisqlpp.backend.VectorEngine;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.PlanCache;
+import com.minisqlpp.metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves queries over a local TCP or Unix socket so one warm process
+ * answers them all: the catalog is parsed once (again when its file
+ * changes) and tables stay loaded in a shared {@link TableCache}. Each
+ * connection runs on its own virtual thread and carries one query, which
+ * goes through a shared {@link PlanCache}. The client sends the SQL, then a
+ * NUL byte before each ? value, and shuts down its output; the server
+ * answers with frames, each a tag byte and an int-length payload: 'D' for
+ * result bytes, 'E' for an error message, and a final empty 'Z'. The
+ * request SHOW METRICS is answered with the {@link Metrics} summary instead.
+ */
+public final class QueryServer implements Closeable {
+    private static final int MAX_QUERY = 1 << 20;
+    private static final int PLANS = 256;
+    private static final String SHOW_METRICS = "SHOW METRICS";
+
+    private final ServerSocketChannel channel;
+    private final SocketAddress address;
+    private final Path catalogFile;
+    private final Path dataDir;
+    private final boolean vector;
+    private final RunOptions options;
+    private final TableCache tables;
+    private final PlanCache plans = new PlanCache(PLANS);
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private Catalog catalog;
+    private long catalogMtime;
+
+    public QueryServer(SocketAddress address, Path catalogFile, Path dataDir, boolean vector, RunOptions options, TableCache tables) throws IOException {
+        if (address instanceof UnixDomainSocketAddress u) Files.deleteIfExists(u.getPath());
+        this.channel = ServerSocketChannel.open(address instanceof UnixDomainSocketAddress ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET);
+        this.channel.bind(address);
+        this.address = channel.getLocalAddress();
+        this.catalogFile = catalogFile;
+        this.dataDir = dataDir;
+        this.vector = vector;
+        this.options = options;
+        this.tables = tables;
+    }
+
+    /** The bound address, with the actual port when 0 was asked for. */
+    public SocketAddress address() {
+        return address;
+    }
+
+    /** Accepts connections until the server is closed. */
+    public void serve() throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            workers.submit(() -> handle(client));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!channel.isOpen()) return;
+        channel.close();
+        workers.shutdown();
+        if (address instanceof UnixDomainSocketAddress u) Files.deleteIfExists(u.getPath());
+    }
+
+    private void handle(SocketChannel client) {
+        try (client; Frames out = new Frames(Channels.newOutputStream(client))) {
+            try {
+                byte[] request = Channels.newInputStream(client).readNBytes(MAX_QUERY + 1);
+                if (request.length > MAX_QUERY) throw new IOException("Query longer than " + MAX_QUERY + " bytes");
+                List<String> parts = new ArrayList<>(List.of(new String(request, StandardCharsets.UTF_8).split("\0", -1)));
+                String sql = parts.remove(0);
+                if (sql.strip().equalsIgnoreCase(SHOW_METRICS)) {
+                    out.write(Metrics.summary().getBytes(StandardCharsets.UTF_8));
+                } else {
+                    Catalog cat = catalog();
+                    Query q = plans.prepare(sql, cat, parts);
+                    if (vector) new VectorEngine(cat, options, tables).run(q, dataDir, out);
+                    else new CsvBackend(cat, options, tables).run(q, dataDir, out);
+                }
+            } catch (Exception e) {
+                out.error(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+            out.end();
+        } catch (IOException e) {
+            // the client went away; nothing left to tell it
+        }
+    }
+
+    private synchronized Catalog catalog() throws IOException {
+        long mtime = Files.getLastModifiedTime(catalogFile).toMillis();
+        if (catalog == null || mtime != catalogMtime) {
+            catalog = Catalog.load(catalogFile);
+            catalogMtime = mtime;
+        }
+        return catalog;
+    }
+
+    /**
+     * Sends one query, with values for its ? placeholders, to a server and
+     * copies its result to out and any error to err; returns 0 on success
+     * and 1 if the server reported an error.
+     */
+    public static int query(SocketAddress address, String sql, List<String> params, OutputStream out, PrintStream err) throws IOException {
+        try (SocketChannel ch = SocketChannel.open(address)) {
+            StringBuilder text = new StringBuilder(sql);
+            for (String p : params) text.append('\0').append(p);
+            OutputStream request = Channels.newOutputStream(ch);
+            request.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            request.flush();
+            ch.shutdownOutput();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), 1 << 16));
+            byte[] buf = new byte[1 << 16];
+            int status = 0;
+            while (true) {
+                int tag = in.read();
+                if (tag < 0) throw new EOFException("Server closed the connection before the end of the result");
+                int len = in.readInt();
+                if (buf.length < len) buf = new byte[len];
+                in.readFully(buf, 0, len);
+                switch (tag) {
+                    case 'D' -> out.write(buf, 0, len);
+                    case 'E' -> {
+                        err.println(new String(buf, 0, len, StandardCharsets.UTF_8));
+                        status = 1;
+                    }
+                    case 'Z' -> {
+                        out.flush();
+                        return status;
+                    }
+                    default -> throw new IOException("Unknown frame " + tag);
+                }
+            }
+        }
+    }
+
+    // Result bytes go out as 'D' frames, one per write; ResultSink writes
+    // whole buffers, so frames are large.
+    private static final class Frames extends OutputStream {
+        private final DataOutputStream out;
+
+        Frames(OutputStream raw) {
+            this.out = new DataOutputStream(new BufferedOutputStream(raw, 1 << 16));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            out.writeByte('D');
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        void error(String message) throws IOException {
+            byte[] b = message.getBytes(StandardCharsets.UTF_8);
+            out.writeByte('E');
+            out.writeInt(b.length);
+            out.write(b);
+        }
+
+        void end() throws IOException {
+            out.writeByte('Z');
+            out.writeInt(0);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
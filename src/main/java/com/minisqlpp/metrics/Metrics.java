@@ -0,0 +1,202 @@
+package com.minisqlpp.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jdk.jfr.FlightRecorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters for the phases a query goes through: catalog, scan,
+ * parse, typecheck, optimize, then plan, open, build and execute in the engines, and
+ * load for whole tables. Each {@link Span} adds its duration, bytes and rows
+ * to its phase and a latency histogram of power-of-two buckets, and commits
+ * a {@link PhaseEvent} when a flight recording asks for it. The counters
+ * cost a few adds per phase of a query, so they are always on; --metrics
+ * only decides whether they are reported.
+ */
+public final class Metrics {
+    private static final Map<String,Phase> PHASES = new ConcurrentHashMap<>();
+    private static final AtomicInteger ORDER = new AtomicInteger();
+    private static final AtomicBoolean HOOKED = new AtomicBoolean();
+
+    private Metrics() {}
+
+    /** Starts timing a phase; close the span to record it. */
+    public static Span start(String phase) {
+        return new Span(PHASES.computeIfAbsent(phase, Phase::new), null);
+    }
+
+    public static Span start(String phase, Object subject) {
+        return new Span(PHASES.computeIfAbsent(phase, Phase::new), subject);
+    }
+
+    /** The phases recorded so far, in the order first seen. */
+    public static List<Phase> phases() {
+        List<Phase> out = new ArrayList<>(PHASES.values());
+        out.sort(Comparator.comparingInt(p -> p.order));
+        return out;
+    }
+
+    public static void reset() {
+        PHASES.clear();
+    }
+
+    /** A table of every phase: calls, total, mean, percentiles from the histogram, max, rows and bytes. */
+    public static String summary() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-10s %8s %11s %9s %9s %9s %9s %12s %12s%n",
+                "phase", "count", "total ms", "mean ms", "p50 ms", "p99 ms", "max ms", "rows", "bytes"));
+        for (Phase p : phases()) {
+            long n = p.count();
+            out.append(String.format("%-10s %8d %11.2f %9.3f %9.3f %9.3f %9.3f %12d %12d%n", p.name, n, p.nanos() / 1e6,
+                    n == 0 ? 0 : p.nanos() / 1e6 / n, p.percentile(50) / 1e6, p.percentile(99) / 1e6, p.max() / 1e6,
+                    p.rows(), p.bytes()));
+        }
+        return out.toString();
+    }
+
+    /** {phase: {"count", "total_ns", "max_ns", "rows", "bytes", "buckets_ns": {upper bound: count}}} */
+    public static void writeJson(Path file) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode root = mapper.createObjectNode();
+        for (Phase p : phases()) {
+            ObjectNode o = root.putObject(p.name);
+            o.put("count", p.count());
+            o.put("total_ns", p.nanos());
+            o.put("max_ns", p.max());
+            o.put("rows", p.rows());
+            o.put("bytes", p.bytes());
+            ObjectNode buckets = o.putObject("buckets_ns");
+            for (int b = 0; b < Phase.BUCKETS; b++) {
+                long c = p.buckets.get(b);
+                if (c > 0) buckets.put(Long.toString(Phase.upper(b)), c);
+            }
+        }
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), root);
+    }
+
+    /**
+     * Reports the counters when the process exits, even by a signal: as JSON
+     * to file, or as the summary table to err when file is null.
+     */
+    public static void reportAtExit(Path file, PrintStream err) {
+        if (!HOOKED.compareAndSet(false, true)) return;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                if (file != null) writeJson(file);
+                else err.print(summary());
+                err.flush();
+            } catch (IOException e) {
+                err.println("Could not write metrics to " + file + ": " + e.getMessage());
+            }
+        }, "metrics"));
+    }
+
+    /** The counters of one phase. */
+    public static final class Phase {
+        // bucket b holds durations in [2^(b-1), 2^b) ns; bucket 0 holds 0
+        static final int BUCKETS = 64;
+
+        final String name;
+        final int order = ORDER.getAndIncrement();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        void record(long ns, long b, long r) {
+            count.increment();
+            nanos.add(ns);
+            rows.add(r);
+            bytes.add(b);
+            max.accumulate(ns);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, ns)));
+        }
+
+        public String name() { return name; }
+        public long count() { return count.sum(); }
+        public long nanos() { return nanos.sum(); }
+        public long rows() { return rows.sum(); }
+        public long bytes() { return bytes.sum(); }
+        public long max() { return max.get(); }
+
+        /** Upper bound of the bucket holding the given percentile of durations, capped at the max. */
+        public long percentile(double p) {
+            long n = count(), seen = 0;
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(n * p / 100));
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) return Math.min(upper(b), max());
+            }
+            return max();
+        }
+
+        static long upper(int bucket) {
+            return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+
+    /** One timed run of a phase. Not thread-safe; each thread opens its own. */
+    public static final class Span implements AutoCloseable {
+        private final Phase phase;
+        private final Object subject;
+        private final PhaseEvent event;
+        private final long start;
+        private long bytes;
+        private long rows;
+
+        Span(Phase phase, Object subject) {
+            this.phase = phase;
+            this.subject = subject;
+            // loading an event class costs a cold JVM a few hundred ms, so
+            // there are no events until a recording has started
+            this.event = FlightRecorder.isInitialized() ? new PhaseEvent() : null;
+            if (event != null) event.begin();
+            this.start = System.nanoTime();
+        }
+
+        public Span bytes(long n) {
+            bytes += n;
+            return this;
+        }
+
+        public Span rows(long n) {
+            rows += n;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            phase.record(System.nanoTime() - start, bytes, rows);
+            if (event == null) return;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.name;
+                event.subject = subject != null ? subject.toString() : null;
+                event.bytes = bytes;
+                event.rows = rows;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.minisqlpp.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** One compiler or execution phase, as recorded by Java Flight Recorder; see {@link Metrics}. */
+@Name("minisqlpp.Phase")
+@Label("MiniSQL++ Phase")
+@Category("MiniSQL++")
+@Description("A compiler or execution phase with the bytes and rows it handled")
+@StackTrace(false)
+public final class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Subject")
+    @Description("The file or table the phase worked on, if any")
+    String subject;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Rows")
+    @Description("Tokens for the front end, rows for loading and execution")
+    long rows;
+}
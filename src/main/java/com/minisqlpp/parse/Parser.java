@@ -1,6 +1,7 @@
 package com.minisqlpp.parse;
 
 import com.minisqlpp.ast.*;
+import com.minisqlpp.metrics.Metrics;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -9,6 +10,7 @@ import java.util.Optional;
 public class Parser {
     private final List<Token> tokens;
     private int pos = 0;
+    private int params = 0;
 
     public Parser(List<Token> tokens) {
         this.tokens = tokens;
@@ -23,6 +25,15 @@ public class Parser {
     }
 
     public Query parseQuery() {
+        try (Metrics.Span span = Metrics.start("parse")) {
+            span.rows(tokens.size());
+            return query();
+        }
+    }
+
+    private Query query() {
+        Query.Explain explain = Query.Explain.NONE;
+        if (match(TokenType.EXPLAIN)) explain = match(TokenType.ANALYZE) ? Query.Explain.ANALYZE : Query.Explain.PLAN;
         expect(TokenType.SELECT);
         List<SelectItem> select = parseSelectList();
         expect(TokenType.FROM);
@@ -31,6 +42,14 @@ public class Parser {
         if (match(TokenType.WHERE)) {
             where = Optional.of(parseExpr());
         }
+        List<Expr> groupBy = new ArrayList<>();
+        if (match(TokenType.GROUP)) {
+            expect(TokenType.BY);
+            groupBy.add(parseExpr());
+            while (match(TokenType.COMMA)) {
+                groupBy.add(parseExpr());
+            }
+        }
         List<OrderSpec> orderBy = new ArrayList<>();
         if (match(TokenType.ORDER)) {
             expect(TokenType.BY);
@@ -44,8 +63,9 @@ public class Parser {
             Token num = expect(TokenType.NUMBER);
             limit = Integer.parseInt(num.text());
         }
+        match(TokenType.SEMI);
         expect(TokenType.EOF);
-        return new Query(select, from, where, orderBy, limit);
+        return new Query(select, from, where, groupBy, orderBy, limit, explain);
     }
 
     private List<SelectItem> parseSelectList() {
@@ -170,8 +190,10 @@ public class Parser {
         switch (t.type()) {
             case NUMBER -> { pos++; return new Lit(Integer.parseInt(t.text())); }
             case STRING -> { pos++; return new Lit(t.text()); }
+            case PARAM -> { pos++; return new Param(params++); }
             case IDENT -> {
                 pos++;
+                if (peek().type() == TokenType.LPAREN) return parseAggregate(t);
                 String table = null; String name = t.text();
                 if (match(TokenType.DOT)) {
                     table = name; name = expect(TokenType.IDENT).text();
@@ -184,4 +206,19 @@ public class Parser {
             default -> throw new RuntimeException("Unexpected token " + t.type());
         }
     }
+
+    // COUNT(*) or one of the aggregate functions applied to an expression
+    private Expr parseAggregate(Token name) {
+        Agg.Fn fn;
+        try {
+            fn = Agg.Fn.valueOf(name.text().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown function " + name.text());
+        }
+        expect(TokenType.LPAREN);
+        Expr arg = null;
+        if (fn != Agg.Fn.COUNT || !match(TokenType.STAR)) arg = parseExpr();
+        expect(TokenType.RPAREN);
+        return new Agg(fn, arg);
+    }
 }
@@ -1,5 +1,7 @@
 package com.minisqlpp.parse;
 
+import com.minisqlpp.metrics.Metrics;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -19,11 +21,14 @@ public class Scanner {
         keywords.put("OR", TokenType.OR);
         keywords.put("NOT", TokenType.NOT);
         keywords.put("AS", TokenType.AS);
+        keywords.put("GROUP", TokenType.GROUP);
         keywords.put("ORDER", TokenType.ORDER);
         keywords.put("BY", TokenType.BY);
         keywords.put("ASC", TokenType.ASC);
         keywords.put("DESC", TokenType.DESC);
         keywords.put("LIMIT", TokenType.LIMIT);
+        keywords.put("EXPLAIN", TokenType.EXPLAIN);
+        keywords.put("ANALYZE", TokenType.ANALYZE);
     }
 
     public Scanner(String input) {
@@ -44,6 +49,14 @@ public class Scanner {
     }
 
     public List<Token> scan() {
+        try (Metrics.Span span = Metrics.start("scan")) {
+            List<Token> tokens = tokens();
+            span.bytes(input.length()).rows(tokens.size());
+            return tokens;
+        }
+    }
+
+    private List<Token> tokens() {
         List<Token> tokens = new ArrayList<>();
         while (true) {
             skipWhitespace();
@@ -100,6 +113,8 @@ public class Scanner {
                     case '.' -> { advance(); tokens.add(new Token(TokenType.DOT, ".", start)); }
                     case '(' -> { advance(); tokens.add(new Token(TokenType.LPAREN, "(", start)); }
                     case ')' -> { advance(); tokens.add(new Token(TokenType.RPAREN, ")", start)); }
+                    case ';' -> { advance(); tokens.add(new Token(TokenType.SEMI, ";", start)); }
+                    case '?' -> { advance(); tokens.add(new Token(TokenType.PARAM, "?", start)); }
                     default -> throw new RuntimeException("Unexpected character " + c + " at " + start);
                 }
             }
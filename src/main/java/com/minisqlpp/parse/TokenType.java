@@ -2,13 +2,13 @@ package com.minisqlpp.parse;
 
 public enum TokenType {
     // Keywords
-    SELECT, FROM, WHERE, AND, OR, NOT, AS, ORDER, BY, ASC, DESC, LIMIT,
+    SELECT, FROM, WHERE, AND, OR, NOT, AS, GROUP, ORDER, BY, ASC, DESC, LIMIT, EXPLAIN, ANALYZE,
     // Identifiers and literals
-    IDENT, NUMBER, STRING,
+    IDENT, NUMBER, STRING, PARAM,
     // Operators
     EQ, NEQ, LT, LTE, GT, GTE, PLUS, MINUS, STAR, SLASH,
     // Punctuation
-    COMMA, DOT, LPAREN, RPAREN,
+    COMMA, DOT, LPAREN, RPAREN, SEMI,
     // End of input
     EOF
 }
@@ -1,19 +1,49 @@
 package com.minisqlpp;
 
+import com.minisqlpp.ast.Col;
+import com.minisqlpp.ast.Bin;
+import com.minisqlpp.ast.SelectExpr;
 import com.minisqlpp.ast.Query;
+import com.minisqlpp.backend.ColumnIndex;
 import com.minisqlpp.backend.CsvBackend;
+import com.minisqlpp.backend.CsvReader;
+import com.minisqlpp.backend.OracleEmitter;
+import com.minisqlpp.backend.RunOptions;
+import com.minisqlpp.backend.TableAnalyzer;
+import com.minisqlpp.backend.TableCache;
+import com.minisqlpp.backend.VectorEngine;
+import com.minisqlpp.check.Catalog;
+import com.minisqlpp.check.Optimizer;
+import com.minisqlpp.check.PlanCache;
+import com.minisqlpp.check.Statistics;
+import com.minisqlpp.check.Type;
 import com.minisqlpp.check.TypeChecker;
+import com.minisqlpp.cli.BatchRunner;
+import com.minisqlpp.cli.BenchSuite;
+import com.minisqlpp.cli.DataGenerator;
+import com.minisqlpp.cli.QueryServer;
+import com.minisqlpp.metrics.Metrics;
 import com.minisqlpp.parse.Parser;
 import com.minisqlpp.parse.Scanner;
 import com.minisqlpp.parse.Token;
 import com.minisqlpp.parse.TokenType;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -41,4 +71,701 @@ public class CompilerTest {
         String out = baos.toString();
         assertTrue(out.contains("Alice"));
     }
+
+    @Test
+    void vectorEngineMatchesRowEngine() throws Exception {
+        Query q = new Parser(new Scanner(Files.readString(Path.of("query.sql"))).scan()).parseQuery();
+        Catalog cat = Catalog.load(Path.of("data/catalog.json"));
+        new TypeChecker(cat).check(q);
+        PrintStream old = System.out;
+        ByteArrayOutputStream row = new ByteArrayOutputStream(), vector = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(row));
+            new CsvBackend(cat).run(q, Path.of("data"));
+            System.setOut(new PrintStream(vector));
+            new VectorEngine(cat).run(q, Path.of("data"));
+        } finally {
+            System.setOut(old);
+        }
+        String[] a = row.toString().split("\n"), b = vector.toString().split("\n");
+        assertEquals(a.length, b.length);
+        for (int i = 1; i < a.length; i++) assertEquals(a[i], b[i]);
+    }
+
+    @Test
+    void hashJoinsMatchKeysInBuildOrderAndCrossJoinOtherwise(@TempDir Path dir) throws Exception {
+        Catalog cat = joined(dir);
+        String[][] cases = {
+            {"SELECT a.id, b.id FROM a, b WHERE a.id = b.a_id", "HashJoin b on a.id = b.a_id", "a.id,b.id\n1,11\n2,10\n2,12\n2,14\n5,13\n"},
+            {"SELECT a.id, b.id FROM a, b WHERE b.tag = a.tag", "HashJoin b on a.tag = b.tag", "a.id,b.id\n1,11\n1,13\n2,10\n2,14\n"},
+            {"SELECT a.id, b.id FROM a, b WHERE a.id > b.a_id AND a.id < 4", "NestedLoop b", "a.id,b.id\n2,11\n3,10\n3,11\n3,12\n3,14\n"},
+        };
+        for (String[] c : cases) {
+            assertTrue(run(cat, dir, "EXPLAIN " + c[0]).contains("-> " + c[1]), c[0]);
+            assertEquals(c[2], run(cat, dir, c[0]), c[0]);
+        }
+    }
+
+    @Test
+    void singleTableConjunctsArePushedBelowTheJoin(@TempDir Path dir) throws Exception {
+        Catalog cat = joined(dir);
+        String sql = "SELECT a.id, b.id FROM a, b WHERE a.id = b.a_id AND b.tag = 'y' AND a.id + b.id > 12 AND a.id < 30";
+        String plan = run(cat, dir, "EXPLAIN " + sql);
+        assertTrue(plan.contains("-> Filter ((a.id + b.id) > 12)\n         after the joins\n      -> HashJoin b on a.id = b.a_id\n"), plan);
+        assertTrue(plan.contains("-> Filter (b.tag = 'y')\n                        pushed down to the scan of b\n"), plan);
+        assertTrue(plan.contains("-> Filter (a.id < 30)\n               pushed down to the scan of a\n"), plan);
+        assertEquals("a.id,b.id\n2,14\n", run(cat, dir, sql));
+    }
+
+    @Test
+    void topNOrdersByEveryKeyAndKeepsArrivalOrderOnTies(@TempDir Path dir) throws Exception {
+        // ids arrive out of order: 0, 13, 6, 19, 12, 5, ...
+        StringBuilder csv = new StringBuilder("id,name\n");
+        for (int r = 0; r < 20; r++) csv.append(r * 13 % 20).append(",n").append(r % 3).append('\n');
+        Catalog cat = table(dir, csv.toString());
+        String[][] cases = {
+            {"SELECT t.id FROM t ORDER BY t.id DESC LIMIT 3", "19,18,17"},
+            {"SELECT t.name, t.id FROM t ORDER BY t.name DESC, t.id LIMIT 4", "n2 1,n2 2,n2 3,n2 4"},
+            {"SELECT t.id FROM t ORDER BY t.id / 5 LIMIT 3", "0,4,3"},
+            {"SELECT t.id FROM t ORDER BY t.id / 10 DESC LIMIT 3", "13,19,12"},
+            {"SELECT t.id FROM t ORDER BY t.name DESC LIMIT 3", "6,5,4"},
+            {"SELECT t.id FROM t ORDER BY t.id LIMIT 0", ""},
+            {"SELECT t.id FROM t ORDER BY t.name, t.id LIMIT 0", ""},
+        };
+        for (String[] c : cases) {
+            List<String> rows = run(cat, dir, c[0]).lines().skip(1).map(l -> l.replace(',', ' ')).toList();
+            assertEquals(c[1], String.join(",", rows), c[0]);
+        }
+    }
+
+    @Test
+    void compiledExpressionsAndDictionaryEqualityGiveTheRightRows(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 10, 3);
+        String[][] cases = {
+            {"SELECT t.id * 3 - t.id / 2 + 1, -t.id FROM t WHERE t.id >= 7", "19 -7,21 -8,24 -9"},
+            {"SELECT t.id FROM t WHERE NOT (t.id < 3 OR t.id > 6) AND (t.name = 'n1' OR t.id = 5)", "4,5"},
+            {"SELECT t.id, NOT (t.id > 1) AND t.name != 'n0' FROM t WHERE t.id < 3", "0 false,1 true,2 false"},
+            {"SELECT t.id FROM t WHERE t.name < 'n1' AND t.id < 7", "0,3,6"},
+            {"SELECT t.name FROM t WHERE 'n1' < t.name", "n2,n2,n2"},
+            {"SELECT t.id FROM t WHERE t.name = 'absent'", ""},
+            {"SELECT t.id FROM t WHERE t.name != 'absent' AND t.id > 7", "8,9"},
+        };
+        for (String[] c : cases) {
+            ByteArrayOutputStream vector = new ByteArrayOutputStream();
+            new VectorEngine(cat, RunOptions.defaults()).run(new PlanCache(1).prepare(c[0], cat, List.of()), dir, vector);
+            for (String out : List.of(run(cat, dir, c[0]), vector.toString())) {
+                List<String> rows = out.lines().skip(1).map(l -> l.replace(',', ' ')).toList();
+                assertEquals(c[1], String.join(",", rows), c[0]);
+            }
+        }
+    }
+
+    @Test
+    void limitStopsTheScanEarly(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 200000, 7);
+        long size = Files.size(dir.resolve("t.csv"));
+        long[] read = new long[2];
+        String[] queries = {"SELECT t.id FROM t WHERE t.name = 'n3' LIMIT 5", "SELECT t.id FROM t WHERE t.name = 'n3'"};
+        for (int k = 0; k < 2; k++) {
+            Metrics.reset();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new CsvBackend(cat).run(new PlanCache(1).prepare(queries[k], cat, List.of()), dir, out);
+            Metrics.Phase execute = Metrics.phases().stream().filter(p -> p.name().equals("execute")).findFirst().orElseThrow();
+            assertEquals(out.toString().lines().count() - 1, execute.rows());
+            read[k] = execute.bytes();
+            if (k == 0) {
+                assertEquals("t.id\n3\n10\n17\n24\n31\n", out.toString().replace("\r", ""));
+                assertFalse(Files.exists(dir.resolve("t.csv.mcol")), "a scan that stops early builds no sidecar");
+            }
+        }
+        // the limited scan reads a chunk or so; the full one the whole table
+        assertTrue(read[0] * 20 < size && read[0] * 20 < read[1], read[0] + " and " + read[1] + " of " + size + " bytes read");
+    }
+
+    @Test
+    void orderBySpillsToDiskUnderTinyBudget() throws Exception {
+        Query q = new Parser(new Scanner("SELECT u.name, o.total FROM users u, orders o WHERE u.id = o.user_id ORDER BY u.name, o.total DESC").scan()).parseQuery();
+        Catalog cat = Catalog.load(Path.of("data/catalog.json"));
+        new TypeChecker(cat).check(q);
+        PrintStream old = System.out;
+        ByteArrayOutputStream memory = new ByteArrayOutputStream(), spilled = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(memory));
+            new CsvBackend(cat).run(q, Path.of("data"));
+            System.setOut(new PrintStream(spilled));
+            new CsvBackend(cat, new RunOptions(1, 1, false)).run(q, Path.of("data"));
+        } finally {
+            System.setOut(old);
+        }
+        assertEquals(memory.toString(), spilled.toString());
+    }
+
+    @Test
+    void columnarCacheIsRebuiltWhenCsvChanges(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, "id,name\n1,a\n2,b\n");
+        Path csv = dir.resolve("t.csv");
+        Query q = new Parser(new Scanner("SELECT t.name FROM t WHERE t.id = 2").scan()).parseQuery();
+        PrintStream old = System.out;
+        ByteArrayOutputStream first = new ByteArrayOutputStream(), second = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(first));
+            new CsvBackend(cat).run(q, dir);
+            assertTrue(Files.exists(dir.resolve("t.csv.mcol")));
+            Files.writeString(csv, "id,name\n1,a\n2,changed\n");
+            Files.setLastModifiedTime(csv, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 5000));
+            System.setOut(new PrintStream(second));
+            new CsvBackend(cat).run(q, dir);
+        } finally {
+            System.setOut(old);
+        }
+        assertTrue(first.toString().endsWith("b" + System.lineSeparator()));
+        assertTrue(second.toString().endsWith("changed" + System.lineSeparator()));
+    }
+
+    @Test
+    void csvReaderHandlesQuotesAcrossWindows(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("t.csv");
+        Files.writeString(file, "id,name\r\n1,\"Smith, Jane\"\r\n\n2,\"say \"\"hi\"\"\"\n-3,plain");
+        try (CsvReader in = new CsvReader(file, 8)) {
+            assertArrayEquals(new String[]{"id", "name"}, in.header());
+            assertTrue(in.next());
+            assertEquals(1, in.parseInt(0));
+            assertEquals("Smith, Jane", in.string(1));
+            assertTrue(in.next());
+            assertEquals("say \"hi\"", in.string(1));
+            assertTrue(in.next());
+            assertEquals(-3, in.parseInt(0));
+            assertEquals("plain", in.string(1));
+            assertFalse(in.next());
+        }
+    }
+
+    @Test
+    void csvSplitsCoverEveryRecordOnce(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("t.csv");
+        StringBuilder sb = new StringBuilder("id,note\n");
+        for (int i = 0; i < 200; i++) sb.append(i).append(i % 7 == 0 ? ",\"two\nlines\"\n" : ",x\n");
+        Files.writeString(file, sb);
+        long[] cuts = CsvReader.splits(file, 9);
+        assertTrue(cuts.length > 2);
+        int expected = 0;
+        for (int c = 0; c + 1 < cuts.length; c++) {
+            try (CsvReader in = new CsvReader(file, cuts[c], cuts[c + 1], 16)) {
+                while (in.next()) {
+                    assertEquals(expected, in.parseInt(0));
+                    assertEquals(expected % 7 == 0 ? "two\nlines" : "x", in.string(1));
+                    expected++;
+                }
+            }
+        }
+        assertEquals(200, expected);
+    }
+
+    @Test
+    void csvSplitsIgnoreQuotesInsideUnquotedFields(@TempDir Path dir) throws Exception {
+        // a quote only opens a quoted field at the start of one
+        Path file = dir.resolve("t.csv");
+        StringBuilder sb = new StringBuilder("id,note\n0,5\" pipe\n");
+        for (int i = 1; i < 200; i++) sb.append(i).append(",\"two\nlines\"\n");
+        Files.writeString(file, sb);
+        for (int parts = 2; parts < 40; parts++) {
+            long[] cuts = CsvReader.splits(file, parts);
+            int expected = 0;
+            for (int c = 0; c + 1 < cuts.length; c++) {
+                try (CsvReader in = new CsvReader(file, cuts[c], cuts[c + 1], 16)) {
+                    while (in.next()) {
+                        assertEquals(expected, in.parseInt(0), "parts " + parts);
+                        assertEquals(expected == 0 ? "5\" pipe" : "two\nlines", in.string(1));
+                        expected++;
+                    }
+                }
+            }
+            assertEquals(200, expected);
+        }
+    }
+
+    @Test
+    void zoneMapsSkipBlocksWithoutLosingRows(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 10000, 10000);
+        String[] queries = {
+            "SELECT t.id FROM t WHERE t.id >= 4095 AND 4097 >= t.id",
+            "SELECT t.id FROM t WHERE t.name = 'n9999' OR t.id = 3",
+            "SELECT t.id FROM t WHERE t.name = 'n8000' AND t.id > -1",
+            "SELECT t.id FROM t WHERE t.name = 'none'",
+        };
+        String[] expected = {"4095,4096,4097", "3,9999", "8000", ""};
+        PrintStream old = System.out;
+        try {
+            for (int k = 0; k < queries.length; k++) {
+                Query q = new Parser(new Scanner(queries[k]).scan()).parseQuery();
+                new TypeChecker(cat).check(q);
+                for (int pass = 0; pass < 2; pass++) { // the first run writes the sidecar, the second reads it
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    System.setOut(new PrintStream(out));
+                    new CsvBackend(cat).run(q, dir);
+                    List<String> lines = out.toString().lines().skip(1).toList();
+                    assertEquals(expected[k], String.join(",", lines), queries[k]);
+                }
+            }
+        } finally {
+            System.setOut(old);
+        }
+    }
+
+    @Test
+    void indexedLookupsMatchScans(@TempDir Path dir) throws Exception {
+        StringBuilder users = new StringBuilder("id,name\n"), orders = new StringBuilder("id,uid\n");
+        for (int i = 0; i < 500; i++) users.append(i).append(",n").append(i % 50).append('\n');
+        for (int i = 0; i < 5000; i++) orders.append(i).append(',').append(i * 7 % 500).append('\n');
+        Files.writeString(dir.resolve("u.csv"), users);
+        Files.writeString(dir.resolve("o.csv"), orders);
+        Catalog cat = tables(dir, "{\"u\": {\"id\": {\"type\": \"INT\", \"index\": true}, \"name\": {\"type\": \"STRING\", \"index\": true}},"
+                + " \"o\": {\"id\": \"INT\", \"uid\": {\"type\": \"INT\", \"index\": true}}}");
+        assertEquals(List.of("id", "name"), cat.indexes("u"));
+        String[] queries = {
+            "SELECT o.id, u.name FROM o, u WHERE o.uid = u.id AND o.uid = 77",
+            "SELECT u.id FROM u WHERE u.id >= 10 AND u.id < 20 AND u.name != 'n12'",
+            "SELECT u.id FROM u WHERE u.name = 'n7' AND 30 < u.id",
+            "SELECT u.id FROM u WHERE u.name > 'n48'",
+        };
+        PrintStream old = System.out;
+        try {
+            for (String sql : queries) {
+                Query q = new Parser(new Scanner(sql).scan()).parseQuery();
+                new TypeChecker(cat).check(q);
+                ByteArrayOutputStream scanned = new ByteArrayOutputStream(), indexed = new ByteArrayOutputStream();
+                System.setOut(new PrintStream(scanned));
+                new CsvBackend(cat, new RunOptions(1, 0, false)).run(q, dir);
+                for (String t : cat.tables()) {
+                    for (String c : cat.indexes(t)) ColumnIndex.build(dir.resolve(t + ".csv"), c, cat.type(t, c));
+                }
+                System.setOut(new PrintStream(indexed));
+                new CsvBackend(cat, new RunOptions(1, 0, false)).run(q, dir);
+                for (String t : cat.tables()) {
+                    for (String c : cat.indexes(t)) Files.delete(ColumnIndex.path(dir.resolve(t + ".csv"), c));
+                }
+                assertTrue(scanned.toString().lines().count() > 1, sql);
+                assertEquals(scanned.toString(), indexed.toString(), sql);
+            }
+        } finally {
+            System.setOut(old);
+        }
+    }
+
+    @Test
+    void resultFormatsEscapeStrings(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, "id,name\n1,\"a, \"\"b\"\"\"\n2,\n");
+        Query q = new Parser(new Scanner("SELECT t.id + 1 AS n, t.name FROM t").scan()).parseQuery();
+        PrintStream old = System.out;
+        ByteArrayOutputStream csv = new ByteArrayOutputStream(), jsonl = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(csv));
+            new CsvBackend(cat, new RunOptions(1, 0, false)).run(q, dir);
+            System.setOut(new PrintStream(jsonl));
+            new VectorEngine(cat, new RunOptions(1, 0, false, RunOptions.Format.JSONL)).run(q, dir);
+        } finally {
+            System.setOut(old);
+        }
+        String nl = System.lineSeparator();
+        assertEquals("n,t.name" + nl + "2,\"a, \"\"b\"\"\"" + nl + "3,\"\"" + nl, csv.toString());
+        assertEquals("{\"n\":2,\"t.name\":\"a, \\\"b\\\"\"}\n{\"n\":3,\"t.name\":\"\"}\n", jsonl.toString());
+
+        // an empty field alone on its row is quoted, so it reads back as a row
+        Query empty = new PlanCache(1).prepare("SELECT t.name FROM t WHERE t.id = 2", cat, List.of());
+        ByteArrayOutputStream row = new ByteArrayOutputStream(), vector = new ByteArrayOutputStream();
+        new CsvBackend(cat).run(empty, dir, row);
+        new VectorEngine(cat).run(empty, dir, vector);
+        assertEquals("t.name" + nl + "\"\"" + nl, row.toString());
+        assertEquals(row.toString(), vector.toString());
+        Files.write(dir.resolve("out.csv"), row.toByteArray());
+        try (CsvReader in = new CsvReader(dir.resolve("out.csv"))) {
+            assertTrue(in.next());
+            assertEquals("", in.string(0));
+            assertFalse(in.next());
+        }
+    }
+
+    @Test
+    void queryServerAnswersFromWarmCache(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 3000, 7);
+        String sql = "SELECT t.id, t.name FROM t WHERE t.name = 'n3' AND t.id > 100";
+        Query q = new Parser(new Scanner(sql).scan()).parseQuery();
+        new TypeChecker(cat).check(q);
+        ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        new CsvBackend(cat, RunOptions.defaults()).run(q, dir, direct);
+
+        TableCache cache = new TableCache(1 << 20);
+        QueryServer server = new QueryServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                dir.resolve("catalog.json"), dir, false, RunOptions.defaults(), cache);
+        Thread accept = Thread.ofVirtual().start(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream served = new ByteArrayOutputStream(), quiet = new ByteArrayOutputStream();
+                assertEquals(0, QueryServer.query(server.address(), sql, List.of(), served, new PrintStream(quiet)));
+                assertEquals(direct.toString(), served.toString());
+                assertEquals("", quiet.toString());
+                assertEquals(1, cache.size());
+            }
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            assertEquals(1, QueryServer.query(server.address(), "SELECT t.nope FROM t", List.of(), new ByteArrayOutputStream(), new PrintStream(err)));
+            assertFalse(err.toString().isBlank());
+        } finally {
+            server.close();
+            accept.join();
+        }
+    }
+
+    @Test
+    void planCacheBindsLiteralsAndParameters(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 200, 9);
+        PlanCache plans = new PlanCache(8);
+        String[][] cases = {
+            {"SELECT t.id + 1, t.name FROM t WHERE t.name = 'n3' AND t.id < 50", null},
+            {"select t.id + 7, t.name from t where t.name = 'n5' and t.id < 120", null},
+            {"SELECT t.id + ?, t.name FROM t WHERE t.name = ? AND ? > t.id", "2,n4,90"},
+        };
+        for (String[] c : cases) {
+            List<String> args = c[1] == null ? List.of() : List.of(c[1].split(","));
+            String literal = c[0];
+            for (String a : args) literal = literal.replaceFirst("\\?", a.startsWith("n") ? "'" + a + "'" : a);
+            Query fresh = new Parser(new Scanner(literal).scan()).parseQuery();
+            new TypeChecker(cat).check(fresh);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream(), cached = new ByteArrayOutputStream();
+            new CsvBackend(cat, RunOptions.defaults()).run(fresh, dir, expected);
+            new CsvBackend(cat, RunOptions.defaults()).run(plans.prepare(c[0], cat, args), dir, cached);
+            assertTrue(expected.toString().lines().count() > 1, c[0]);
+            assertEquals(expected.toString(), cached.toString(), c[0]);
+        }
+        assertEquals(2, plans.size());
+        assertEquals(1, plans.hits());
+        assertThrows(RuntimeException.class, () -> plans.prepare("SELECT t.id FROM t WHERE t.id = ?", cat, List.of("x")));
+        assertThrows(RuntimeException.class, () -> plans.prepare("SELECT t.id FROM t WHERE ? = ?", cat, List.of("1", "1")));
+    }
+
+    @Test
+    void batchWritesEachResultAndReportsFailures(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 1000, 5);
+        Path queries = Files.createDirectory(dir.resolve("queries"));
+        Files.writeString(queries.resolve("a.sql"), "SELECT t.id FROM t WHERE t.name = 'n1' ORDER BY t.id DESC LIMIT 5");
+        Files.writeString(queries.resolve("b.sql"), "SELECT t.name, t.id * 2 FROM t WHERE t.id < 20");
+        Files.writeString(queries.resolve("c.sql"), "SELECT t.nope FROM t");
+        TableCache cache = new TableCache(1 << 20);
+        List<BatchRunner.Result> results = new BatchRunner(cat, dir, false, RunOptions.defaults(), cache, 2)
+                .run(BatchRunner.queries(queries), dir.resolve("out"));
+        assertEquals(3, results.size());
+        for (BatchRunner.Result r : results.subList(0, 2)) {
+            assertNull(r.error());
+            Query q = new Parser(new Scanner(Files.readString(r.query())).scan()).parseQuery();
+            new TypeChecker(cat).check(q);
+            ByteArrayOutputStream direct = new ByteArrayOutputStream();
+            new CsvBackend(cat, RunOptions.defaults()).run(q, dir, direct);
+            assertEquals(direct.toString(), Files.readString(r.output()));
+        }
+        assertNotNull(results.get(2).error());
+        assertFalse(Files.exists(dir.resolve("out/c.csv")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void heldTablesMatchLiteralsTheyDoNotHold(@TempDir Path dir) throws Exception {
+        Catalog cat = table(dir, 10, 3);
+        Path queries = Files.createDirectory(dir.resolve("queries"));
+        Files.writeString(queries.resolve("a.sql"), "SELECT t.id FROM t WHERE t.name = 'absent'");
+        Files.writeString(queries.resolve("b.sql"), "SELECT t.id FROM t WHERE t.name != 'absent' AND t.id > 7");
+        Files.writeString(queries.resolve("c.sql"), "SELECT t.id FROM t WHERE t.name = 'n1'");
+        TableCache cache = new TableCache(1 << 20);
+        // the held dictionaries are frozen, so a query that interned into them would fail
+        for (boolean vector : new boolean[] {false, true, false}) {
+            List<BatchRunner.Result> results = new BatchRunner(cat, dir, vector, RunOptions.defaults(), cache, 2)
+                    .run(BatchRunner.queries(queries), dir.resolve("out"));
+            for (BatchRunner.Result r : results) assertNull(r.error());
+            assertEquals("t.id\n", Files.readString(results.get(0).output()).replace("\r", ""));
+            assertEquals("t.id\n8\n9\n", Files.readString(results.get(1).output()).replace("\r", ""));
+            assertEquals("t.id\n1\n4\n7\n", Files.readString(results.get(2).output()).replace("\r", ""));
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void generatedDataIsSeededAndKeysResolve(@TempDir Path dir) throws Exception {
+        Catalog cat = tables(dir, USERS_ORDERS);
+        DataGenerator gen = new DataGenerator(cat, 1, 7, 1.2, 5);
+        assertEquals(1000, gen.rows("users"));
+        assertEquals(5000, gen.rows("orders"));
+        gen.write(dir.resolve("a"));
+        new DataGenerator(cat, 1, 7, 1.2, 5).write(dir.resolve("b"));
+        assertEquals(Files.readString(dir.resolve("a/orders.csv")), Files.readString(dir.resolve("b/orders.csv")));
+
+        // every order joins exactly one user
+        Query q = new Parser(new Scanner("SELECT o.id FROM orders o, users u WHERE o.user_id = u.id").scan()).parseQuery();
+        new TypeChecker(cat).check(q);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvBackend(cat, RunOptions.defaults()).run(q, dir.resolve("a"), out);
+        assertEquals(5001, out.toString().lines().count());
+
+        List<BenchSuite.Case> cases = BenchSuite.cases(cat);
+        assertTrue(cases.stream().anyMatch(c -> c.name().equals("orders.join.users")));
+        Map<String,double[]> times = new BenchSuite(cat, dir.resolve("a"), false, RunOptions.defaults(), 0, 1).run(cases);
+        BenchSuite.write(dir.resolve("bench.json"), "row", times);
+        Map<String,Double> baseline = BenchSuite.read(dir.resolve("bench.json"));
+        assertEquals(times.keySet(), baseline.keySet());
+        assertTrue(BenchSuite.regressions(baseline, times, 20, 0).isEmpty());
+        Map<String,Double> faster = new HashMap<>();
+        baseline.forEach((k, v) -> faster.put(k, v / 100));
+        assertEquals(List.copyOf(times.keySet()), BenchSuite.regressions(faster, times, 20, 0));
+    }
+
+    @Test
+    void explainShowsThePlanAndAnalyzeCountsRows(@TempDir Path dir) throws Exception {
+        Catalog cat = generated(dir, 1, 3);
+        String sql = "SELECT u.name, o.total FROM orders o, users u WHERE o.user_id = u.id AND o.total > 900 ORDER BY o.total DESC LIMIT 3";
+        ByteArrayOutputStream plan = new ByteArrayOutputStream();
+        TableCache cache = new TableCache(1 << 20);
+        new CsvBackend(cat, RunOptions.defaults(), cache).run(new PlanCache(1).prepare("EXPLAIN " + sql, cat, List.of()), dir, plan);
+        String text = plan.toString();
+        assertTrue(text.startsWith("Output csv\n"), text);
+        assertTrue(text.contains("-> Top 3 by o.total DESC"), text);
+        assertTrue(text.contains("-> HashJoin users AS u on o.user_id = u.id"), text);
+        assertTrue(text.contains("-> Filter (o.total > 900)"), text);
+        assertFalse(text.contains("rows"), text);
+        assertFalse(Files.exists(dir.resolve("orders.csv.mcol")), "EXPLAIN alone writes no sidecar");
+        assertEquals(0, cache.size(), "EXPLAIN alone caches no table");
+
+        ByteArrayOutputStream analyzed = new ByteArrayOutputStream();
+        new CsvBackend(cat, RunOptions.defaults()).run(new PlanCache(1).prepare("explain analyze " + sql, cat, List.of()), dir, analyzed);
+        text = analyzed.toString();
+        assertTrue(text.contains("-> Top 3 by o.total DESC  (rows in="), text);
+        assertTrue(text.contains("-> Scan orders AS o  (rows=4000 "), text);
+        assertTrue(text.contains("build -> Hash u.id  (rows in=1000 out=1000 "), text);
+        assertTrue(text.contains("Output csv  (rows in=3 out=3 "), text);
+        assertTrue(text.contains("Execution time: "), text);
+        assertThrows(RuntimeException.class, () -> new VectorEngine(cat, RunOptions.defaults())
+                .run(new PlanCache(1).prepare("EXPLAIN " + sql, cat, List.of()), dir, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void groupByAggregatesTheSameSeriallyAndInParallel(@TempDir Path dir) throws Exception {
+        Catalog cat = generated(dir, 20, 7);
+        Map<String,long[]> expected = new HashMap<>(); // count, sum, min, max by user
+        List<String> lines = Files.readAllLines(dir.resolve("orders.csv"));
+        for (String line : lines.subList(1, lines.size())) {
+            String[] f = line.split(",");
+            long total = Long.parseLong(f[2]);
+            long[] e = expected.computeIfAbsent(f[1], k -> new long[] {0, 0, Long.MAX_VALUE, Long.MIN_VALUE});
+            e[0]++;
+            e[1] += total;
+            e[2] = Math.min(e[2], total);
+            e[3] = Math.max(e[3], total);
+        }
+        String sql = "SELECT o.user_id, COUNT(*), SUM(o.total), MIN(o.total), MAX(o.total), AVG(o.total) FROM orders o GROUP BY o.user_id";
+        String top = "SELECT u.name, SUM(o.total) AS s FROM orders o, users u WHERE o.user_id = u.id GROUP BY u.name ORDER BY SUM(o.total) DESC, u.name LIMIT 3";
+        String serialTop = null;
+        for (int threads : new int[] {1, 4}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new CsvBackend(cat, new RunOptions(threads, 0, false)).run(new PlanCache(1).prepare(sql, cat, List.of()), dir, out);
+            List<String> rows = out.toString().lines().skip(1).toList();
+            assertEquals(expected.size(), rows.size());
+            for (String row : rows) {
+                String[] f = row.split(",");
+                long[] e = expected.get(f[0]);
+                assertEquals(e[0] + "," + e[1] + "," + e[2] + "," + e[3] + "," + e[1] / e[0], String.join(",", List.of(f).subList(1, 6)), row);
+            }
+            ByteArrayOutputStream topOut = new ByteArrayOutputStream();
+            new CsvBackend(cat, new RunOptions(threads, 0, false)).run(new PlanCache(1).prepare(top, cat, List.of()), dir, topOut);
+            assertEquals(4, topOut.toString().lines().count());
+            if (serialTop == null) serialTop = topOut.toString();
+            else assertEquals(serialTop, topOut.toString());
+        }
+        // without GROUP BY there is always one row, the aggregates of nothing empty
+        String[][] empty = {
+            {"SELECT COUNT(*), SUM(total) FROM orders WHERE total < 0", "COUNT(*),SUM(orders.total)\n0,0\n"},
+            {"SELECT COUNT(*), MAX(total), MIN(total) + 1, AVG(total) FROM orders WHERE total < 0", "COUNT(*),MAX(orders.total),(MIN(orders.total) + 1),AVG(orders.total)\n0,,,\n"},
+            {"SELECT COUNT(*), MAX(total) FROM orders WHERE 1 = 2", "COUNT(*),MAX(orders.total)\n0,\n"},
+        };
+        for (String[] c : empty) {
+            for (int threads : new int[] {1, 4}) {
+                ByteArrayOutputStream none = new ByteArrayOutputStream();
+                new CsvBackend(cat, new RunOptions(threads, 0, false)).run(new PlanCache(1).prepare(c[0], cat, List.of()), dir, none);
+                assertEquals(c[1], none.toString().replace("\r", ""), c[0]);
+            }
+        }
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new CsvBackend(cat, new RunOptions(1, 0, false, RunOptions.Format.JSONL)).run(new PlanCache(1).prepare("SELECT COUNT(*) AS n, MAX(total) AS m FROM orders WHERE total < 0", cat, List.of()), dir, json);
+        assertEquals("{\"n\":0,\"m\":null}\n", json.toString());
+
+        for (String bad : List.of("SELECT o.total FROM orders o GROUP BY o.user_id", "SELECT * FROM orders GROUP BY user_id",
+                "SELECT user_id FROM orders WHERE SUM(total) > 0 GROUP BY user_id", "SELECT SUM(MAX(total)) FROM orders",
+                "SELECT SUM(name) FROM users")) {
+            assertThrows(RuntimeException.class, () -> new PlanCache(1).prepare(bad, cat, List.of()), bad);
+        }
+        assertThrows(RuntimeException.class, () -> new VectorEngine(cat, RunOptions.defaults())
+                .run(new PlanCache(1).prepare(sql, cat, List.of()), dir, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void phasesAreCountedAndSentToFlightRecorder(@TempDir Path dir) throws Exception {
+        generated(dir, 1, 5);
+        Metrics.reset();
+        Path jfr = dir.resolve("phases.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("minisqlpp.Phase");
+            recording.start();
+            Catalog cat = Catalog.load(dir.resolve("catalog.json"));
+            Query q = new Parser(new Scanner("SELECT o.id, u.name FROM orders o, users u WHERE o.user_id = u.id AND o.total < 100").scan()).parseQuery();
+            new TypeChecker(cat).check(q);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new CsvBackend(cat, RunOptions.defaults()).run(q, dir, out);
+            recording.stop();
+            recording.dump(jfr);
+            Map<String,Metrics.Phase> phases = new HashMap<>();
+            for (Metrics.Phase p : Metrics.phases()) phases.put(p.name(), p);
+            assertEquals(List.of("catalog", "scan", "parse", "typecheck", "plan", "open", "build", "execute"),
+                    Metrics.phases().stream().map(Metrics.Phase::name).toList());
+            assertEquals(out.toString().lines().count() - 1, phases.get("execute").rows());
+            assertEquals(1000, phases.get("build").rows());
+            assertTrue(phases.get("execute").bytes() > 0);
+            assertTrue(phases.get("scan").percentile(50) <= phases.get("scan").max());
+        }
+        List<String> recorded = RecordingFile.readAllEvents(jfr).stream()
+                .filter(e -> e.getEventType().getName().equals("minisqlpp.Phase")).map(e -> e.getString("phase")).toList();
+        assertTrue(recorded.containsAll(List.of("catalog", "scan", "parse", "typecheck", "plan", "open", "build", "execute")), recorded.toString());
+        assertTrue(Metrics.summary().lines().anyMatch(l -> l.startsWith("execute ")));
+        Metrics.writeJson(dir.resolve("metrics.json"));
+        assertTrue(Files.readString(dir.resolve("metrics.json")).contains("\"buckets_ns\""));
+    }
+
+    @Test
+    void analyzedStatisticsOrderJoinsByEstimatedCost(@TempDir Path dir) throws Exception {
+        Catalog plain = generated(dir, 5, 7);
+        Statistics stats = new Statistics();
+        for (String t : List.of("users", "orders")) stats.put(t, TableAnalyzer.analyze(dir.resolve(t + ".csv"), plain.columns(t), 1000));
+        stats.write(Statistics.path(dir.resolve("catalog.json")));
+        Catalog cat = Catalog.load(dir.resolve("catalog.json"));
+        Statistics.Table orders = cat.statistics().table("orders");
+        List<String> lines = Files.readAllLines(dir.resolve("orders.csv"));
+        HashSet<String> users = new HashSet<>();
+        for (String line : lines.subList(1, lines.size())) users.add(line.split(",")[1]);
+        assertEquals(lines.size() - 1, orders.rows());
+        assertEquals(users.size(), orders.columns().get("user_id").distinct(), users.size() * 0.05);
+        assertEquals(TableAnalyzer.BUCKETS + 1, orders.columns().get("total").histogram().length);
+        assertNull(cat.statistics().table("users").columns().get("name").histogram());
+
+        // by file size orders would drive and all of users be hashed; the
+        // statistics see the filter leaves few orders, so those are hashed
+        String sql = "SELECT u.name, o.total FROM orders o, users u WHERE o.user_id = u.id AND o.total = 5";
+        ByteArrayOutputStream plan = new ByteArrayOutputStream();
+        new CsvBackend(cat).run(new PlanCache(1).prepare("EXPLAIN " + sql, cat, List.of()), dir, plan);
+        assertTrue(plan.toString().contains("build -> Hash o.user_id"), plan.toString());
+        assertTrue(plan.toString().contains(" rows (estimated)"), plan.toString());
+        ByteArrayOutputStream costed = new ByteArrayOutputStream(), sized = new ByteArrayOutputStream();
+        new CsvBackend(cat).run(new PlanCache(1).prepare(sql, cat, List.of()), dir, costed);
+        new CsvBackend(plain).run(new PlanCache(1).prepare(sql, plain, List.of()), dir, sized);
+        assertEquals(sized.toString().lines().sorted().toList(), costed.toString().lines().sorted().toList());
+    }
+
+    @Test
+    void optimizerFoldsConstantsAndAnswersContradictionsWithoutReading(@TempDir Path dir) throws Exception {
+        Catalog cat = generated(dir, 1, 3);
+        Query q = new PlanCache(1).prepare("SELECT 2 * 3, o.id FROM orders o WHERE o.total > 10 + 5 AND NOT NOT (100 > o.user_id)"
+                + " AND NOT (o.id = 7) AND (o.id = o.id OR 1 = 1)", cat, List.of());
+        assertEquals("SELECT 6, o.id FROM orders o WHERE (((o.total > 15) AND (o.user_id < 100)) AND (o.id <> 7))", new OracleEmitter().toSql(q));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvBackend(cat).run(q, dir, out);
+        assertTrue(out.toString().startsWith("(2 * 3),o.id\n"), out.toString());
+        assertTrue(out.toString().lines().skip(1).allMatch(l -> l.startsWith("6,")));
+        assertTrue(Files.exists(dir.resolve("orders.csv.mcol")));
+
+        for (String where : List.of("u.id = 1 AND u.id = 2", "u.id > 5 AND u.id < 3", "u.name = 'a' AND (u.name = 'b' AND u.id > 0)",
+                "u.id = 4 AND u.id != 4", "1 = 2 OR u.id > 3 AND u.id <= 3")) {
+            Query none = new PlanCache(1).prepare("SELECT COUNT(*) FROM users u, orders o WHERE u.id = o.user_id AND " + where, cat, List.of());
+            assertTrue(Optimizer.empty(none), where);
+            ByteArrayOutputStream counted = new ByteArrayOutputStream();
+            new CsvBackend(cat).run(none, dir, counted);
+            assertEquals("COUNT(*)\n0\n", counted.toString().replace("\r", ""));
+            ByteArrayOutputStream rows = new ByteArrayOutputStream();
+            new VectorEngine(cat, RunOptions.defaults()).run(new PlanCache(1).prepare("SELECT * FROM users u WHERE " + where, cat, List.of()), dir, rows);
+            assertEquals("u.id,u.name\n", rows.toString().replace("\r", ""));
+        }
+        assertFalse(Files.exists(dir.resolve("users.csv.mcol")), "a query that never holds reads no table");
+        assertFalse(Optimizer.empty(new PlanCache(1).prepare("SELECT u.id FROM users u WHERE u.id >= 3 AND u.id <= 3", cat, List.of())));
+    }
+
+    @Test
+    void checkerBindsColumnsAndComputesTheOutputSchema(@TempDir Path dir) throws Exception {
+        Catalog cat = tables(dir, USERS_ORDERS);
+        Query q = new Parser(new Scanner("SELECT * FROM users u, orders o WHERE u.id = user_id").scan()).parseQuery();
+        new TypeChecker(cat).check(q);
+        Bin join = (Bin) q.where().orElseThrow();
+        Col id = (Col) join.left(), userId = (Col) join.right();
+        assertEquals(List.of(0, 0, Type.INT), List.of(id.slot(), id.ordinal(), id.type()));
+        assertEquals(List.of(1, 1, Type.INT), List.of(userId.slot(), userId.ordinal(), userId.type()));
+        assertEquals(List.of(new Query.Output("u.id", Type.INT), new Query.Output("u.name", Type.STRING), new Query.Output("o.id", Type.INT),
+                new Query.Output("o.user_id", Type.INT), new Query.Output("o.total", Type.INT)), q.output());
+        Query exprs = new Parser(new Scanner("SELECT total > 5 AS big, name, -total FROM users u, orders o").scan()).parseQuery();
+        new TypeChecker(cat).check(exprs);
+        assertEquals(Type.STRING, ((Col) ((SelectExpr) exprs.select().get(1)).expr()).type());
+        assertEquals(List.of(new Query.Output("big", Type.BOOL), new Query.Output("u.name", Type.STRING), new Query.Output("-o.total", Type.INT)),
+                exprs.output());
+
+        // a cached plan bound to other literals or values is named after them
+        PlanCache plans = new PlanCache(4);
+        Query first = plans.prepare("SELECT u.id + 1, u.name = ? FROM users u", cat, List.of("a"));
+        Query second = plans.prepare("SELECT u.id + 2, u.name = ? FROM users u", cat, List.of("b"));
+        assertEquals(1, plans.hits());
+        assertEquals(List.of("(u.id + 1)", "(u.name = 'a')"), first.output().stream().map(Query.Output::name).toList());
+        assertEquals(List.of("(u.id + 2)", "(u.name = 'b')"), second.output().stream().map(Query.Output::name).toList());
+        assertEquals(Type.BOOL, second.output().get(1).type());
+    }
+
+    private static final String USERS_ORDERS = "{\"users\": {\"id\": \"INT\", \"name\": \"STRING\"},"
+            + " \"orders\": {\"id\": \"INT\", \"user_id\": \"INT\", \"total\": \"INT\"}}";
+
+    // Output of a query on the row engine, checked, bound and optimized as run does.
+    private static String run(Catalog cat, Path dir, String sql) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvBackend(cat).run(new PlanCache(1).prepare(sql, cat, List.of()), dir, out);
+        return out.toString().replace("\r", "");
+    }
+
+    // Tables a (id, tag) and b (id, a_id, tag). a is the larger file, so it
+    // drives a join and b is built.
+    private static Catalog joined(Path dir) throws IOException {
+        StringBuilder a = new StringBuilder("id,tag\n1,x\n2,y\n3,z\n");
+        for (int i = 4; i < 40; i++) a.append(i).append(",w").append(i).append('\n');
+        Files.writeString(dir.resolve("a.csv"), a);
+        Files.writeString(dir.resolve("b.csv"), "id,a_id,tag\n10,2,y\n11,1,x\n12,2,q\n13,5,x\n14,2,y\n");
+        return tables(dir, "{\"a\": {\"id\": \"INT\", \"tag\": \"STRING\"}, \"b\": {\"id\": \"INT\", \"a_id\": \"INT\", \"tag\": \"STRING\"}}");
+    }
+
+    // Writes the catalog.json of a data directory and loads it.
+    private static Catalog tables(Path dir, String catalog) throws IOException {
+        Files.writeString(dir.resolve("catalog.json"), catalog);
+        return Catalog.load(dir.resolve("catalog.json"));
+    }
+
+    // Table t (id INT, name STRING) holding the given CSV.
+    private static Catalog table(Path dir, String csv) throws IOException {
+        Files.writeString(dir.resolve("t.csv"), csv);
+        return tables(dir, "{\"t\": {\"id\": \"INT\", \"name\": \"STRING\"}}");
+    }
+
+    // Table t with ids 0 to rows - 1, row i named "n" + i % names.
+    private static Catalog table(Path dir, int rows, int names) throws IOException {
+        StringBuilder csv = new StringBuilder("id,name\n");
+        for (int i = 0; i < rows; i++) csv.append(i).append(",n").append(i % names).append('\n');
+        return table(dir, csv.toString());
+    }
+
+    // Users and orders generated at a scale from a seed, four orders a user.
+    private static Catalog generated(Path dir, int scale, long seed) throws IOException {
+        Catalog cat = tables(dir, USERS_ORDERS);
+        new DataGenerator(cat, scale, seed, 0, 4).write(dir);
+        return cat;
+    }
 }